@@ -17,7 +17,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
+import java.util.WeakHashMap;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.metadata.IIOMetadata;
@@ -41,6 +43,9 @@ public class FileReader
     /** Image reader associated with the queried file. */
     private ImageReader _reader;
 
+    /** The files of the readers created by FileReaders. */
+    private static final Map _files = new WeakHashMap();
+
     /** Format names list that may be referred to.*/
     private String[] _formatNames = {"analyze", "minc"};
 
@@ -55,6 +60,25 @@ public class FileReader
 	}catch(Exception e){
 	    e.printStackTrace();
 	}
+	if(_reader != null){
+	    synchronized(_files){
+		_files.put(_reader, file);
+	    }
+	}
+    }
+
+    /**
+     * Get the file read by an image reader created by a FileReader.
+     *
+     * @param reader an ImageReader.
+     * @return the file, or null if the reader was not created by a 
+     *         FileReader.
+     */
+    public static File getFile(ImageReader reader)
+    {
+	synchronized(_files){
+	    return (File) _files.get(reader);
+	}
     }
 
 
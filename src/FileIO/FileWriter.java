@@ -227,10 +227,24 @@ public class FileWriter
    */
   private void _setMaxOrMinIntensityValues(Node node, int numOfImages,
 					   String nodeName, int intensity)
+  {
+    setMaxOrMinIntensityValues(node, numOfImages, nodeName, intensity);
+  }
+
+  /**
+   * Sets Maximum or Minimum pixel values, each corresponding to the maximum
+   * or minimum pixel value of one slice.
+   *
+   * @param node Node of the file header.
+   * @param numOfImages Number of images.
+   * @param nodeName Name of the node storing the max or min pixel values.
+   * @param intensDouble The intensity value to set.
+   */
+  static void setMaxOrMinIntensityValues(Node node, int numOfImages,
+					 String nodeName, double intensDouble)
   {
     NamedNodeMap map;
     Node attribute;
-    double intensDouble = intensity;
     while(node != null ){
       if(node.getNodeName() == "VARIABLES"){
 	NodeList list = node.getChildNodes();
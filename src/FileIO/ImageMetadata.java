@@ -0,0 +1,141 @@
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+package FileIO;
+
+import org.w3c.dom.Node;
+
+/**
+ * The header fields of an image file which the segmentation needs, parsed
+ * once by MetadataParser.getMetadata and shared by every parser of the same
+ * file. The fields do not change; the arrays are copied when they are
+ * returned. The renormalization values of a MINC file are parsed from the
+ * header at the first call of getReNormValues, since walking the per-slice
+ * maxima is the expensive part of the header.
+ *
+ * @author Haihong Zhuang and Daniel J. Valentino
+ * @version 19 October 2026
+ */
+public final class ImageMetadata
+{
+  /** Format name of the file. */
+  private final String _format;
+
+  /** value of orientation. 0-axial, 1-coronal, 2-sagittal. */
+  private final int _orient;
+
+  /** Bits per pixel. */
+  private final int _bitsPP;
+
+  /** Signed pixDims, as parsed from the header. */
+  private final float[] _pixDims;
+
+  /** Age of the subject to whom the data belongs. */
+  private final double _age;
+
+  /** Number of images, or -1 if it was not read. */
+  private final int _numImages;
+
+  /** Header node holding the per-slice maxima; null once they are parsed,
+   * or if the format has none. */
+  private Node _header;
+
+  /** An array of factors to re-normalize each image slide. */
+  private double[] _reNormValues = null;
+
+  /**
+   * Constructor.
+   *
+   * @param format Format name of the file.
+   * @param orient Orientation of the images.
+   * @param bitsPP Bits per pixel.
+   * @param pixDims Signed pixel dimensions.
+   * @param age Age of the subject.
+   * @param header Header node holding the per-slice maxima, or null.
+   * @param numImages Number of images, or -1.
+   */
+  ImageMetadata(String format, int orient, int bitsPP, float[] pixDims,
+		double age, Node header, int numImages)
+  {
+    _format = format;
+    _orient = orient;
+    _bitsPP = bitsPP;
+    _pixDims = (float[]) pixDims.clone();
+    _age = age;
+    _header = header;
+    _numImages = numImages;
+  }
+
+  /**
+   * Gets the name of the file format.
+   */
+  public String getFormatName()
+  {
+    return _format;
+  }
+
+  /**
+   * Gets the orientation of the images. 0-axial, 1-coronal, 2-sagittal.
+   */
+  public int getOrient()
+  {
+    return _orient;
+  }
+
+  /**
+   * Gets bits per pixel.
+   */
+  public int getBitsPP()
+  {
+    return _bitsPP;
+  }
+
+  /**
+   * Gets the signed pixel dimensions as parsed from the header; the first
+   * three are x_dimension, y_dimension and z_dimension.
+   */
+  public float[] getSignedPixDims()
+  {
+    return (float[]) _pixDims.clone();
+  }
+
+  /**
+   * Gets the age of the subject to whom the data belongs.
+   */
+  public double getAge()
+  {
+    return _age;
+  }
+
+  /**
+   * Gets the number of images, or -1 if the format did not need it.
+   */
+  public int getNumImages()
+  {
+    return _numImages;
+  }
+
+  /**
+   * Gets an array of renormalization values, parsing it at the first call.
+   *
+   * @return The factors of the slices, or null if the data does not need
+   *         to be renormalized.
+   */
+  public synchronized double[] getReNormValues()
+  {
+    if(_header != null){
+      _reNormValues = MetadataParser.createReNormValues(_header, _numImages);
+      _header = null;
+    }
+    return (_reNormValues == null) ? null : (double[]) _reNormValues.clone();
+  }
+}
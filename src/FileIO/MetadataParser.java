@@ -12,16 +12,25 @@
  */
 package FileIO;
  
+import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Vector;
+import java.util.WeakHashMap;
 import javax.imageio.ImageReader;
 import javax.imageio.metadata.IIOMetadata;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import tools.Metrics;
+
 /**
- * Class to parse the metadata of an image file.
+ * Class to parse the metadata of an image file. The header of a file is
+ * parsed once into an ImageMetadata, which is cached by the identity of the
+ * file (its path, length and modification time), so constructing parsers of
+ * the same file again does not materialize the header tree again.
  *
  * @author Haihong Zhuang and Daniel J. Valentino
  * @version 2 September 2005
@@ -44,15 +53,38 @@ public class MetadataParser
   /** Original pixDims. */
   private float[] _pixDims = {1f, 1f, 1f};
 
-  /** An array of factors to re-normalize each image slide.  */
-  private double[] _reNormValues = null;
-
   /** Whether the readers refer to the same set of image data. */
   private boolean _isSame = true;
 
   /** Age of the subject to whom the data belongs. */
   private double _age = 40;
 
+  /** Parsed metadata of a single reader; null for several readers. */
+  private ImageMetadata _metadata = null;
+
+  /** Whether the header was found and parsed; defaults are used if not. */
+  private boolean _isParsed = false;
+
+  /** The number of files whose metadata is cached. */
+  private static final int CACHE_SIZE = 16;
+
+  /** Parsed metadata by file identity, the least recently used first. */
+  private static final Map _cache = new LinkedHashMap(CACHE_SIZE, 0.75f, true){
+      protected boolean removeEldestEntry(Map.Entry eldest)
+      {
+	return size() > CACHE_SIZE;
+      }
+    };
+
+  /** Parsed metadata of the readers whose file is unknown. */
+  private static final Map _readerCache = new WeakHashMap();
+
+  /** Metrics of the cache. */
+  private static final Metrics.Counter PARSES = 
+    Metrics.counter("metadata.parses");
+  private static final Metrics.Counter HITS = 
+    Metrics.counter("metadata.cache.hits");
+
   /**
    * Constructs MetadataParser.
    * 
@@ -60,38 +92,18 @@ public class MetadataParser
    */
   public MetadataParser(ImageReader reader)
   {
-    Node node = null;
-    try{
-      node = _getImageNode(reader);
-      _format = reader.getFormatName();
-    }catch(Exception e){
-      e.printStackTrace();
-    }
-
-    // Get orientation
-    _orient = _getOrient(node, _format);
-    _bitsPP = _getBitsPP(node, _format);
+    _metadata = getMetadata(reader);
+    _format = _metadata.getFormatName();
+    _orient = _metadata.getOrient();
+    _bitsPP = _metadata.getBitsPP();
 
     // Only the first three elements in the array are necessary.
-    float[] dims = _getPixDims(node, _format);
+    float[] dims = _metadata.getSignedPixDims();
     _pixDims[0] = dims[0];
     _pixDims[1] = dims[1];
     _pixDims[2] = dims[2];
 
-    // Get subject's age
-    _age = _getAge(node, _format);
-
-    // Get the old max pixel values
-    if(_format.equals(FORMAT_TYPES[1])){
-      try{
-	double[] oldMax = _getMaxPixelValues(node, reader.getNumImages(true));
-   
-	// Get renormalization array
-	_reNormValues = _createReNorm(oldMax);
-      }catch(Exception ex){
-	ex.printStackTrace();
-      }
-    }
+    _age = _metadata.getAge();
   }
 
   /**
@@ -101,31 +113,17 @@ public class MetadataParser
    */
   public MetadataParser(Vector imgReaders)
   {
-    Node[] nodes = new Node[imgReaders.size()];
-    try{
-      for(int i = 0; i < imgReaders.size(); i++ ){
-	nodes[i] = _getImageNode( (ImageReader) imgReaders.elementAt(i) );
-      }
-    }catch(Exception e){
-      e.printStackTrace();
-    }
-
-    String[] formatArray = new String[nodes.length];
-    int[] orientArray = new int[nodes.length];
-    int[] bitsPPArray = new int[nodes.length];
-    Object[] pixDimsArray = new Object[nodes.length];
-
-    try{
-      for(int i = 0; i < nodes.length; i ++ ){
-        Node node = nodes[i];
-	String format = ((ImageReader)imgReaders.elementAt(i)).getFormatName();
-	formatArray[i] = format;
-	orientArray[i] = _getOrient(node, format);
-	bitsPPArray[i] = _getBitsPP(node, format);
-	pixDimsArray[i] = _getPixDims(node, format);
-      }
-    }catch(Exception e){
-      e.printStackTrace();
+    ImageMetadata[] metadata = new ImageMetadata[imgReaders.size()];
+    String[] formatArray = new String[metadata.length];
+    int[] orientArray = new int[metadata.length];
+    int[] bitsPPArray = new int[metadata.length];
+    Object[] pixDimsArray = new Object[metadata.length];
+    for(int i = 0; i < metadata.length; i ++ ){
+      metadata[i] = getMetadata((ImageReader) imgReaders.elementAt(i));
+      formatArray[i] = metadata[i].getFormatName();
+      orientArray[i] = metadata[i].getOrient();
+      bitsPPArray[i] = metadata[i].getBitsPP();
+      pixDimsArray[i] = metadata[i].getSignedPixDims();
     }
 
     // Whether the readers refer to the same set of image data
@@ -136,10 +134,61 @@ public class MetadataParser
 	_orient = orientArray[0];
 	_bitsPP = bitsPPArray[0];
 	_pixDims = _getPixDims(pixDimsArray, _format, _orient);
+	_age = metadata[0].getAge();
+    }
+  }
+
+  /**
+   * Constructs a parser for parsing a header into an ImageMetadata.
+   */
+  private MetadataParser()
+  {
+  }
+
+  /**
+   * Gets the metadata of the file read by the given reader, parsing the
+   * header only if the file has not been parsed before. The reader is
+   * locked while the header is parsed, so that it may be shared with
+   * threads decoding under its lock; the cache is not locked meanwhile.
+   * A header which could not be parsed is not cached, so that it is parsed
+   * again the next time.
+   *
+   * @param reader ImageReader of the queried file.
+   * @return The metadata of the file.
+   */
+  public static ImageMetadata getMetadata(ImageReader reader)
+  {
+    String key = _getFileKey(reader);
+    synchronized(_cache){
+      ImageMetadata metadata = (ImageMetadata)
+	((key != null) ? _cache.get(key) : _readerCache.get(reader));
+      if(metadata != null){
+	HITS.increment();
+	return metadata;
+      }
+    }
+
+    MetadataParser parser = new MetadataParser();
+    ImageMetadata metadata;
+    if(reader == null) metadata = parser._parse(reader);
+    else {
+      synchronized(reader){
+	metadata = parser._parse(reader);
+      }
+    }
+    PARSES.increment();
+    if(!parser._isParsed) return metadata;
+    synchronized(_cache){
+      // Another thread may have parsed the same file meanwhile
+      ImageMetadata cached = (ImageMetadata)
+	((key != null) ? _cache.get(key) : _readerCache.get(reader));
+      if(cached != null) return cached;
+      if(key != null) _cache.put(key, metadata);
+      else if(reader != null) _readerCache.put(reader, metadata);
+      return metadata;
     }
-    _age = _getAge(nodes[0], _format);
   }
-   
+
   //---------------
   // Public methods
   //---------------
@@ -216,7 +265,7 @@ public class MetadataParser
    */ 
   public double[] getReNormValues()
   {
-    return _reNormValues;
+    return (_metadata == null) ? null : _metadata.getReNormValues();
   }
 
   /**
@@ -231,6 +280,88 @@ public class MetadataParser
   // Private Methods  
   //----------------
 
+  /**
+   * Parses the header of the file read by the given reader.
+   *
+   * @param reader ImageReader of the queried file.
+   * @return The metadata of the file.
+   */
+  private ImageMetadata _parse(ImageReader reader)
+  {
+    Node node = null;
+    String format = _format;
+    try{
+      node = _getImageNode(reader);
+      format = reader.getFormatName();
+    }catch(Exception e){
+      e.printStackTrace();
+    }
+
+    // The orientation is needed to order the pixDims
+    _orient = _getOrient(node, format);
+    int bitsPP = _getBitsPP(node, format);
+    float[] pixDims = _getPixDims(node, format);
+    double age = _getAge(node, format);
+
+    // The max pixel values are parsed when they are first needed
+    Node header = null;
+    int numImages = -1;
+    _isParsed = (node != null);
+    if(format.equals(FORMAT_TYPES[1])){
+      try{
+	numImages = reader.getNumImages(true);
+	header = node;
+      }catch(Exception ex){
+	ex.printStackTrace();
+	_isParsed = false;
+      }
+    }
+    return new ImageMetadata(format, _orient, bitsPP, pixDims, age, header,
+			     numImages);
+  }
+
+  /**
+   * Gets a key identifying the file read by the given reader: its path,
+   * length and modification time.
+   *
+   * @param reader ImageReader of the queried file.
+   * @return The key, or null if the file is unknown.
+   */
+  private static String _getFileKey(ImageReader reader)
+  {
+    if(reader == null) return null;
+    File file = FileReader.getFile(reader);
+    if(file == null && reader.getInput() instanceof File)
+      file = (File) reader.getInput();
+    if(file == null) return null;
+    String path;
+    try{
+      path = file.getCanonicalPath();
+    }catch(IOException e){
+      path = file.getAbsolutePath();
+    }
+    return path + "|" + file.length() + "|" + file.lastModified();
+  }
+
+  /**
+   * Creates the renormalization array from the per-slice max pixel values
+   * of a MINC header.
+   *
+   * @param node Node of the file header.
+   * @param numOfImages Number of images.
+   * @return A renormalization array, or null if the data does not need to 
+   *         be renormalized.
+   */
+  static double[] createReNormValues(Node node, int numOfImages)
+  {
+    try{
+      return _createReNorm(_getMaxPixelValues(node, numOfImages));
+    }catch(Exception ex){
+      ex.printStackTrace();
+    }
+    return null;
+  }
+
   /**
    * Creates a renormalization array.
    *
@@ -240,7 +371,7 @@ public class MetadataParser
    * @return A renormalization array, or null if the data does not need to 
    *         be renormalized..
    */
-  private double[] _createReNorm(double[] maxArray)
+  private static double[] _createReNorm(double[] maxArray)
   {
     if(maxArray == null) return null;
 
@@ -661,7 +792,7 @@ public class MetadataParser
    * @param array to search max within.
    * @return max value of the array.
    */
-  private double _getMax(double[] array)
+  private static double _getMax(double[] array)
   {
     double max = array[0];
     for(int i = 1; i < array.length; i++){
@@ -680,7 +811,7 @@ public class MetadataParser
    * @return An array of max pixel values, or null if header does not carry 
    *         the information. 
    */
-  private double[] _getMaxPixelValues(Node node, int numOfImages)
+  private static double[] _getMaxPixelValues(Node node, int numOfImages)
   {
     return _getMaxOrMinPixelValues(node, numOfImages, "image-max");
   }
@@ -759,8 +890,8 @@ public class MetadataParser
    * @return An array of max or min pixel values, or null if header does not 
    *         carry the information.
    */
-  private double[] _getMaxOrMinPixelValues(Node node, int numOfImages,
-					   String nodeName)
+  private static double[] _getMaxOrMinPixelValues(Node node, int numOfImages,
+						  String nodeName)
   {
     double[] max = null;
     NamedNodeMap map;
@@ -0,0 +1,369 @@
+package FileIO;
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.medtoolbox.jviewbox.imagesource.ImageReaderAdapter;
+
+import tools.Metrics;
+
+
+/**
+ * A pool of independent image readers of one file, and a scheduler which
+ * decodes the images of the file on several threads. An ImageReader is not
+ * thread safe, so a single reader serializes all decoding; each reader of
+ * the pool has its own input stream, and a thread borrows a reader for the
+ * duration of one read. Readers are opened as they are needed, up to the
+ * size of the pool.
+ *
+ * @author Haihong Zhuang and Daniel J. Valentino
+ * @version 19 October 2026
+ */
+public class ReaderPool
+{
+    /** File queried. */
+    private File _file;
+
+    /** The largest number of readers. */
+    private int _size;
+
+    /** Every reader opened so far. */
+    private Vector _readers = new Vector();
+
+    /** Readers which are not borrowed. */
+    private LinkedList _idle = new LinkedList();
+
+    /** Readers being opened by borrow, which count toward the size. */
+    private int _opening = 0;
+
+    /** The first reader, kept for the metadata. */
+    private ImageReader _primary;
+
+    /** The number of images in the file. */
+    private int _numImages;
+
+    /** Threads of the decode scheduler; created at the first submit. */
+    private ExecutorService _executor;
+
+    /** Whether close has been called. */
+    private boolean _isClosed = false;
+
+    /** Time of each decode. */
+    private static final Metrics.Histogram DECODE_TIME =
+	Metrics.histogram("image.decode.us");
+
+    /**
+     * Constructs a pool with one reader per available processor.
+     *
+     * @param file The image file.
+     * @throws IOException If no reader can decode the file.
+     */
+    public ReaderPool(File file) throws IOException
+    {
+	this(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a pool.
+     *
+     * @param file The image file.
+     * @param size The largest number of readers, and of decoding threads.
+     * @throws IOException If no reader can decode the file.
+     */
+    public ReaderPool(File file, int size) throws IOException
+    {
+	if(size < 1)
+	    throw new IllegalArgumentException("size must be positive.");
+	_file = file;
+	_size = size;
+	_primary = _open();
+	_readers.add(_primary);
+	_numImages = _primary.getNumImages(true);
+	_idle.add(_primary);
+    }
+
+    /**
+     * Opens a reader of the file with its own input stream.
+     */
+    private ImageReader _open() throws IOException
+    {
+	ImageReader reader = new FileReader(_file).getImageReader();
+	if(reader == null)
+	    throw new IOException("Cannot find an Image Reader for " + _file);
+	return reader;
+    }
+
+    /**
+     * Get the first reader of the pool, for reading the metadata. The pool
+     * also lends it, so it must be locked while it is used, as the adapters
+     * and MetadataParser do, and never be used to decode.
+     *
+     * @return an ImageReader.
+     */
+    public ImageReader getImageReader()
+    {
+	return _primary;
+    }
+
+    /**
+     * Get the number of images in the file.
+     */
+    public int getNumImages()
+    {
+	return _numImages;
+    }
+
+    /**
+     * Takes a reader from the pool, opening a new one if none is idle and
+     * the pool is not full, or else waiting for one to be released.
+     *
+     * @return an ImageReader, to be given back with release.
+     * @throws IOException If a new reader cannot be opened.
+     */
+    public ImageReader borrow() throws IOException
+    {
+	synchronized(_idle){
+	    while(_idle.isEmpty()){
+		if(_isClosed)
+		    throw new IOException("The reader pool is closed.");
+		if(_readers.size() + _opening < _size){
+		    _opening++;
+		    break;
+		}
+		try{
+		    _idle.wait();
+		}catch(InterruptedException e){
+		    Thread.currentThread().interrupt();
+		    throw new IOException("Interrupted while waiting for a reader.");
+		}
+	    }
+	    if(!_idle.isEmpty()) return (ImageReader) _idle.removeFirst();
+	}
+
+	// Open the reserved reader without blocking release
+	ImageReader reader = null;
+	boolean isAdded = false;
+	try{
+	    reader = _open();
+	}finally{
+	    synchronized(_idle){
+		_opening--;
+		isAdded = (reader != null && !_isClosed);
+		if(isAdded) _readers.add(reader);
+		else _idle.notify();
+	    }
+	}
+	if(!isAdded){
+	    _dispose(reader);
+	    throw new IOException("The reader pool is closed.");
+	}
+	return reader;
+    }
+
+    /**
+     * Gives back a reader taken with borrow. A reader released after close
+     * is closed.
+     *
+     * @param reader The reader.
+     */
+    public void release(ImageReader reader)
+    {
+	synchronized(_idle){
+	    if(!_isClosed){
+		_idle.add(reader);
+		_idle.notify();
+		return;
+	    }
+	    _readers.remove(reader);
+	}
+	synchronized(reader){
+	    _dispose(reader);
+	}
+    }
+
+    /**
+     * Decodes an image on the calling thread with a reader of the pool.
+     *
+     * @param index The index of the image.
+     * @return the image.
+     * @throws IOException If the image cannot be read.
+     */
+    public BufferedImage read(int index) throws IOException
+    {
+	long start = System.nanoTime();
+	ImageReader reader = borrow();
+	try{
+	    // Adapters read the metadata of the first reader under its lock
+	    synchronized(reader){
+		return reader.read(index);
+	    }
+	}finally{
+	    release(reader);
+	    DECODE_TIME.recordSince(start);
+	}
+    }
+
+    /**
+     * Schedules the decoding of an image on the threads of the pool.
+     *
+     * @param index The index of the image.
+     * @return a Future of the BufferedImage.
+     */
+    public Future submit(final int index)
+    {
+	return _getExecutor().submit(new Callable() {
+		public Object call() throws IOException
+		{
+		    return read(index);
+		}
+	    });
+    }
+
+    /**
+     * Decodes all images of the file concurrently.
+     *
+     * @return the images, in the order of the file.
+     * @throws IOException If an image cannot be read.
+     */
+    public BufferedImage[] readAll() throws IOException
+    {
+	Future[] futures = new Future[_numImages];
+	for(int i = 0; i < futures.length; i++) futures[i] = submit(i);
+	BufferedImage[] images = new BufferedImage[_numImages];
+	for(int i = 0; i < futures.length; i++) images[i] = get(futures[i]);
+	return images;
+    }
+
+    /**
+     * Waits for an image scheduled with submit.
+     *
+     * @param future A Future returned by submit.
+     * @return the image.
+     * @throws IOException If the image cannot be read.
+     */
+    public static BufferedImage get(Future future) throws IOException
+    {
+	try{
+	    return (BufferedImage) future.get();
+	}catch(InterruptedException e){
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while decoding.");
+	}catch(ExecutionException e){
+	    Throwable cause = e.getCause();
+	    if(cause instanceof IOException) throw (IOException) cause;
+	    if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+	    throw new IOException(cause.toString());
+	}
+    }
+
+    /**
+     * Creates an image source for jViewBox which decodes with the readers of
+     * the pool, so that several viewports may load their images at the same
+     * time. The size and the rendering hints are read with the first reader.
+     *
+     * @param index The index of the image.
+     * @return an ImageReaderAdapter.
+     */
+    public ImageReaderAdapter createImageSource(int index)
+    {
+	return new PooledAdapter(index);
+    }
+
+    /**
+     * Stops the decoding threads and closes the idle readers and their
+     * streams. A reader still borrowed is closed when it is released, and
+     * a reader used under its lock is closed once that use is over.
+     */
+    public void close()
+    {
+	synchronized(this){
+	    if(_executor != null) _executor.shutdown();
+	}
+	ImageReader[] idle;
+	synchronized(_idle){
+	    _isClosed = true;
+	    idle = (ImageReader[]) _idle.toArray(new ImageReader[_idle.size()]);
+	    _readers.removeAll(_idle);
+	    _idle.clear();
+	    _idle.notifyAll();
+	}
+	for(int i = 0; i < idle.length; i++){
+	    synchronized(idle[i]){
+		_dispose(idle[i]);
+	    }
+	}
+    }
+
+    /**
+     * Disposes a reader and closes its input stream.
+     */
+    private static void _dispose(ImageReader reader)
+    {
+	Object input = reader.getInput();
+	reader.dispose();
+	try{
+	    if(input instanceof ImageInputStream)
+		((ImageInputStream) input).close();
+	}catch(IOException e){
+	    e.printStackTrace();
+	}
+    }
+
+    /**
+     * Returns the decode scheduler, creating it at the first call.
+     */
+    private synchronized ExecutorService _getExecutor()
+    {
+	if(_executor == null){
+	    _executor = Executors.newFixedThreadPool(_size, new ThreadFactory() {
+		    public Thread newThread(Runnable r)
+		    {
+			Thread thread = new Thread(r, "Decoder-" + _file.getName());
+			thread.setDaemon(true);
+			return thread;
+		    }
+		});
+	}
+	return _executor;
+    }
+
+    /**
+     * An ImageReaderAdapter whose pixel data is decoded by the pool.
+     */
+    private class PooledAdapter extends ImageReaderAdapter
+    {
+	PooledAdapter(int index)
+	{
+	    super(_primary, index, null, false);
+	}
+
+	public BufferedImage getBufferedImage() throws IOException
+	{
+	    return read(getImageIndex());
+	}
+    }
+}
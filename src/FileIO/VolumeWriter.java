@@ -0,0 +1,557 @@
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+package FileIO;
+
+import edu.ucla.loni.minc.plugin.MincImageWriterSpi;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.FileImageOutputStream;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writes a volume slice by slice, so that results can be saved as the
+ * slices are computed, without holding the whole volume as BufferedImages.
+ * Slices may be written in any order, and written again to replace them
+ * until close; slices never written are empty.
+ * <p>
+ * For Analyze, the voxels of each slice are written straight to their place
+ * in the .img file through a FileChannel, and the .hdr file, with the range
+ * of the written voxels, is written by close. For MINC, the header is
+ * written first by the MINC plugin, with the given intensity range for every
+ * slice; slices are kept in a temporary file on disk, not in memory, and
+ * passed to the plugin in order by close.
+ *
+ * @author Haihong Zhuang and Daniel J. Valentino
+ * @version 19 October 2026
+ */
+public abstract class VolumeWriter
+{
+  /** The width of the slices. */
+  protected final int _width;
+
+  /** The height of the slices. */
+  protected final int _height;
+
+  /** The number of slices. */
+  protected final int _depth;
+
+  /** Bits per voxel, 8 or 16. */
+  protected final int _bitsPP;
+
+  /** Whether close has been called. Guarded by this writer. */
+  protected boolean _isClosed = false;
+
+  /**
+   * Constructor.
+   */
+  protected VolumeWriter(int width, int height, int depth, int bitsPP)
+  {
+    _width = width;
+    _height = height;
+    _depth = depth;
+    _bitsPP = (bitsPP <= 8) ? 8 : 16;
+  }
+
+  /**
+   * Reads the parts of the input's header which a VolumeWriter needs. The
+   * reader is locked while it is read, as ReaderPool does, so this may be
+   * called while other threads decode through the same reader; the returned
+   * Header does not use the reader again.
+   *
+   * @param inputReader The reader of the input volume.
+   * @return The header of the input volume.
+   * @throws IOException If there is no reader, or a MINC reader has no
+   *                     header information.
+   */
+  public static Header readHeader(ImageReader inputReader) throws IOException
+  {
+    if(inputReader == null)
+      throw new IOException("Cannot find input images' header information. ");
+    synchronized(inputReader){
+      IIOMetadata metadata = inputReader.getStreamMetadata();
+      String format = inputReader.getFormatName();
+      if(metadata == null && format.equals("minc"))
+	throw new IOException("Cannot find input images' header information. ");
+      float[] pixDims = null;
+      if(format.equals("analyze"))
+	pixDims = MetadataParser.getMetadata(inputReader).getSignedPixDims();
+      return new Header(format, metadata, pixDims, _getOrient(metadata));
+    }
+  }
+
+  /**
+   * Opens a writer for a volume in the format of the input volume.
+   *
+   * @param baseName The file name of the output, with or without suffix.
+   * @param inputReader The reader of the input volume, for its format and
+   *                    header.
+   * @param width The width of the slices.
+   * @param height The height of the slices.
+   * @param depth The number of slices.
+   * @param bitsPP Bits per voxel; 8 for unsigned bytes, otherwise shorts.
+   * @param min The smallest intensity of every slice, for the MINC header.
+   * @param max The largest intensity of every slice, for the MINC header.
+   * @return A VolumeWriter.
+   * @throws IOException If the format is not supported or the files cannot
+   *                     be created.
+   */
+  public static VolumeWriter open(String baseName, ImageReader inputReader,
+				  int width, int height, int depth,
+				  int bitsPP, double min, double max)
+    throws IOException
+  {
+    return open(baseName, readHeader(inputReader), width, height, depth,
+		bitsPP, min, max);
+  }
+
+  /**
+   * Opens a writer for a volume with the header read from the input volume
+   * by <code>readHeader</code>.
+   *
+   * @param baseName The file name of the output, with or without suffix.
+   * @param header The header of the input volume.
+   * @param width The width of the slices.
+   * @param height The height of the slices.
+   * @param depth The number of slices.
+   * @param bitsPP Bits per voxel; 8 for unsigned bytes, otherwise shorts.
+   * @param min The smallest intensity of every slice, for the MINC header.
+   * @param max The largest intensity of every slice, for the MINC header.
+   * @return A VolumeWriter.
+   * @throws IOException If the format is not supported or the files cannot
+   *                     be created.
+   */
+  public static VolumeWriter open(String baseName, Header header,
+				  int width, int height, int depth,
+				  int bitsPP, double min, double max)
+    throws IOException
+  {
+    if(header.getFormatName().equals("analyze"))
+      return new AnalyzeWriter(baseName, header, width, height, depth,
+			       bitsPP);
+    if(header.getFormatName().equals("minc"))
+      return new MincWriter(baseName, header, width, height, depth,
+			    bitsPP, min, max);
+    throw new IOException("VolumeWriter: cannot save "
+			  + header.getFormatName() + " files.");
+  }
+
+  /**
+   * Writes a slice given as an image; the first band is written.
+   *
+   * @param z The index of the slice, starting from 0.
+   * @param image The slice.
+   */
+  public synchronized void writeSlice(int z, BufferedImage image)
+    throws IOException
+  {
+    _checkSlice(z, image.getWidth(), image.getHeight());
+    _writeSlice(z, image.getRaster());
+  }
+
+  /**
+   * Writes a slice given as voxels[x][y].
+   *
+   * @param z The index of the slice, starting from 0.
+   * @param voxels The slice.
+   */
+  public synchronized void writeSlice(int z, short[][] voxels)
+    throws IOException
+  {
+    _checkSlice(z, voxels.length, voxels[0].length);
+    BufferedImage image = _createImage();
+    WritableRaster raster = image.getRaster();
+    for(int x = 0; x < _width; x++)
+      for(int y = 0; y < _height; y++)
+	raster.setSample(x, y, 0, voxels[x][y]);
+    _writeSlice(z, raster);
+  }
+
+  /**
+   * Writes the slices not written yet as empty slices, finishes the header
+   * and closes the files.
+   */
+  public abstract void close() throws IOException;
+
+  /**
+   * Writes a checked slice.
+   */
+  protected abstract void _writeSlice(int z, Raster raster)
+    throws IOException;
+
+  /**
+   * Creates an empty image of a slice.
+   */
+  protected BufferedImage _createImage()
+  {
+    int type = (_bitsPP == 8) ? BufferedImage.TYPE_BYTE_GRAY
+      : BufferedImage.TYPE_USHORT_GRAY;
+    return new BufferedImage(_width, _height, type);
+  }
+
+  /**
+   * Checks that the volume is open, and the index and size of a slice.
+   */
+  private void _checkSlice(int z, int width, int height) throws IOException
+  {
+    if(_isClosed) throw new IOException("The volume is closed.");
+    if(z < 0 || z >= _depth)
+      throw new IndexOutOfBoundsException("No slice " + z);
+    if(width != _width || height != _height)
+      throw new IllegalArgumentException("The slice must be " + _width
+					 + " x " + _height + ".");
+  }
+
+  /**
+   * Removes the suffix of an Analyze file name.
+   */
+  private static String _getBaseName(String baseName)
+  {
+    if(baseName.endsWith(".img") || baseName.endsWith(".hdr"))
+      return baseName.substring(0, baseName.length() - 4);
+    return baseName;
+  }
+
+  /**
+   * Gets the orientation in an Analyze header; 0 if there is none.
+   */
+  private static byte _getOrient(IIOMetadata metadata)
+  {
+    if(metadata == null) return 0;
+    try{
+      String[] formatNames = metadata.getMetadataFormatNames();
+      Node node = metadata.getAsTree(formatNames[0]).getFirstChild();
+      while(node != null){
+	if(node.getNodeName().equals("DATA_HISTORY")){
+	  NamedNodeMap map = node.getAttributes();
+	  Node attribute = map.getNamedItem("orient");
+	  if(attribute != null)
+	    return Byte.parseByte(attribute.getNodeValue());
+	}
+	node = node.getNextSibling();
+      }
+    }catch(Exception e){
+      e.printStackTrace();
+    }
+    return 0;
+  }
+
+  /**
+   * The parts of the input's header used by the writers.
+   */
+  public static class Header
+  {
+    /** The format name of the input. */
+    private final String _format;
+
+    /** The stream metadata of the input. */
+    private final IIOMetadata _metadata;
+
+    /** Signed pixdims of an Analyze input; null otherwise. */
+    private final float[] _pixDims;
+
+    /** Orientation of an Analyze input. */
+    private final byte _orient;
+
+    private Header(String format, IIOMetadata metadata, float[] pixDims,
+		   byte orient)
+    {
+      _format = format;
+      _metadata = metadata;
+      _pixDims = pixDims;
+      _orient = orient;
+    }
+
+    /**
+     * Gets the format name of the input.
+     */
+    public String getFormatName()
+    {
+      return _format;
+    }
+  }
+
+  /**
+   * Writes Analyze 7.5 volumes: big-endian voxels in the .img file, and a
+   * 348 byte header with the dimensions, pixdims and orientation of the
+   * input, and the range of the written voxels.
+   */
+  private static class AnalyzeWriter extends VolumeWriter
+  {
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 348;
+
+    /** Analyze data types of unsigned char and signed short. */
+    private static final short DT_UNSIGNED_CHAR = 2;
+    private static final short DT_SIGNED_SHORT = 4;
+
+    /** The header file. */
+    private File _hdrFile;
+
+    /** The image file and its channel. */
+    private RandomAccessFile _imgFile;
+    private FileChannel _channel;
+
+    /** Buffer of one slice. */
+    private ByteBuffer _buffer;
+
+    /** Signed pixdims and orientation of the input. */
+    private float[] _pixDims;
+    private byte _orient;
+
+    /** Range of the written voxels. */
+    private int _min = Integer.MAX_VALUE;
+    private int _max = Integer.MIN_VALUE;
+
+    AnalyzeWriter(String baseName, Header header, int width,
+		  int height, int depth, int bitsPP) throws IOException
+    {
+      super(width, height, depth, bitsPP);
+      baseName = _getBaseName(baseName);
+      _hdrFile = new File(baseName + ".hdr");
+      _pixDims = header._pixDims;
+      _orient = header._orient;
+
+      File file = new File(baseName + ".img");
+      _imgFile = new RandomAccessFile(file, "rw");
+      _imgFile.setLength(0);
+      _channel = _imgFile.getChannel();
+      _buffer = ByteBuffer.allocate(width * height * (_bitsPP / 8));
+      _buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    protected synchronized void _writeSlice(int z, Raster raster)
+      throws IOException
+    {
+      _buffer.clear();
+      int[] row = new int[_width];
+      for(int y = 0; y < _height; y++){
+	raster.getSamples(0, y, _width, 1, 0, row);
+	for(int x = 0; x < _width; x++){
+	  int value = row[x];
+	  if(_bitsPP == 8) _buffer.put((byte) value);
+	  else _buffer.putShort((short) value);
+	  if(value < _min) _min = value;
+	  if(value > _max) _max = value;
+	}
+      }
+      _buffer.flip();
+      long position = (long) z * _buffer.limit();
+      while(_buffer.hasRemaining())
+	position += _channel.write(_buffer, position);
+    }
+
+    public synchronized void close() throws IOException
+    {
+      if(_isClosed) return;
+      _isClosed = true;
+
+      // Slices never written read back as zeros
+      _imgFile.setLength((long) _depth * _buffer.capacity());
+      _channel.close();
+      _imgFile.close();
+      _channel = null;
+      if(_min > _max) _min = _max = 0;
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.order(ByteOrder.BIG_ENDIAN);
+
+      // header_key
+      header.putInt(0, HEADER_SIZE);
+      header.putInt(32, 16384);
+      header.put(38, (byte) 'r');
+
+      // image_dimension
+      header.putShort(40, (short) 4);
+      header.putShort(42, (short) _width);
+      header.putShort(44, (short) _height);
+      header.putShort(46, (short) _depth);
+      header.putShort(48, (short) 1);
+      header.putShort(70, (_bitsPP == 8) ? DT_UNSIGNED_CHAR : DT_SIGNED_SHORT);
+      header.putShort(72, (short) _bitsPP);
+      for(int k = 0; k < 3 && k < _pixDims.length; k++)
+	header.putFloat(80 + 4 * k, _pixDims[k]);
+      header.putInt(140, _max);
+      header.putInt(144, _min);
+
+      // data_history
+      header.put(252, _orient);
+
+      RandomAccessFile hdr = new RandomAccessFile(_hdrFile, "rw");
+      try{
+	hdr.setLength(0);
+	hdr.getChannel().write(header);
+      }finally{
+	hdr.close();
+      }
+      System.out.println("File " + _hdrFile + " is successfully saved.");
+    }
+  }
+
+  /**
+   * Writes MINC volumes through the MINC plugin. The plugin writes the
+   * header, including the per-slice ranges, before the first slice, and 
+   * takes the slices in order, once each. The segmentation writes the
+   * slices from the center outwards, and may write a slice again, so every
+   * slice is spilled to a temporary file, where a slice written again
+   * replaces the earlier one, and close passes them on in order; only one
+   * slice is held in memory.
+   * <p>
+   * The image-min and image-max of a MINC slice are not statistics of its
+   * voxels but the real values which the voxel range maps to, so they are
+   * set to the given range up front, as FileWriter.saveMincFile does;
+   * setting them to the range of each slice at close would change the
+   * meaning of the voxels written.
+   */
+  private static class MincWriter extends VolumeWriter
+  {
+    /** The output stream. */
+    private FileImageOutputStream _stream;
+
+    /** The plugin writer. */
+    private ImageWriter _writer;
+
+    /** The slices received, at z * slice size; created with the first
+     * slice. */
+    private File _spillFile;
+    private RandomAccessFile _spill;
+    private FileChannel _spillChannel;
+
+    /** Whether each slice is in the spill file. */
+    private boolean[] _isSpilled;
+
+    /** Buffer of one slice in the spill file. */
+    private ByteBuffer _buffer;
+
+    MincWriter(String fileName, Header header, int width,
+	       int height, int depth, int bitsPP, double min, double max)
+      throws IOException
+    {
+      super(width, height, depth, bitsPP);
+      if(!fileName.endsWith(".mnc")) fileName += ".mnc";
+      _stream = new FileImageOutputStream(new File(fileName));
+      _isSpilled = new boolean[depth];
+      _buffer = ByteBuffer.allocate(width * height * (_bitsPP / 8));
+
+      // Set the range of every slice in the input's header
+      IIOMetadata metadata = header._metadata;
+      String[] formatNames = metadata.getMetadataFormatNames();
+      Node node = metadata.getAsTree(formatNames[0]);
+      FileWriter.setMaxOrMinIntensityValues(node.getFirstChild(), depth,
+					     "image-max", max);
+      FileWriter.setMaxOrMinIntensityValues(node.getFirstChild(), depth,
+					     "image-min", min);
+      metadata.setFromTree(formatNames[0], node);
+
+      _writer = new MincImageWriterSpi().createWriterInstance(null);
+      _writer.setOutput(_stream);
+      _writer.prepareWriteSequence(metadata);
+    }
+
+    protected synchronized void _writeSlice(int z, Raster raster)
+      throws IOException
+    {
+      _spill(z, raster);
+    }
+
+    public synchronized void close() throws IOException
+    {
+      if(_isClosed) return;
+      _isClosed = true;
+      try{
+	BufferedImage empty = null;
+	for(int z = 0; z < _depth; z++){
+	  BufferedImage image;
+	  if(_isSpilled[z]) image = _unspill(z);
+	  else {
+	    if(empty == null) empty = _createImage();
+	    image = empty;
+	  }
+	  _writer.writeToSequence(new IIOImage(image, null, null), null);
+	}
+	_writer.endWriteSequence();
+      }finally{
+	_writer.dispose();
+	_writer = null;
+	_stream.close();
+	if(_spill != null){
+	  _spill.close();
+	  _spillFile.delete();
+	}
+      }
+    }
+
+    /**
+     * Writes a slice to the spill file, replacing an earlier one.
+     */
+    private void _spill(int z, Raster raster) throws IOException
+    {
+      if(_spill == null){
+	_spillFile = File.createTempFile("slices", ".raw");
+	_spillFile.deleteOnExit();
+	_spill = new RandomAccessFile(_spillFile, "rw");
+	_spillChannel = _spill.getChannel();
+      }
+      _buffer.clear();
+      int[] row = new int[_width];
+      for(int y = 0; y < _height; y++){
+	raster.getSamples(0, y, _width, 1, 0, row);
+	for(int x = 0; x < _width; x++){
+	  if(_bitsPP == 8) _buffer.put((byte) row[x]);
+	  else _buffer.putShort((short) row[x]);
+	}
+      }
+      _buffer.flip();
+      long position = (long) z * _buffer.capacity();
+      while(_buffer.hasRemaining())
+	position += _spillChannel.write(_buffer, position);
+      _isSpilled[z] = true;
+    }
+
+    /**
+     * Reads a slice back from the spill file.
+     */
+    private BufferedImage _unspill(int z) throws IOException
+    {
+      _buffer.clear();
+      long position = (long) z * _buffer.capacity();
+      while(_buffer.hasRemaining()){
+	if(_spillChannel.read(_buffer, position + _buffer.position()) < 0)
+	  throw new IOException("The spilled slice " + z + " is truncated.");
+      }
+      _buffer.flip();
+      BufferedImage image = _createImage();
+      WritableRaster raster = image.getRaster();
+      int[] row = new int[_width];
+      for(int y = 0; y < _height; y++){
+	for(int x = 0; x < _width; x++)
+	  row[x] = (_bitsPP == 8) ? (_buffer.get() & 0xff)
+	    : (_buffer.getShort() & 0xffff);
+	raster.setSamples(0, y, _width, 1, 0, row);
+      }
+      _isSpilled[z] = false;
+      return image;
+    }
+  }
+}
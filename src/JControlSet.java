@@ -14,6 +14,7 @@
  */
  
 import java.io.File;
+import java.io.IOException;
 
 import javax.imageio.ImageIO;
 
@@ -53,10 +54,14 @@ import org.medtoolbox.jviewbox.viewport.ViewportGrid;
 import org.medtoolbox.jviewbox.viewport.Viewport;
 import org.medtoolbox.jviewbox.viewport.ViewportToolButton;
 import org.medtoolbox.jviewbox.viewport.annotation.Annotation;
-import org.medtoolbox.jviewbox.viewport.annotation.DynamicAnnotationImage;
 import org.medtoolbox.jviewbox.viewport.annotation.DynamicAnnotationShape;
 
+import FileIO.MetadataParser;
+import LevelSet.MaskWriter;
 import LevelSet.SkullStripper;
+import LevelSet.VolumeEvolver;
+import LevelSet.VolumeSkullStripper;
+import tools.Metrics;
 
 
 /**
@@ -103,199 +108,73 @@ public class JControlSet extends JPanel
 		*/
 		public void run(){
 			
+			MaskWriter maskWriter = null;
 			try{
 				// Set the starting time.
 				GregorianCalendar gc = new GregorianCalendar();
 				Date startDate = gc.getTime();
 				long startMS = startDate.getTime();
 				
-				//calculate histogram
-				_histogram(_skullstripper);
-				
-				// The slices, that are around mid-sagittal slices, are estimated to be 
-			    // within SLICE_1 and SLICE_2
-			    double temp = _skullstripper.size();
-			    int SLICE_1 = (int) (temp * 0.45);
-			    int SLICE_2 = (int) (temp * 0.55);
-				
+				// The slices are segmented by the shared pipeline; the
+				// listener draws them and saves their masks
+				SkullStripper[] slices = new SkullStripper[_skullstripper.size()];
+				_skullstripper.toArray(slices);
+				final VolumeSkullStripper stripper = new VolumeSkullStripper(slices);
+				stripper.setPyramidLevels(PYRAMID_LEVELS);
+				stripper.setListener(new VolumeSkullStripper.Listener() {
+					public void sliceUpdated(SkullStripper slice) throws InterruptedException
+					{
+						Viewport viewport = _origViewport[slice.slice];
+						viewport.removeAnnotation(slice.annShape);
+						slice.annShape = slice.getAnnotationShape();
+						viewport.addAnnotation(slice.annShape);
+						_grid.repaint(viewport);
+						// Let the system wait for updating the display.
+						Thread.sleep((slice.slice > stripper.getCenterIndex()) ? 7 : 10);
+					}
+					
+					public void sliceFinished(SkullStripper slice) throws IOException
+					{
+						slice.saveMaskImage();
+					}
+				});
 				
-				int iter=0;
+				// The slices share the resampling orientation, so that
+				// none of them decodes the volume again
+				SkullStripper first = slices[0];
+				BufferedImage[] images = new BufferedImage[slices.length];
+				for(int i=0;i<images.length;i++){
+					images[i] = slices[i].getInputImage();
+				}
+				int resamplingOrient = SkullStripper.getResamplingOrient(
+						new MetadataParser(first._imageReader), images);
+				for(int i=0;i<slices.length;i++){
+					slices[i].setResamplingOrient(resamplingOrient);
+				}
 				
+				// Write the masks in the background as one volume
+				maskWriter = new MaskWriter(MaskWriter.VOLUME, MASK_FILE_NAME,
+						slices.length, first._imageReader, first.getIntensityOfMask());
+				for(int i=0;i<slices.length;i++){
+					slices[i].setMaskWriter(maskWriter);
+				}
 				
-
-                    //start at center slice
-					int num = _skullstripper.size()/2-1;
-				    //threshold function mode
-				    int thresmode = 0;
-				    
-				    SkullStripper slice = (SkullStripper) _skullstripper.get(num);	    
-					slice.initialParameter();
-					//slice.SetZeroLevel();
-				//	while(true){
-						
-				      while(iter<1500&&slice.isStationary()==false&&slice.getisFrozen()==false){
-				        _origViewport[num].removeAnnotation(slice.annImage);	
-				        //do skull stripping
-					    slice.Skullstrip();
-				        slice.annImage = new DynamicAnnotationImage(slice.getAnnotationImage());
-				        _origViewport[num].addAnnotation(slice.annImage);
-				        _grid.repaint(_origViewport[num]);
-					    // Let the system wait for 5 ms for updating the display.
-					    Thread.sleep(10);
-					    iter++;
-					  }
-				      System.out.println("center slice area = "+slice.calculateMaskArea(slice.phi));
-				      //7500
-				      /*
-				      if(slice.calculateMaskArea(slice.phi)<6500){
-				    	  _origViewport[num].removeAnnotation(slice.annImage);			
-				    	 // slice.AdjustTh(-0.05);
-				 	 
-				    	  slice.initialParameter();     
-				    	  thresmode = slice.switchTh(1);
-				    	  iter=0;
-				      }
-				      
-				     
-				      else
-				    	  break;
-					  */
-					//}
-			      
-					slice.saveMaskImage();
-					int adjusttime=0;
-					
-					
-					
-					//compute lower slice 
-					
-					for(int i=num-1;i>=0;i--){
-						System.out.println("current slice = "+(i+1));
-						iter=0;
-						SkullStripper lowerslice = (SkullStripper) _skullstripper.elementAt(i);
-						SkullStripper formerslice = (SkullStripper) _skullstripper.elementAt(i+1);
-						lowerslice.initialphiwithFormer(formerslice.phi);
-						lowerslice.initialParameter();
-					//	lowerslice.switchTh(thresmode);
-						
-					
-						lowerslice.phi=lowerslice.shrinkPhiZero(lowerslice.phi,(int)Math.floor(Math.abs(lowerslice.INTER_SLICE_DIST)+0.5));
-					
-						while(iter<600 && lowerslice.isStationary()==false){
-						
-							 _origViewport[i].removeAnnotation(lowerslice.annImage);	
-							
-						       if(lowerslice.calculateMaskArea(lowerslice.phi)<100){
-							       lowerslice.setPhiZero();
-							       _grid.repaint(_origViewport[i]);
-							       break;
-							   }   
-						       
-						       
-						       //do skull stripping
-							   lowerslice.Skullstrip();
-						       lowerslice.annImage = new DynamicAnnotationImage(lowerslice.getAnnotationImage());
-						       _origViewport[i].addAnnotation(lowerslice.annImage);
-						       _grid.repaint(_origViewport[i]);
-							   // Let the system wait for 2 ms for updating the display.
-							   Thread.sleep(10);
-							   iter++;
-							   
-							}
-					    if(!(i>SLICE_1&&i<SLICE_2)) { 	
-					      if(_isPhiAcceptable(lowerslice.phi,lowerslice,formerslice,formerslice.phi)==false&&adjusttime<=2)	{
-					       		// adjust parameter of curvature and stanCounter and Th				    	     
-					    	    adjusttime++;
-					    	    System.out.println("lower adjust slice="+(i+1));
-					    	    i=i+1;
-					    	   
-					    	    //if adjust time equal to 2 replace current phi with former phi
-					    	    if(adjusttime==3){					  
-					    	       i--;
-					    	       System.out.println("replace slice "+(lowerslice.slice+1)+" with former"+"i="+i);
-					    	       _origViewport[i].removeAnnotation(lowerslice.annImage); 
-					    	       lowerslice.initialphiwithFormer(formerslice.phi);
-					    	       lowerslice.annImage = new DynamicAnnotationImage(lowerslice.getAnnotationImage());
-					    	       _origViewport[i].addAnnotation(lowerslice.annImage);
-					    	       _grid.repaint(_origViewport[i]);
-					    	       Thread.sleep(10);
-					    	       lowerslice.saveMaskImage();
-					    	       adjusttime=0;
-					    	   }
-					        }  
-					      else{
-					           lowerslice.saveMaskImage();
-					            adjusttime=0;   
-					       }
-					    }
-					   else{
-						     lowerslice.saveMaskImage();
-					     }
-					}
+				// Start at the center slice, grown on coarse levels first
+				stripper.initializeCenter();
+				if(VOLUMETRIC_MODE){
+					_segmentVolume(stripper);
+					return;
+				}
+				stripper.segmentCenter();
 				
-					adjusttime=0;
+				// compute lower slices, then upper slices
+				stripper.segmentLower();
+				stripper.segmentUpper();
 				
-					
-					
-					// compute upper slices
-					
-					for(int i=num+1;i<_skullstripper.capacity();i++){
-						iter=0;
-						SkullStripper upperslice = (SkullStripper) _skullstripper.elementAt(i);
-						SkullStripper formerslice = (SkullStripper) _skullstripper.elementAt(i-1);
-						upperslice.initialphiwithFormer(formerslice.phi);
-						upperslice.initialParameter();
-						
-						//upperslice.switchTh(thresmode);
-						upperslice.phi=upperslice.shrinkPhiZero(upperslice.phi,(int)Math.floor(Math.abs(upperslice.INTER_SLICE_DIST)-0.5));
-						while(iter<700 && upperslice.isStationary()==false){
-						       _origViewport[i].removeAnnotation(upperslice.annImage);	
-						       
-						       if(upperslice.calculateMaskArea(upperslice.phi)<10){
-								    upperslice.setPhiZero();
-								    _grid.repaint(_origViewport[i]);
-									break;
-								}    
-						       
-						       //do skull stripping
-							   upperslice.Skullstrip();
-						       upperslice.annImage = new DynamicAnnotationImage(upperslice.getAnnotationImage());
-						       _origViewport[i].addAnnotation(upperslice.annImage);
-						       _grid.repaint(_origViewport[i]);
-							   // Let the system wait for 2 ms for updating the display.
-							   Thread.sleep(7);
-							   iter++;
-							}
-					  if(!(i>SLICE_1&&i<SLICE_2)) { 	
-					     if(_isPhiAcceptable(upperslice.phi,upperslice,formerslice,formerslice.phi)==false&&adjusttime<=2)	{
-					    	i-=1;
-					    	adjusttime++;
-					    	
-					    	 //if adjust time equal to 2 replace current phi with former phi
-				    	    if(adjusttime==3){					  
-				    	       i++;
-				    	       System.out.println("replace slice "+(upperslice.slice+1)+" with former"+"i="+i);
-				    	       _origViewport[i].removeAnnotation(upperslice.annImage); 
-				    	       upperslice.initialphiwithFormer(formerslice.phi);
-				    	       upperslice.annImage = new DynamicAnnotationImage(upperslice.getAnnotationImage());
-				    	       _origViewport[i].addAnnotation(upperslice.annImage);
-				    	       _grid.repaint(_origViewport[i]);
-				    	       Thread.sleep(10);
-				    	       upperslice.saveMaskImage();
-				    	       adjusttime=0;
-				    	   }  	
-					    	
-					     }
-					    else{
-					        upperslice.saveMaskImage();
-					        adjusttime=0;   
-					    }
-					  }
-					  else{
-						  upperslice.saveMaskImage();
-					  }
-						 
-					}
+				// Wait for the queued masks and write the volume
+				maskWriter.close();
+				Metrics.histogram("levelset.volume.us").record((System.currentTimeMillis() - startMS) * 1000);
+				System.out.println(Metrics.getInstance());
 					
 				
 					
@@ -315,6 +194,10 @@ public class JControlSet extends JPanel
 			catch (Exception e){
 				System.out.println("Error:  " + e.getMessage());	
 			}	
+			finally{
+				// Finish the volume with the masks saved so far
+				if(maskWriter != null) maskWriter.close();
+			}
 			
 			
 			
@@ -350,180 +233,89 @@ public class JControlSet extends JPanel
 			_min = timeInMin - _hour * 60;
 			
 		}
-		 /**
-		   * If the segmentation results, represented by phi, is acceptable.
-		   *
-		   * @param phi to check on.
-		   * @param current slide
-		   * @param previous slide
-		   * @param lastPhi Phi in last (or previous) slide.
-		   * @return True is phi is acceptable; or false if it is unacceptable.
-		   */
-		  private boolean _isPhiAcceptable(double[][] phi,SkullStripper current, SkullStripper ac, 
-						   double[][] lastPhi)
-		  { 
-		    boolean isAcceptable = true;
-		    double HLIMIT_JACCARD = 0.90;
-		    double LIMIT_JACCARD = 0.75;
-		    if(true){
-		      double[] temp = _evaluate(lastPhi, phi);
-		      double jaccard = temp[0];
-		      int maskArea = ac.calculateMaskArea(phi);
-		      if( maskArea > 10000){
-		    	 if(jaccard < HLIMIT_JACCARD) {System.out.print("Adjust th, ");}//current.AdjustTh(0.05); isAcceptable = false;} 
-			     if(jaccard < LIMIT_JACCARD){System.out.print("Adjust curvature, ");current.AdjustCurva(); isAcceptable = false;}
-		      }
-		      else {
-		    	if(true){
-			       int lastMaskArea = 0;
-			       int contourLength = 0;
-			       lastMaskArea = ac.calculateMaskArea(lastPhi);
-			       double difference = maskArea - lastMaskArea;
-		      
-			       double MAX_AREA_DIF = 0;
-			       contourLength = ac.calculateContourLength(lastPhi);
-			       if(contourLength > 0) 
-			           MAX_AREA_DIF = contourLength *(Math.abs(3)+1) * 2;
-		       	  else MAX_AREA_DIF = difference; 
-			  
-			  // If the difference between lastMaskArea and maskArea is within 
-			  // 15% of lastMaskArea, then phi is acceptable
-			   if( difference > MAX_AREA_DIF ) {current.AdjustCurva(); isAcceptable = false;}
-			}
-		      }
-		    }
-		    return isAcceptable;
-		  }
-		
 		  /**
-		   * Evaluate the skull-stripping algorithm.
-		   *
-		   * @param phi an array containing the family of the level sets.
-		   * @param labelBImg a buffered image which serves as the golden standard. 
-		   * @return An one element array of double values. The element is the 
-		   *         Jaccard coefficient of the given phi2 compared to the given phi1. 
+		   * Segments the volume with one 3D level set, initialized by extending
+		   * the phi of the center slice through the volume, and saves the
+		   * masks of all slices.
 		   */
-		  private double[] _evaluate(double[][] phi1, double[][] phi2)
+		  private void _segmentVolume(VolumeSkullStripper stripper) throws Exception
 		  {
-
-		    // True positive is successfully segmented pixels
-		    double TP = 0;
-
-		    // Pixels in the segmentation result that do not belong to the golden 
-		    // standard: false positive
-		    double FP = 0;
-
-		    // pixels of the golden standard but do not belong to the segmentation
-		    // results: false negative
-		    double FN = 0;
-		    
-		    double var1 = 0;
-		    double var2 = 0;
-		    double BOUNDARY_VALUE = -0.5;
-		    for(int x = 0; x < phi1.length; x++){
-		      for(int y = 0; y < phi1[0].length; y++){
-			var1 = phi1[x][y];
-			var2 = phi2[x][y];
-
-			// True positive
-			if(var1 >= BOUNDARY_VALUE && var2 >= BOUNDARY_VALUE) TP += 1;
-			
-			// False positive
-			if(var1 >= BOUNDARY_VALUE && var2 < BOUNDARY_VALUE) FP += 1;
-			
-			// False negative
-			if(var1 < BOUNDARY_VALUE && var2 >= BOUNDARY_VALUE) FN += 1;
-		      }
-		    }    
-		    double jaccard = TP / (TP + FP + FN);
-		    double[] ans = new double[2];
-		    ans[0] = jaccard;
-		    return ans;
-		  }
-		  
-		  double _intens2;
-		  double _intens98;
-		  double _intens10;
-		  double _intens40;
-		  /**
-		   * Calculate the histogram of an image and initialize the class members of
-		   * _intens2 and _intens98.
-		   */
-		  private void _histogram(Vector skullStrippers)
-		  {
-		    // Find the maximum intensity
-		    int maxI = 0;
-		    short[][] array = null;
-		    BufferedImage image = null;
-		    SkullStripper ac = null;
-		    for(int z = 0; z < skullStrippers.size(); z++ ){
-		      ac = (SkullStripper)skullStrippers.elementAt(z);
-		      image = ac.getInputImage();
-		      array = ac.create2DArray(image);
-		      for(int x = 0; x < array.length; x++ ){
-			for( int y = 0; y < array[0].length; y++ ){
-			  if(maxI < array[x][y]) maxI = array[x][y];
-			}
-		      }
-		    }
-
-		    // Initialize the histogram array
-		    int[] hist = new int[maxI + 1];
-
-		    // Construct histogram array
-		    int intens;
-		    for(int z = 0; z < skullStrippers.size(); z++ ){
-		      ac = (SkullStripper)skullStrippers.elementAt(z);
-		      image = ac.getInputImage();
-		      array = ac.create2DArray(image);
-		      for(int x = 0; x < array.length; x++ ){
-			for( int y = 0; y < array[0].length; y++ ){
-			  intens = array[x][y];
-			  hist[intens]++;
-			}
-		      }
-		    }
-
-		    // Calculate _intens2
-		    double sum = 0;
-		    ac = (SkullStripper)skullStrippers.elementAt(0);
-		    image = ac.getInputImage();
-		    int width = image.getWidth();
-		    int height = image.getHeight();
-		    double totalSum = width * height * skullStrippers.size();
-		    for(int k = 0; k < hist.length; k++){
-			sum += hist[k];
-			if(sum / totalSum > 0.02) {
-			    _intens2 = k;
-			    k = hist.length;
-			}
-		    }
-
-		    // Calculate _intens98
-		    sum = 0;
-		    for(int k = 0; k < hist.length; k++){
-			sum += hist[k];
-			if(sum / totalSum > 0.98) {
-			    _intens98 = k;
-			    k = hist.length;
-			}
+		    int size = _skullstripper.size();
+		    int num = stripper.getCenterIndex();
+		    SkullStripper center = (SkullStripper) _skullstripper.elementAt(num);
+		    short[][][] slices = new short[size][][];
+		    for(int i = 0; i < size; i++){
+		      SkullStripper slice = (SkullStripper) _skullstripper.elementAt(i);
+		      slices[i] = slice.getInputImageArray();
 		    }
+		    VolumeEvolver evolver = new VolumeEvolver(VolumeEvolver.toVolume(slices),
+		        center.getXdim(), center.getYdim(),
+		        Runtime.getRuntime().availableProcessors());
+		    evolver.setThresholdIntensities(stripper.getIntens2(),
+		        stripper.getIntens10(), center.getMedianIntensity(),
+		        stripper.getIntens98());
+		    // The speed of the center slice, calibrated for its age and pixels
+		    evolver.setParameters(center.getCurvatureWeight(),
+		        center._calculator.getThresholdSelector(),
+		        center._calculator.getMinProbingDistance(),
+		        center._calculator.getMaxProbingDistance());
+		    evolver.initialize(center.phi, num, Math.abs(center.INTER_SLICE_DIST));
+		    int iter = evolver.evolve(VOLUME_MAX_ITER, 1e-4);
+		    evolver.dispose();
+		    System.out.println("volume iterations = "+iter+", volume = "+evolver.getMaskVolume());
 
-		   // Calculate _intense10
-		    _intens10 = Math.floor(((_intens98 - _intens2)*0.1) + _intens2 + 0.5);
-
-		    // Calculate _intens40
-		    _intens40 = Math.floor(((_intens98 - _intens2)*0.4) + _intens2 + 0.5);
-		    
-		    for(int i=0;i<skullStrippers.size();i++){
-		     SkullStripper slice = (SkullStripper)skullStrippers.get(i);
-		     slice._calculator.setIntensity(maxI, 0);
-		     slice.setThresholdIntensities(_intens2,_intens10,_intens40,_intens98);
+		    for(int i = 0; i < size; i++){
+		      SkullStripper slice = (SkullStripper) _skullstripper.elementAt(i);
+		      final DynamicAnnotationShape oldShape = slice.annShape;
+		      slice.phi = evolver.getSlicePhi(i);
+		      slice._calculator.invalidateMaskArea();
+		      final DynamicAnnotationShape newShape = slice.getAnnotationShape();
+		      slice.annShape = newShape;
+		      final Viewport viewport = _origViewport[i];
+		      // The viewports are Swing components
+		      SwingUtilities.invokeLater(new Runnable() {
+			  public void run()
+			  {
+			    viewport.removeAnnotation(oldShape);
+			    viewport.addAnnotation(newShape);
+			    _grid.repaint(viewport);
+			  }
+			});
+		      slice.saveMaskImage();
 		    }
-		  
-  	     }
+		  }
   	}
   	
+	/**
+	 * Base name of the mask volume written after skull stripping.
+	 */
+	private static final String MASK_FILE_NAME = "mask";
+	
+	/**
+	 * Number of coarse levels (2x each) the center slice is evolved on 
+	 * before full resolution; 0 to evolve at full resolution only. It is
+	 * off by default: the coarse levels change the center mask, so turn it
+	 * on only for data where a ParameterSweep with pyramid levels has
+	 * matched the full resolution masks.
+	 */
+	private static final int PYRAMID_LEVELS = 0;
+	
+	/**
+	 * Whether to evolve one 3D level set over the whole volume, starting 
+	 * from the center slice, instead of slice by slice.
+	 */
+	private static final boolean VOLUMETRIC_MODE = false;
+	
+	/**
+	 * Maximum number of iterations of the 3D level set.
+	 */
+	private static final int VOLUME_MAX_ITER = 1500;
+	
+	/**
+	 * Maximum number of times per second the viewports are redrawn.
+	 */
+	private static final double DISPLAY_FRAME_RATE = 30.0;
+	
 	/**
 	 * Arranging the display layout of the input images.
 	 */
@@ -686,6 +478,8 @@ public class JControlSet extends JPanel
 		
 		
 		_grid = grid;
+		// Coalesce the per-iteration repaints of the level set evolution.
+		_grid.setMaximumFrameRate(DISPLAY_FRAME_RATE);
 		
 		_origViewport = new Viewport[_grid.getViewports().size()];
 		for(int i=0;i<_grid.getViewports().size();i++){
@@ -0,0 +1,243 @@
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+package LevelSet;
+
+/**
+ * A binary brain mask packed into bits. Each row of the image is stored in
+ * consecutive <code>long</code> words, 64 pixels per word, so logical
+ * operations between masks work on 64 pixels at a time and areas are counted
+ * with <code>Long.bitCount</code>.
+ *
+ * @version 19 October 2026
+ */
+public class BitMask
+{
+
+  /** The width of the mask. */
+  private int X_DIM;
+
+  /** The height of the mask. */
+  private int Y_DIM;
+
+  /** The number of words in a row. */
+  private int _wordsPerRow;
+
+  /** The bits, row by row. Bit x%64 of word y*_wordsPerRow+x/64 is (x, y). */
+  private long[] _words;
+
+  /**
+   * Constructor. Creates an empty mask.
+   *
+   * @param width The width of the mask.
+   * @param height The height of the mask.
+   */
+  public BitMask(int width, int height)
+  {
+    X_DIM = width;
+    Y_DIM = height;
+    _wordsPerRow = (width + 63) >>> 6;
+    _words = new long[_wordsPerRow * height];
+  }
+
+  /**
+   * Creates the mask of a level set function. Pixels whose values are not
+   * less than the boundary value are in the mask.
+   *
+   * @param phi The level set function, indexed as phi[x][y].
+   * @param boundaryValue Cut off boundary value of phi.
+   * @return A BitMask of the same size as phi.
+   */
+  public static BitMask fromPhi(double[][] phi, double boundaryValue)
+  {
+    BitMask mask = new BitMask(phi.length, phi[0].length);
+    long[] words = mask._words;
+    int wordsPerRow = mask._wordsPerRow;
+    for(int x = 0; x < mask.X_DIM; x++){
+      double[] column = phi[x];
+      int word = x >>> 6;
+      long bit = 1L << (x & 63);
+      for(int y = 0; y < mask.Y_DIM; y++){
+	if(column[y] >= boundaryValue) words[y * wordsPerRow + word] |= bit;
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * Creates the mask of a binary array. Positive elements are in the mask.
+   *
+   * @param array A byte, binary array, indexed as array[x][y].
+   * @return A BitMask of the same size as array.
+   */
+  public static BitMask fromBinaryArray(byte[][] array)
+  {
+    BitMask mask = new BitMask(array.length, array[0].length);
+    for(int x = 0; x < mask.X_DIM; x++){
+      byte[] column = array[x];
+      int word = x >>> 6;
+      long bit = 1L << (x & 63);
+      for(int y = 0; y < mask.Y_DIM; y++){
+	if(column[y] > 0) mask._words[y * mask._wordsPerRow + word] |= bit;
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * Converts this mask to a binary array.
+   *
+   * @param maskValue The value of the pixels in the mask.
+   * @return A byte array indexed as array[x][y].
+   */
+  public byte[][] toBinaryArray(byte maskValue)
+  {
+    byte[][] array = new byte[X_DIM][Y_DIM];
+    for(int y = 0; y < Y_DIM; y++){
+      int rowStart = y * _wordsPerRow;
+      for(int w = 0; w < _wordsPerRow; w++){
+	long bits = _words[rowStart + w];
+	while(bits != 0){
+	  int x = (w << 6) + Long.numberOfTrailingZeros(bits);
+	  array[x][y] = maskValue;
+	  bits &= bits - 1;
+	}
+      }
+    }
+    return array;
+  }
+
+  /** Returns the width of the mask. */
+  public int getWidth()
+  {
+    return X_DIM;
+  }
+
+  /** Returns the height of the mask. */
+  public int getHeight()
+  {
+    return Y_DIM;
+  }
+
+  /** Returns whether pixel (x, y) is in the mask. */
+  public boolean get(int x, int y)
+  {
+    return (_words[y * _wordsPerRow + (x >>> 6)] & (1L << (x & 63))) != 0;
+  }
+
+  /** Adds pixel (x, y) to the mask or removes it. */
+  public void set(int x, int y, boolean value)
+  {
+    int index = y * _wordsPerRow + (x >>> 6);
+    if(value) _words[index] |= 1L << (x & 63);
+    else _words[index] &= ~(1L << (x & 63));
+  }
+
+  /**
+   * Returns the number of pixels in the mask.
+   */
+  public int area()
+  {
+    int area = 0;
+    for(int i = 0; i < _words.length; i++) area += Long.bitCount(_words[i]);
+    return area;
+  }
+
+  /** Returns the pixels in both this mask and the other. */
+  public BitMask and(BitMask other)
+  {
+    _checkSize(other);
+    BitMask result = new BitMask(X_DIM, Y_DIM);
+    for(int i = 0; i < _words.length; i++)
+      result._words[i] = _words[i] & other._words[i];
+    return result;
+  }
+
+  /** Returns the pixels in this mask or the other. */
+  public BitMask or(BitMask other)
+  {
+    _checkSize(other);
+    BitMask result = new BitMask(X_DIM, Y_DIM);
+    for(int i = 0; i < _words.length; i++)
+      result._words[i] = _words[i] | other._words[i];
+    return result;
+  }
+
+  /** Returns the pixels in exactly one of this mask and the other. */
+  public BitMask xor(BitMask other)
+  {
+    _checkSize(other);
+    BitMask result = new BitMask(X_DIM, Y_DIM);
+    for(int i = 0; i < _words.length; i++)
+      result._words[i] = _words[i] ^ other._words[i];
+    return result;
+  }
+
+  /**
+   * Compares a segmentation to this mask as the golden standard.
+   *
+   * @param result The segmentation result.
+   * @return An array of the true positive (in both masks), false positive
+   *         (only in the result) and false negative (only in this mask)
+   *         pixel counts.
+   */
+  public int[] compare(BitMask result)
+  {
+    _checkSize(result);
+    int tp = 0;
+    int fp = 0;
+    int fn = 0;
+    long a, b;
+    for(int i = 0; i < _words.length; i++){
+      a = _words[i];
+      b = result._words[i];
+      tp += Long.bitCount(a & b);
+      fp += Long.bitCount(b & ~a);
+      fn += Long.bitCount(a & ~b);
+    }
+    return new int[] {tp, fp, fn};
+  }
+
+  /**
+   * Returns the Jaccard coefficient TP / (TP + FP + FN) of two masks, or 0
+   * if both are empty.
+   */
+  public double jaccard(BitMask other)
+  {
+    int[] counts = compare(other);
+    int union = counts[0] + counts[1] + counts[2];
+    if(union == 0) return 0;
+    return (double)counts[0] / union;
+  }
+
+  /**
+   * Returns the Dice coefficient 2TP / (2TP + FP + FN) of two masks, or 0 if
+   * both are empty.
+   */
+  public double dice(BitMask other)
+  {
+    int[] counts = compare(other);
+    int sum = 2 * counts[0] + counts[1] + counts[2];
+    if(sum == 0) return 0;
+    return 2.0 * counts[0] / sum;
+  }
+
+  /**
+   * Checks that the other mask has the same size.
+   */
+  private void _checkSize(BitMask other)
+  {
+    if(other.X_DIM != X_DIM || other.Y_DIM != Y_DIM){
+      throw new IllegalArgumentException("Masks must have the same size.");
+    }
+  }
+}
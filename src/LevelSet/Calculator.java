@@ -15,6 +15,8 @@ package LevelSet;
 import java.awt.image.BufferedImage;
 import java.util.Vector;
 
+import tools.Metrics;
+
 /**
  * Class to support data calculations.
  *
@@ -30,6 +32,64 @@ public class Calculator
   /** Parameter delta_t. */
   private double DELTA_T = 0.1d;
 
+  /** Whether the time step is chosen for each iteration from the CFL
+   * condition instead of being DELTA_T. */
+  private boolean _isAdaptiveTimeStep = false;
+
+  /** Safety factor of the adaptive time step: the largest change of phi 
+   * allowed in one iteration, in units of H. */
+  private double _cflSafety = 0.9d;
+
+  /** The smallest adaptive time step; below DELTA_T, so that the step can
+   * drop where the force would move phi by more than the CFL limit. */
+  private double _minTimeStep = DELTA_T / 10;
+
+  /** The largest adaptive time step. */
+  private double _maxTimeStep = 1.0d;
+
+  /** Running statistics of the time steps of calculatePhiNew2, while the
+   * time step is adaptive: their number, sum, smallest and largest. */
+  private int _timeStepCount = 0;
+  private double _timeStepSum = 0;
+  private double _smallestTimeStep = Double.NaN;
+  private double _largestTimeStep = Double.NaN;
+
+  /** Whether reinitialization uses the single precision kernels. */
+  private static boolean _isFloatKernelsEnabled = false;
+
+  /** The largest number of sweeps of one reinitialization. */
+  private int _reinitMaxSweeps = 200;
+
+  /** If positive, the residual of reinitialization is measured only where
+   * |phi| is at most this value; otherwise wherever |phi| is above 1.5. */
+  private double _reinitBand = 0;
+
+  /** With a band, reinitialization stops when the residual is below this
+   * fraction of DELTA_T: the mean over the band is not diluted by the
+   * pixels far from the zero level set, which are nearly stationary. */
+  private static final double REINIT_BAND_TOLERANCE = 0.1;
+
+  /** Time step of the sweeps of reinitialization; the tolerance of the
+   * stop test stays tied to DELTA_T. */
+  private double _reinitTimeStep = DELTA_T;
+
+  /** reinitializeAfterStep reinitializes on every _reinitInterval-th call. */
+  private int _reinitInterval = 1;
+
+  /** The number of calls of reinitializeAfterStep. */
+  private int _reinitCalls = 0;
+
+  /** The sweeps and the residual of the last reinitialization; 0 and NaN
+   * if there was none, or if reinitializeAfterStep skipped it. */
+  private int _lastReinitSweeps = 0;
+  private double _lastReinitResidual = Double.NaN;
+
+  /** Metrics of reinitialization. */
+  private static final Metrics.Histogram REINIT_SWEEPS = Metrics.histogram("levelset.reinit.sweeps");
+  private static final Metrics.Histogram REINIT_TIME = Metrics.histogram("levelset.reinit.us");
+  private static final Metrics.Counter REINIT_CAPPED = Metrics.counter("levelset.reinit.capped");
+  private static final Metrics.Counter REINIT_SKIPPED = Metrics.counter("levelset.reinit.skipped");
+
   /** Parameter mu. If mu is assigned a small value, small objects can be 
    * detected; otherwise, if mu is assigned a large value, small objects 
    * will be skipped.   
@@ -81,6 +141,16 @@ public class Calculator
   /**The smallest intensity in wholde voluem*/
   private double _MinI;
   public int slice;
+
+  /** The last phi array produced by calculatePhiNew2 or reinitialize whose
+   * mask area is being tracked; null if none. */
+  private double[][] _trackedPhi = null;
+
+  /** The number of elements of _trackedPhi not less than BOUNDARY_VALUE. */
+  private int _maskArea = 0;
+
+  /** The number of pixels updated by the last calculatePhiNew2. */
+  private int _lastBandSize = 0;
   
   
   
@@ -110,6 +180,240 @@ public class Calculator
 	  _bT = thresholdSelector;
 	  
   }
+
+  /**
+   * Gets the threshold selector.
+   */
+  public double getThresholdSelector()
+  {
+    return _bT;
+  }
+
+  /**
+   * Gets the distance for searching the minimum intensity, in pixels.
+   */
+  public int getMinProbingDistance()
+  {
+    return _minD;
+  }
+
+  /**
+   * Gets the distance for searching the maximum intensity, in pixels.
+   */
+  public int getMaxProbingDistance()
+  {
+    return _maxD;
+  }
+
+  /**
+   * Gets the weight of the curvature term relative to the image force for
+   * the given velocity, MU / fFactor before autosetVelocity rescales MU, for
+   * models which weight the two terms by constants, as VolumeEvolver does.
+   *
+   * @param velocity Velocity of the level set model.
+   */
+  public double getCurvatureWeight(double velocity)
+  {
+    return velocity * 255d * 255d / _fFactor;
+  }
+
+  /**
+   * Creates a calculator with the same parameters for an image downsampled
+   * by the given factor. The probing distances are scaled to the coarse
+   * pixels.
+   *
+   * @param factor The downsampling factor, e.g., 2 or 4.
+   * @return A Calculator for a grid of (width/factor) x (height/factor).
+   */
+  public Calculator createCoarseCalculator(int factor)
+  {
+    Calculator coarse = new Calculator(X_DIM / factor, Y_DIM / factor, 0, _bT);
+    coarse.H = H;
+    coarse.DELTA_T = DELTA_T;
+    coarse._isAdaptiveTimeStep = _isAdaptiveTimeStep;
+    coarse._cflSafety = _cflSafety;
+    coarse._minTimeStep = _minTimeStep;
+    coarse._maxTimeStep = _maxTimeStep;
+    coarse._reinitMaxSweeps = _reinitMaxSweeps;
+    coarse._reinitBand = _reinitBand;
+    coarse._reinitInterval = _reinitInterval;
+    coarse._reinitTimeStep = _reinitTimeStep;
+    coarse.MU = MU;
+    // autosetVelocity scales MU by the grid area; keep it as at full size
+    coarse.MUA = MUA * factor * factor;
+    coarse._fFactor = _fFactor;
+    coarse.EPSILON = EPSILON;
+    coarse._minD = Math.max(1, (int) Math.floor((double)_minD / factor + 0.5));
+    coarse._maxD = Math.max(1, (int) Math.floor((double)_maxD / factor + 0.5));
+    coarse._xyDim = _xyDim * factor;
+    coarse.BOUNDARY_VALUE = BOUNDARY_VALUE;
+    coarse.his = his;
+    coarse._MaxI = _MaxI;
+    coarse._MinI = _MinI;
+    coarse.slice = slice;
+    return coarse;
+  }
+
+  /**
+   * Enables or disables the adaptive time step. When enabled, each call of
+   * calculatePhiNew2 uses the largest time step for which phi changes by at
+   * most safety * H at any pixel of the active band, bounded by the given
+   * limits. The smallest step should be below DELTA_T, or the limit can 
+   * only raise the step. The choice costs one more pass over the band per 
+   * iteration, and the results differ slightly from those with DELTA_T, so
+   * it is disabled by default. Reinitialization is not affected; see 
+   * setReinitPolicy.
+   *
+   * @param enabled Whether to adapt the time step.
+   * @param safety The CFL safety factor, between 0 and 1.
+   * @param minTimeStep The smallest time step.
+   * @param maxTimeStep The largest time step.
+   */
+  public void setAdaptiveTimeStep(boolean enabled, double safety,
+				  double minTimeStep, double maxTimeStep)
+  {
+    if(safety <= 0 || minTimeStep <= 0 || maxTimeStep < minTimeStep)
+      throw new IllegalArgumentException("Invalid time step parameters.");
+    _isAdaptiveTimeStep = enabled;
+    _cflSafety = safety;
+    _minTimeStep = minTimeStep;
+    _maxTimeStep = maxTimeStep;
+  }
+
+  /**
+   * Enables or disables the single precision kernels of FloatKernels for
+   * calculatePhiNew2 and reinitialization. The results agree with the double
+   * precision calculation to a relative error of about 1e-5, and 
+   * reinitializations which need many iterations run about twice as fast, 
+   * since the two flat buffers are reused instead of allocating an array per
+   * iteration. java LevelSet.FloatKernels compares the two paths. This 
+   * setting applies to all Calculators; it is disabled by default.
+   *
+   * @param enabled Whether to use the single precision kernels.
+   */
+  public static void setFloatKernelsEnabled(boolean enabled)
+  {
+    _isFloatKernelsEnabled = enabled;
+  }
+
+  /**
+   * Sets how much work reinitialization may do. The defaults, 200 sweeps,
+   * no band and an interval of 1, reinitialize to convergence after every
+   * iteration. A band limits the residual which decides convergence to the
+   * pixels with 1.5 < |phi| <= band, so the sweeps stop once phi is a
+   * distance function near the zero level set, where the force and the
+   * curvature are evaluated, instead of waiting for the distance to 
+   * propagate to the corners of the image; the residual must then fall
+   * below a tenth of DELTA_T instead of DELTA_T. An interval of k makes
+   * reinitializeAfterStep reinitialize only every k-th iteration. The 
+   * sweeps use DELTA_T as their time step.
+   *
+   * @param maxSweeps The largest number of sweeps of one reinitialization.
+   * @param band The half width of the band in pixels, or 0 for no band.
+   * @param interval Reinitialize every interval iterations.
+   */
+  public void setReinitPolicy(int maxSweeps, double band, int interval)
+  {
+    setReinitPolicy(maxSweeps, band, interval, DELTA_T);
+  }
+
+  /**
+   * Sets how much work reinitialization may do, as above, with the time
+   * step of its sweeps. A larger step, up to H / 2 where the explicit 
+   * scheme is stable, needs fewer sweeps; the stop test does not change
+   * with the step, so the result is as close to a distance function as 
+   * with DELTA_T.
+   *
+   * @param maxSweeps The largest number of sweeps of one reinitialization.
+   * @param band The half width of the band in pixels, or 0 for no band.
+   * @param interval Reinitialize every interval iterations.
+   * @param timeStep The time step of the sweeps.
+   */
+  public void setReinitPolicy(int maxSweeps, double band, int interval,
+			      double timeStep)
+  {
+    if(maxSweeps < 1 || band < 0 || (band > 0 && band <= 1.5) || interval < 1
+       || timeStep <= 0 || timeStep > H / 2)
+      throw new IllegalArgumentException("Invalid reinitialization policy.");
+    _reinitMaxSweeps = maxSweeps;
+    _reinitBand = band;
+    _reinitInterval = interval;
+    _reinitTimeStep = timeStep;
+  }
+
+  /**
+   * Returns the number of sweeps of the last reinitialization; 0 if
+   * reinitializeAfterStep skipped it.
+   */
+  public int getLastReinitSweeps()
+  {
+    return _lastReinitSweeps;
+  }
+
+  /**
+   * Returns the mean absolute change of phi in the last sweep of the last
+   * reinitialization, over the pixels which decide convergence; it is 
+   * below the tolerance of setReinitPolicy if it converged. It is NaN
+   * before the first reinitialization and after reinitializeAfterStep
+   * skipped one, so that a residual is never reported for a step which did
+   * not reinitialize.
+   */
+  public double getLastReinitResidual()
+  {
+    return _lastReinitResidual;
+  }
+
+  /**
+   * Whether the single precision kernels are used.
+   */
+  public static boolean isFloatKernelsEnabled()
+  {
+    return _isFloatKernelsEnabled;
+  }
+
+  /**
+   * Whether the time step is adaptive.
+   */
+  public boolean isAdaptiveTimeStep()
+  {
+    return _isAdaptiveTimeStep;
+  }
+
+  /**
+   * Returns statistics of the time steps used by the calls of 
+   * calculatePhiNew2 so far, for diagnostics; they are recorded only while
+   * the time step is adaptive.
+   *
+   * @return The number of steps, their mean, the smallest and the largest;
+   *         the last three are NaN if no step was recorded.
+   */
+  public double[] getTimeStepStatistics()
+  {
+    double mean = (_timeStepCount > 0) ? _timeStepSum / _timeStepCount
+      : Double.NaN;
+    return new double[]{_timeStepCount, mean, _smallestTimeStep,
+			_largestTimeStep};
+  }
+
+  /**
+   * Gets the number of pixels updated by the last calculatePhiNew2, the
+   * pixels of the narrow band where the force is not 0.
+   */
+  public int getLastBandSize()
+  {
+    return _lastBandSize;
+  }
+
+  /**
+   * Clears the statistics of the time steps.
+   */
+  public void clearTimeSteps()
+  {
+    _timeStepCount = 0;
+    _timeStepSum = 0;
+    _smallestTimeStep = Double.NaN;
+    _largestTimeStep = Double.NaN;
+  }
   
   
   /**
@@ -220,24 +524,48 @@ public class Calculator
   public double[][] calculatePhiNew2(double[][] phi, double[][] delta_eps, 
 				     double[][] fArray,short[][] inputArray)
   {
+    //calculate c1 and c2
+	caculateAverageIntensity(phi,inputArray);
+
+    // Choose the time step of this iteration
+    double deltaT = DELTA_T;
+    if(_isAdaptiveTimeStep){
+      deltaT = _calculateTimeStep(phi, delta_eps, fArray, inputArray);
+      _recordTimeStep(deltaT);
+    }
+    
+    // Update the mask area only where phi crosses the boundary
+    boolean isTracked = (phi == _trackedPhi);
+    if(_isFloatKernelsEnabled)
+      return _calculatePhiNewFloat(phi, delta_eps, fArray, inputArray,
+				   deltaT, isTracked);
+
     double[][] phiNew = new double[X_DIM][Y_DIM];
     for(int i = 0; i < X_DIM; i++){
       for(int j = 0; j < Y_DIM; j++){
 	  phiNew[i][j] = phi[i][j];
       }
     }
-    
-    //calculate c1 and c2
-	caculateAverageIntensity(phi,inputArray);
-    
-    
+    int areaChange = 0;
+    int bandSize = 0;
+    double oldValue;
+    double newValue;
     for(int x = 2; x < X_DIM-2; x++){
       for(int y = 2; y < Y_DIM -2; y++){
 	if(Math.abs(fArray[x][y]) > 0 ){
-	  phiNew[x][y] = calculatePhiNew(x, y, phi, delta_eps, fArray[x][y],inputArray);
+	  bandSize++;
+	  oldValue = phi[x][y];
+	  newValue = _calculatePhiNew(x, y, phi, delta_eps, fArray[x][y],
+				      inputArray, deltaT);
+	  phiNew[x][y] = newValue;
+	  if((oldValue >= BOUNDARY_VALUE) != (newValue >= BOUNDARY_VALUE))
+	    areaChange += (newValue >= BOUNDARY_VALUE) ? 1 : -1;
 	} 
       }
     }
+    _lastBandSize = bandSize;
+    if(isTracked) _track(phiNew, _maskArea + areaChange);
+    else _track(phiNew, _countMaskArea(phiNew));
     return phiNew;
   }
 
@@ -254,6 +582,16 @@ public class Calculator
    */
   public double calculatePhiNew(int x, int y, double[][] phi,
 				  double[][] delta_eps, double f,short[][] inputArray)
+  {
+    return _calculatePhiNew(x, y, phi, delta_eps, f, inputArray, DELTA_T);
+  }
+
+  /**
+   * Calculates the new phi with the given time step.
+   */
+  private double _calculatePhiNew(int x, int y, double[][] phi,
+				  double[][] delta_eps, double f,
+				  short[][] inputArray, double deltaT)
   {
     double d1, d2, d3, d4, d;
     double u;
@@ -269,7 +607,7 @@ public class Calculator
 	//Calculate MU
     autosetVelocity(x,y,phi,inputArray);
     // Calculate m = delta_t * delta_eps[x][y] * mu / h^2
-    m = DELTA_T * delta_eps[x][y] * MU / (H*H);
+    m = deltaT * delta_eps[x][y] * MU / (H*H);
     // 	m = DELTA_T * MU / (H*H);
 	
     // Calculate d
@@ -277,7 +615,7 @@ public class Calculator
 
     // 	double fFactor = 255*255;	
     double fFactor = _fFactor;
-    u = DELTA_T * delta_eps[x][y] * fFactor * f;
+    u = deltaT * delta_eps[x][y] * fFactor * f;
     phiNew = (phi[x][y] + m * ( d1 * phi[x+1][y]
 				+ d2 * phi[x-1][y] 
 				+ d3 * phi[x][y+1]
@@ -373,13 +711,30 @@ public class Calculator
 
     double old;
     double dis;
-    int MAX_ITER = 200;
+    int MAX_ITER = _reinitMaxSweeps;
+    double band = (_reinitBand > 0) ? _reinitBand : Double.POSITIVE_INFINITY;
+    long start = System.nanoTime();
 
 
     double[][] tempArray = array;
     double s;
     boolean isStationary = false;
     int reini = 0;
+    double deltaT = _reinitTimeStep;
+    double tolerance = (_reinitBand > 0) ? DELTA_T * REINIT_BAND_TOLERANCE : DELTA_T;
+
+    if(_isFloatKernelsEnabled){
+      newArray = _reinitializeFloat(array, deltaT, MAX_ITER, band, tolerance);
+      _track(newArray, _countMaskArea(newArray));
+      _recordReinit(start, tolerance);
+      return newArray;
+    }
+
+    // The mask area is updated only where phi crosses the boundary
+    boolean isTracked = (array == _trackedPhi);
+    int area = _maskArea;
+    double value;
+    double m = 0;
     while( !isStationary && reini < MAX_ITER ){
 
       // Allocate newArray
@@ -392,10 +747,14 @@ public class Calculator
 	  // Revision of Sussman's phi0 construction done by Peng
 	  dis = _calculateDistance(x, y, tempArray);
 	  s = old / Math.sqrt( old * old + 1);  
-	  newArray[x][y] = old - DELTA_T * s * (dis -1);
+	  value = old - deltaT * s * (dis -1);
+	  newArray[x][y] = value;
+	  if((old >= BOUNDARY_VALUE) != (value >= BOUNDARY_VALUE))
+	    area += (value >= BOUNDARY_VALUE) ? 1 : -1;
 	
 	}
       }
+      if(isTracked) area -= _countBorderMaskArea(tempArray);
       for(int x = 0; x < X_DIM; x++){
 	newArray[x][0] = newArray[x][1];
 	newArray[x][Y_DIM-1] = newArray[x][Y_DIM-2];
@@ -404,28 +763,92 @@ public class Calculator
 	newArray[0][y] = newArray[1][y];
 	newArray[X_DIM-1][y] = newArray[X_DIM-2][y];
       }
+      if(isTracked) area += _countBorderMaskArea(newArray);
 
       // Check stationary
       double sum = 0;
       int M = 0;
       for(int y = 1; y < (Y_DIM-1); y++){
 	for(int x = 1; x < (X_DIM-1); x++){
-	  if( Math.abs(tempArray[x][y]) > 1.5 ){
+	  double a = Math.abs(tempArray[x][y]);
+	  if( a > 1.5 && a <= band ){
 	    sum += Math.abs(newArray[x][y] - tempArray[x][y]) ;
 	    M++;
 	  }
 	}
       }
-      double m = sum / M;
-      if(m < DELTA_T) isStationary = true;
+      // Nothing to measure means nothing left to converge
+      m = (M > 0) ? sum / M : 0;
+      if(m < tolerance) isStationary = true;
 
       // Update tempArray
       tempArray = newArray;
       reini++;
     }
+    if(isTracked) _track(newArray, area);
+    else _track(newArray, _countMaskArea(newArray));
+    _lastReinitSweeps = reini;
+    _lastReinitResidual = m;
+    _recordReinit(start, tolerance);
     return newArray;
   }
 
+  /**
+   * Reinitialize phi after an iteration of the evolution, following the
+   * interval of setReinitPolicy: on the skipped iterations phi is returned
+   * unchanged.
+   *
+   * @param array A double array to be queried.
+   * @return A double array.
+   */
+  public double[][] reinitializeAfterStep(double[][] array)
+  {
+    _reinitCalls++;
+    if(_reinitCalls % _reinitInterval != 0){
+      _lastReinitSweeps = 0;
+      _lastReinitResidual = Double.NaN;
+      REINIT_SKIPPED.increment();
+      return array;
+    }
+    return reinitialize(array);
+  }
+
+  /**
+   * Records the metrics of a reinitialization which started at the given
+   * System.nanoTime() value and stopped at the given tolerance.
+   */
+  private void _recordReinit(long start, double tolerance)
+  {
+    REINIT_TIME.recordSince(start);
+    REINIT_SWEEPS.record(_lastReinitSweeps);
+    if(_lastReinitResidual >= tolerance) REINIT_CAPPED.increment();
+  }
+
+  /**
+   * Returns the mask area of phi, i.e., the number of elements not less than
+   * BOUNDARY_VALUE. The area of the last array returned by calculatePhiNew2
+   * or reinitialize is kept up to date as elements cross the boundary, so it
+   * is returned without scanning the array; any other array is counted.
+   *
+   * @param phi A double array.
+   * @return The number of pixels in the mask.
+   */
+  public int getMaskArea(double[][] phi)
+  {
+    if(phi != _trackedPhi) _track(phi, _countMaskArea(phi));
+    return _maskArea;
+  }
+
+  /**
+   * Stops trusting the tracked mask area. Must be called after the elements
+   * of an array returned by calculatePhiNew2 or reinitialize are modified
+   * in place.
+   */
+  public void invalidateMaskArea()
+  {
+    _trackedPhi = null;
+  }
+
   /**
    * Set velocity.
    *
@@ -488,6 +911,154 @@ public class Calculator
   
   
   
+  /**
+   * Calculate the new phi as in calculatePhiNew2, in single precision with
+   * the flat array kernel of FloatKernels, and track its mask area.
+   */
+  private double[][] _calculatePhiNewFloat(double[][] phi, double[][] delta_eps,
+					   double[][] fArray, short[][] inputArray,
+					   double deltaT, boolean isTracked)
+  {
+    float[] src = FloatKernels.toFlat(phi);
+    float[] dst = (float[]) src.clone();
+    double muScale = X_DIM * Y_DIM * MUA / (_MaxI - _MinI);
+    int[] bandSize = new int[1];
+    int areaChange = FloatKernels.updateStep(src, dst,
+	FloatKernels.toFlat(delta_eps), FloatKernels.toFlat(fArray),
+	FloatKernels.toFlat(inputArray), X_DIM, Y_DIM, (float) deltaT,
+	(float) H, (float) muScale, (float) c1, (float) c2, (float) _fFactor,
+	(float) BOUNDARY_VALUE, bandSize);
+    _lastBandSize = bandSize[0];
+    double[][] phiNew = FloatKernels.toArray(dst, X_DIM, Y_DIM);
+    if(isTracked) _track(phiNew, _maskArea + areaChange);
+    else _track(phiNew, _countMaskArea(phiNew));
+    return phiNew;
+  }
+
+  /**
+   * Reinitialize phi as in reinitialize(), in single precision with the 
+   * flat array kernels of FloatKernels. The two buffers are reused by all
+   * iterations.
+   */
+  private double[][] _reinitializeFloat(double[][] array, double deltaT,
+					int maxIter, double band, double tolerance)
+  {
+    float[] temp = FloatKernels.toFlat(array);
+    float[] next = new float[temp.length];
+    float step = (float) deltaT;
+    float m = 0;
+    int reini = 0;
+    boolean isStationary = false;
+    while( !isStationary && reini < maxIter ){
+      m = FloatKernels.reinitializeStep(temp, next, X_DIM, Y_DIM, step,
+					(float) band);
+      if(m < tolerance) isStationary = true;
+      float[] swap = temp;
+      temp = next;
+      next = swap;
+      reini++;
+    }
+    _lastReinitSweeps = reini;
+    _lastReinitResidual = m;
+    return FloatKernels.toArray(temp, X_DIM, Y_DIM);
+  }
+
+  /**
+   * Calculate the largest time step for which the semi-implicit update
+   * changes phi by at most _cflSafety * H at every pixel of the active band.
+   * With m = dt * a and u = dt * b, the change at a pixel is
+   * dt * (a * (S - D * phi) + b) / (1 + dt * a * D), where S and D are the
+   * weighted sum of the neighbors and the sum of the weights. The step is
+   * kept within [_minTimeStep, _maxTimeStep].
+   */
+  private double _calculateTimeStep(double[][] phi, double[][] delta_eps,
+				    double[][] fArray, short[][] inputArray)
+  {
+    double limit = _cflSafety * H;
+    double step = _maxTimeStep;
+    double d1, d2, d3, d4, a, b, n, sum, weights;
+    for(int x = 2; x < X_DIM-2; x++){
+      for(int y = 2; y < Y_DIM -2; y++){
+	if(Math.abs(fArray[x][y]) > 0 ){
+	  d1 = _calculateD1(phi, x, y);
+	  d2 = _calculateD1(phi, x-1, y);
+	  d3 = _calculateD3(phi, x, y);
+	  d4 = _calculateD3(phi, x, y-1);
+	  autosetVelocity(x,y,phi,inputArray);
+	  a = delta_eps[x][y] * MU / (H*H);
+	  b = delta_eps[x][y] * _fFactor * fArray[x][y];
+	  sum = d1 * phi[x+1][y] + d2 * phi[x-1][y] + d3 * phi[x][y+1]
+	    + d4 * phi[x][y-1];
+	  weights = d1 + d2 + d3 + d4;
+	  n = Math.abs(a * (sum - weights * phi[x][y]) + b);
+
+	  // The change is bounded by n / (a * weights) for any step
+	  if(n > limit * a * weights){
+	    step = Math.min(step, limit / (n - limit * a * weights));
+	  }
+	}
+      }
+    }
+    return Math.max(_minTimeStep, Math.min(_maxTimeStep, step));
+  }
+
+  /**
+   * Record the time step of an iteration.
+   */
+  private void _recordTimeStep(double deltaT)
+  {
+    if(_timeStepCount == 0){
+      _smallestTimeStep = deltaT;
+      _largestTimeStep = deltaT;
+    }
+    else {
+      _smallestTimeStep = Math.min(_smallestTimeStep, deltaT);
+      _largestTimeStep = Math.max(_largestTimeStep, deltaT);
+    }
+    _timeStepCount++;
+    _timeStepSum += deltaT;
+  }
+
+  /**
+   * Start tracking the mask area of phi.
+   */
+  private void _track(double[][] phi, int area)
+  {
+    _trackedPhi = phi;
+    _maskArea = area;
+  }
+
+  /**
+   * Count the elements of phi not less than BOUNDARY_VALUE.
+   */
+  private int _countMaskArea(double[][] phi)
+  {
+    int area = 0;
+    for(int x = 0; x < X_DIM; x++){
+      for(int y = 0; y < Y_DIM; y++){
+	if(phi[x][y] >= BOUNDARY_VALUE) area++;
+      }
+    }
+    return area;
+  }
+
+  /**
+   * Count the elements on the border of phi not less than BOUNDARY_VALUE.
+   */
+  private int _countBorderMaskArea(double[][] phi)
+  {
+    int area = 0;
+    for(int x = 0; x < X_DIM; x++){
+      if(phi[x][0] >= BOUNDARY_VALUE) area++;
+      if(phi[x][Y_DIM-1] >= BOUNDARY_VALUE) area++;
+    }
+    for(int y = 1; y < Y_DIM-1; y++){
+      if(phi[0][y] >= BOUNDARY_VALUE) area++;
+      if(phi[X_DIM-1][y] >= BOUNDARY_VALUE) area++;
+    }
+    return area;
+  }
+
   /**
    * d1 = (phi[x+1][y] - phi[x][y])/ sqrt(((phi[x+1][y]-phi[x][y])/h)^2 
    *                                 + ((phi[x][y+1]-phi[x][y-1])/2h)^2)
@@ -0,0 +1,315 @@
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+package LevelSet;
+
+import java.awt.geom.GeneralPath;
+import java.util.HashMap;
+
+/**
+ * Extracts an iso-contour of a level set function with the marching squares
+ * algorithm. The contour is returned as sub-pixel polylines, whose vertices
+ * are linearly interpolated on the edges between neighboring pixels, so it
+ * can be displayed as a vector shape instead of being rasterized into an
+ * image.
+ * <p>
+ * The pixels far away from the contour are skipped. Since phi is only close
+ * to a signed distance function right after a reinitialization, and may be
+ * reinitialized only near the contour or only every few iterations, the
+ * distance skipped is bounded by the steepest slope of phi along each row
+ * rather than by phi itself, so no crossing is skipped whatever phi is. For
+ * a signed distance function the slope is about 1, and the cells at a
+ * distance d from the contour are skipped about d at a time.
+ *
+ * @version 19 October 2026
+ */
+public class ContourExtractor
+{
+
+  /**
+   * Edges crossed by each of the 16 marching squares cases, in pairs. The
+   * edges of a cell are numbered 0 (top), 1 (right), 2 (bottom) and 3
+   * (left). The saddle cases 5 and 10 are resolved separately.
+   */
+  private static final int[][] SEGMENTS = {
+    {}, {0, 3}, {0, 1}, {3, 1}, {1, 2}, {}, {0, 2}, {3, 2},
+    {2, 3}, {0, 2}, {}, {1, 2}, {3, 1}, {0, 1}, {0, 3}, {}
+  };
+
+  /** The level set function. */
+  private double[][] _phi;
+
+  /** The level of the contour. */
+  private double _level;
+
+  /** The width of the level set function. */
+  private int X_DIM;
+
+  /** The height of the level set function. */
+  private int Y_DIM;
+
+  /** The first and second edge of each segment. */
+  private int[] _segEdgeA = new int[64];
+  private int[] _segEdgeB = new int[64];
+
+  /** The number of segments found. */
+  private int _segCount = 0;
+
+  /** The total length of the contour. */
+  private double _length = 0;
+
+  /** The contour polylines, created on demand. */
+  private GeneralPath _path = null;
+
+  /**
+   * Constructor. Extracts the contour where the level set function crosses
+   * the given level. Pixels with values greater than or equal to the level
+   * are considered inside the contour.
+   *
+   * @param phi The level set function, indexed as phi[x][y].
+   * @param level The level of the contour.
+   */
+  public ContourExtractor(double[][] phi, double level)
+  {
+    _phi = phi;
+    _level = level;
+    X_DIM = phi.length;
+    Y_DIM = phi[0].length;
+    _extract();
+  }
+
+  /**
+   * Returns the length of the contour in pixels.
+   *
+   * @return The sum of the lengths of all polylines.
+   */
+  public double getLength()
+  {
+    return _length;
+  }
+
+  /**
+   * Returns the contour as polylines in image coordinates, with the center
+   * of pixel (x, y) at (x + 0.5, y + 0.5). Closed contours are closed
+   * subpaths; contours cut by the image border are open.
+   *
+   * @return A GeneralPath of the contour.
+   */
+  public GeneralPath getPath()
+  {
+    if(_path == null) _path = _link();
+    return _path;
+  }
+
+  /**
+   * Finds the segments of the contour in all cells crossed by it.
+   */
+  private void _extract()
+  {
+    // The largest change of phi between neighbors along each row
+    double[] slopes = new double[Y_DIM];
+    for(int y = 0; y < Y_DIM; y++){
+      double slope = 0;
+      for(int x = 0; x < X_DIM-1; x++){
+	double change = Math.abs(_phi[x+1][y] - _phi[x][y]);
+	if(change > slope) slope = change;
+      }
+      slopes[y] = slope;
+    }
+
+    double a, b, c, d;
+    int code;
+    for(int y = 0; y < Y_DIM-1; y++){
+      double slope = Math.max(slopes[y], slopes[y+1]);
+      for(int x = 0; x < X_DIM-1; x++){
+	a = _phi[x][y] - _level;
+	b = _phi[x+1][y] - _level;
+	c = _phi[x+1][y+1] - _level;
+	d = _phi[x][y+1] - _level;
+	code = (a >= 0 ? 1 : 0) | (b >= 0 ? 2 : 0) | (c >= 0 ? 4 : 0)
+	  | (d >= 0 ? 8 : 0);
+
+	if(code == 0 || code == 15){
+	  // Skip the cells which can not reach the contour. Phi changes by
+	  // at most slope per pixel along both rows, so the corners of the
+	  // next k cells keep the sign of b and c while k * slope is less
+	  // than the smaller of |b| and |c|.
+	  if(slope == 0){
+	    x = X_DIM;
+	    continue;
+	  }
+	  double margin = Math.min(Math.abs(b), Math.abs(c));
+	  int skip = (int) Math.ceil(margin / slope) - 1;
+	  if(skip > 0) x += skip;
+	  continue;
+	}
+
+	int top = 2 * (y * X_DIM + x);
+	int[] edges = {top, 2 * (y * X_DIM + x + 1) + 1,
+		       2 * ((y + 1) * X_DIM + x), top + 1};
+
+	if(code == 5 || code == 10){
+	  // Saddle: decide by the value at the center of the cell
+	  boolean centerInside = (a + b + c + d) >= 0;
+	  if((code == 5) == centerInside){
+	    _addSegment(edges[0], edges[1]);
+	    _addSegment(edges[2], edges[3]);
+	  }
+	  else {
+	    _addSegment(edges[0], edges[3]);
+	    _addSegment(edges[1], edges[2]);
+	  }
+	}
+	else {
+	  _addSegment(edges[SEGMENTS[code][0]], edges[SEGMENTS[code][1]]);
+	}
+      }
+    }
+  }
+
+  /**
+   * Adds a segment between the crossings on two edges.
+   */
+  private void _addSegment(int edgeA, int edgeB)
+  {
+    if(_segCount == _segEdgeA.length){
+      int[] temp = new int[_segCount * 2];
+      System.arraycopy(_segEdgeA, 0, temp, 0, _segCount);
+      _segEdgeA = temp;
+      temp = new int[_segCount * 2];
+      System.arraycopy(_segEdgeB, 0, temp, 0, _segCount);
+      _segEdgeB = temp;
+    }
+    _segEdgeA[_segCount] = edgeA;
+    _segEdgeB[_segCount] = edgeB;
+    _segCount++;
+
+    double[] p = _crossing(edgeA);
+    double[] q = _crossing(edgeB);
+    _length += Math.sqrt((p[0]-q[0]) * (p[0]-q[0]) + (p[1]-q[1]) * (p[1]-q[1]));
+  }
+
+  /**
+   * Returns the point where the contour crosses an edge. Edge 2*(y*X_DIM+x)
+   * joins pixel (x, y) to (x+1, y), and edge 2*(y*X_DIM+x)+1 joins pixel
+   * (x, y) to (x, y+1).
+   */
+  private double[] _crossing(int edge)
+  {
+    int pixel = edge / 2;
+    int x = pixel % X_DIM;
+    int y = pixel / X_DIM;
+    boolean vertical = (edge & 1) != 0;
+    double v0 = _phi[x][y] - _level;
+    double v1 = vertical ? _phi[x][y+1] - _level : _phi[x+1][y] - _level;
+    double t = v0 / (v0 - v1);
+    if(vertical) return new double[] {x + 0.5, y + t + 0.5};
+    return new double[] {x + t + 0.5, y + 0.5};
+  }
+
+  /**
+   * Links the segments sharing an edge into polylines.
+   */
+  private GeneralPath _link()
+  {
+    GeneralPath path = new GeneralPath(GeneralPath.WIND_EVEN_ODD, _segCount + 1);
+
+    // Each edge is shared by at most two segments
+    HashMap edgeMap = new HashMap(_segCount * 2);
+    for(int s = 0; s < _segCount; s++){
+      _mapEdge(edgeMap, _segEdgeA[s], s);
+      _mapEdge(edgeMap, _segEdgeB[s], s);
+    }
+
+    boolean[] visited = new boolean[_segCount];
+    int[] chain = new int[_segCount + 1];
+    int[] backward = new int[_segCount + 1];
+    for(int s = 0; s < _segCount; s++){
+      if(visited[s]) continue;
+      visited[s] = true;
+
+      // Walk forward from the second edge
+      int length = 0;
+      chain[length++] = _segEdgeA[s];
+      chain[length++] = _segEdgeB[s];
+      boolean closed = false;
+      int edge = _segEdgeB[s];
+      int seg = s;
+      while(true){
+	int next = _otherSegment(edgeMap, edge, seg);
+	if(next < 0) break;
+	if(next == s){
+	  closed = true;
+	  break;
+	}
+	if(visited[next]) break;
+	visited[next] = true;
+	edge = (_segEdgeA[next] == edge) ? _segEdgeB[next] : _segEdgeA[next];
+	seg = next;
+	chain[length++] = edge;
+      }
+
+      // Walk backward from the first edge
+      int backLength = 0;
+      if(!closed){
+	edge = _segEdgeA[s];
+	seg = s;
+	while(true){
+	  int next = _otherSegment(edgeMap, edge, seg);
+	  if(next < 0 || visited[next]) break;
+	  visited[next] = true;
+	  edge = (_segEdgeA[next] == edge) ? _segEdgeB[next] : _segEdgeA[next];
+	  seg = next;
+	  backward[backLength++] = edge;
+	}
+      }
+
+      double[] p;
+      boolean first = true;
+      for(int i = backLength-1; i >= 0; i--){
+	p = _crossing(backward[i]);
+	if(first) path.moveTo((float)p[0], (float)p[1]);
+	else path.lineTo((float)p[0], (float)p[1]);
+	first = false;
+      }
+      for(int i = 0; i < length; i++){
+	if(closed && i == length-1) break;
+	p = _crossing(chain[i]);
+	if(first) path.moveTo((float)p[0], (float)p[1]);
+	else path.lineTo((float)p[0], (float)p[1]);
+	first = false;
+      }
+      if(closed) path.closePath();
+    }
+    return path;
+  }
+
+  /**
+   * Records that a segment ends on an edge.
+   */
+  private void _mapEdge(HashMap edgeMap, int edge, int seg)
+  {
+    Integer key = Integer.valueOf(edge);
+    int[] segs = (int[]) edgeMap.get(key);
+    if(segs == null) edgeMap.put(key, new int[] {seg, -1});
+    else segs[1] = seg;
+  }
+
+  /**
+   * Returns the other segment ending on an edge, or -1 if there is none.
+   */
+  private int _otherSegment(HashMap edgeMap, int edge, int seg)
+  {
+    int[] segs = (int[]) edgeMap.get(Integer.valueOf(edge));
+    return (segs[0] == seg) ? segs[1] : segs[0];
+  }
+}
@@ -24,6 +24,19 @@ import java.util.Vector;
 public class Filler
 {
 
+  /**
+   * Fills holes by flood filling the background from the image border; all
+   * background pixels not reached are holes. Takes time linear in the number
+   * of pixels.
+   */
+  public static final int FLOOD_FILL = 0;
+
+  /**
+   * Fills holes by casting rays from the center of the mask. This is the
+   * original method, kept for comparison.
+   */
+  public static final int RAY_CASTING = 1;
+
   /** The mask's non-zero value. */
   private byte _maskValue = 1;
 
@@ -37,18 +50,30 @@ public class Filler
   private byte[][] _filledArray = null;
 
   /** 
-   * Constructor. 
+   * Constructor. Fills the holes with the flood fill method.
    *
    * @param array A byte array to fill holes.
    */
   public Filler(byte[][] array)
+  {
+    this(array, FLOOD_FILL);
+  }
+
+  /** 
+   * Constructor. 
+   *
+   * @param array A byte array to fill holes.
+   * @param method The method to fill holes, FLOOD_FILL or RAY_CASTING.
+   */
+  public Filler(byte[][] array, int method)
   {
     if(array != null){     
       X_DIM = array.length;
       Y_DIM = array[0].length;
     }
     if(X_DIM * Y_DIM != 0){
-	_filledArray = _fillHoles(array);
+	if(method == RAY_CASTING) _filledArray = _fillHoles(array);
+	else _filledArray = _floodFillHoles(array);
     }
     else _filledArray = array;
   }
@@ -63,6 +88,90 @@ public class Filler
     return _filledArray;
   }
 
+  /**
+   * Fill the holes in the mask. The background (non-positive) pixels that
+   * are 4-connected to the border of the image are found with a scanline
+   * flood fill seeded from the border, and every other background pixel is
+   * set to the mask value.
+   *
+   * @param array An byte array to fill holes.
+   */ 
+  private byte[][] _floodFillHoles(byte[][] array)
+  {
+    // Pixel states: 0 unvisited background, 1 mask, 2 outside background
+    byte[] state = new byte[X_DIM * Y_DIM];
+    boolean foundMask = false;
+    for(int x = 0; x < X_DIM; x++){
+      for(int y = 0; y < Y_DIM; y++){
+	if(array[x][y] > 0){
+	  if(!foundMask) _maskValue = array[x][y];
+	  foundMask = true;
+	  state[x * Y_DIM + y] = 1;
+	}
+      }
+    }
+    if(!foundMask) return array;
+
+    // Seed with the border pixels. Each seed is pushed as x * Y_DIM + y.
+    int[] stack = new int[2 * (X_DIM + Y_DIM)];
+    int top = 0;
+    for(int x = 0; x < X_DIM; x++){
+      stack[top++] = x * Y_DIM;
+      stack[top++] = x * Y_DIM + Y_DIM - 1;
+    }
+    for(int y = 1; y < Y_DIM-1; y++){
+      stack[top++] = y;
+      stack[top++] = (X_DIM - 1) * Y_DIM + y;
+    }
+
+    int index, x, y0, y1, base;
+    while(top > 0){
+      index = stack[--top];
+      if(state[index] != 0) continue;
+      x = index / Y_DIM;
+      base = x * Y_DIM;
+
+      // Extend the run along the column
+      y0 = index - base;
+      y1 = y0;
+      while(y0 > 0 && state[base + y0 - 1] == 0) y0--;
+      while(y1 < Y_DIM-1 && state[base + y1 + 1] == 0) y1++;
+      for(int y = y0; y <= y1; y++) state[base + y] = 2;
+
+      // Push one seed for every run in the neighboring columns
+      for(int nx = x-1; nx <= x+1; nx += 2){
+	if(nx < 0 || nx >= X_DIM) continue;
+	int nBase = nx * Y_DIM;
+	boolean inRun = false;
+	for(int y = y0; y <= y1; y++){
+	  if(state[nBase + y] == 0){
+	    if(!inRun){
+	      if(top == stack.length){
+		int[] temp = new int[top * 2];
+		System.arraycopy(stack, 0, temp, 0, top);
+		stack = temp;
+	      }
+	      stack[top++] = nBase + y;
+	      inRun = true;
+	    }
+	  }
+	  else inRun = false;
+	}
+      }
+    }
+
+    // Everything not reached from the border is in the mask
+    byte[][] filledArray = new byte[X_DIM][Y_DIM];
+    for(int i = 0; i < X_DIM; i++){
+      base = i * Y_DIM;
+      for(int j = 0; j < Y_DIM; j++){
+	if(state[base + j] == 0) filledArray[i][j] = _maskValue;
+	else filledArray[i][j] = array[i][j];
+      }
+    }
+    return filledArray;
+  }
+
   /**
    * Fill the holes in the mask.
    *
@@ -0,0 +1,249 @@
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+package LevelSet;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+
+import FileIO.VolumeWriter;
+
+/**
+ * Writes the brain masks of converged slices in the background. Masks are
+ * queued by <code>submit</code>, which returns immediately; hole filling,
+ * image creation and file output are done on a single background thread, so
+ * the level set evolution never waits for the disk or for image encoding.
+ * <p>
+ * In VOLUME mode every mask is written into one Analyze or MINC mask volume
+ * through a <code>VolumeWriter</code> as soon as it is received, and the
+ * volume is finished by <code>close</code>, which waits for the queued masks;
+ * the masks are not kept in memory. A slice may be submitted again, as the
+ * segmentation does when it retries a slice, until close. In PNG_SLICES mode
+ * every mask is written as &lt;slice+1&gt;.png, as before.
+ *
+ * @version 19 October 2026
+ */
+public class MaskWriter
+{
+
+  /** Writes each mask to its own PNG file. */
+  public static final int PNG_SLICES = 0;
+
+  /** Writes all masks as one mask volume in the format of the input. */
+  public static final int VOLUME = 1;
+
+  /** The output mode. */
+  private int _mode;
+
+  /** The base name of the output volume. */
+  private String _baseName;
+
+  /** The header of the input volume, read on the caller's thread so that
+   * the writer thread never uses the input's reader. */
+  private VolumeWriter.Header _inputHeader = null;
+
+  /** Intensity of brain mask. */
+  private int _intensityOfMask;
+
+  /** The number of slices in the volume. */
+  private int _numOfSlices;
+
+  /** The mask volume; opened with the first slice. Only used by the writer
+   * thread. */
+  private VolumeWriter _volume = null;
+
+  /** The background thread doing the work. */
+  private ExecutorService _executor;
+
+  /**
+   * Constructor.
+   *
+   * @param mode PNG_SLICES or VOLUME.
+   * @param baseName The base name of the output volume.
+   * @param numOfSlices The number of slices in the volume.
+   * @param inputReader The reader of the input volume, for its header; if it
+   *                    is null or has no header, VOLUME mode falls back to
+   *                    PNG_SLICES. It is not used after the constructor.
+   * @param intensityOfMask The pixel value of the mask.
+   */
+  public MaskWriter(int mode, String baseName, int numOfSlices,
+		    ImageReader inputReader, int intensityOfMask)
+  {
+    _mode = mode;
+    if(_mode == VOLUME){
+      try{
+	_inputHeader = VolumeWriter.readHeader(inputReader);
+      }catch(IOException e){
+	System.out.println("Unable to write the mask volume due to " + e);
+	System.out.println("Writing the masks as PNG files");
+	_mode = PNG_SLICES;
+      }
+    }
+    _baseName = baseName;
+    _intensityOfMask = intensityOfMask;
+    _numOfSlices = numOfSlices;
+    _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	public Thread newThread(Runnable r)
+	{
+	  Thread t = new Thread(r, "MaskWriter");
+	  t.setDaemon(true);
+	  t.setPriority(Thread.MIN_PRIORITY);
+	  return t;
+	}
+      });
+  }
+
+  /**
+   * Queues the mask of a slice for writing. The array must not be modified
+   * afterwards. A slice submitted again replaces its earlier mask. Masks
+   * cannot be submitted after close.
+   *
+   * @param slice The index of the slice, starting from 0.
+   * @param binaryArray A byte, binary array of the mask.
+   */
+  public void submit(final int slice, final byte[][] binaryArray)
+  {
+    _executor.execute(new Runnable() {
+	public void run()
+	{
+	  _write(slice, binaryArray);
+	}
+      });
+  }
+
+  /**
+   * Writes the queued masks, finishes the volume and stops the background
+   * thread, and waits until that is done. Calling it again only waits. If
+   * the calling thread is interrupted, it stops waiting and keeps its
+   * interrupt status; the background thread still finishes the volume.
+   */
+  public void close()
+  {
+    synchronized(this){
+      if(!_executor.isShutdown()){
+	_executor.execute(new Runnable() {
+	    public void run()
+	    {
+	      if(_volume != null) _closeVolume();
+	    }
+	  });
+	_executor.shutdown();
+      }
+    }
+    try{
+      _executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits until all queued masks have been written after close, for a
+   * caller which must not block for long.
+   *
+   * @param timeoutMillis The maximum time to wait in milliseconds.
+   * @return True if all work is done; false if the timeout elapsed.
+   */
+  public boolean awaitCompletion(long timeoutMillis)
+    throws InterruptedException
+  {
+    return _executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Fills the holes of a mask and writes it out. Runs on the writer thread.
+   */
+  private void _write(int slice, byte[][] binaryArray)
+  {
+    try{
+      Filler filler = new Filler(binaryArray);
+      BufferedImage image = _createMaskImage(filler.getFilledArray());
+
+      if(_mode == PNG_SLICES){
+	// filename began to 1
+	File outputfile = new File((slice+1)+".png");
+	ImageIO.write(image, "png", outputfile);
+	System.out.println("slice "+(slice+1)+" saved.");
+	return;
+      }
+
+      if(_volume == null){
+	try{
+	  _volume = VolumeWriter.open(_baseName, _inputHeader, image.getWidth(),
+				      image.getHeight(), _numOfSlices, 8, 0,
+				      _intensityOfMask);
+	}catch(IOException e){
+	  System.out.println("Unable to write the mask volume due to " + e);
+	  System.out.println("Writing the masks as PNG files");
+	  _mode = PNG_SLICES;
+	  _write(slice, binaryArray);
+	  return;
+	}
+      }
+      _volume.writeSlice(slice, image);
+    }catch(IOException e){
+      e.printStackTrace();
+    }catch(RuntimeException e){
+      // Nothing else would report it on the writer thread
+      System.out.println("Unable to write the mask of slice " + (slice+1)
+			 + " due to " + e);
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Finishes the volume; missing slices are empty.
+   */
+  private void _closeVolume()
+  {
+    try{
+      _volume.close();
+    }catch(IOException e){
+      e.printStackTrace();
+    }catch(RuntimeException e){
+      System.out.println("Unable to finish the mask volume due to " + e);
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Create an 8-bit brain mask image.
+   *
+   * @param outputArray A byte, binary array.
+   * @return A BufferedImage object.
+   */
+  private BufferedImage _createMaskImage(byte[][] outputArray)
+  {
+    int width = outputArray.length;
+    int height = outputArray[0].length;
+    BufferedImage outputImage = new BufferedImage(width, height,
+						  BufferedImage.TYPE_BYTE_GRAY);
+    WritableRaster outputRaster = outputImage.getRaster();
+    for(int y = 0; y < height; y++){
+      for(int x = 0; x < width; x++){
+	if(outputArray[x][y] > 0) {
+	  outputRaster.setSample(x, y, 0, _intensityOfMask);
+	}
+      }
+    }
+    return outputImage;
+  }
+}
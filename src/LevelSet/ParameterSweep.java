@@ -0,0 +1,385 @@
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+package LevelSet;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageReader;
+
+import FileIO.FileReader;
+import FileIO.ReaderPool;
+import FileIO.MetadataParser;
+
+/**
+ * Runs the skull stripping of a volume with many parameter settings, without
+ * the GUI, and scores each result against a label mask. The volume and the
+ * label mask are read once; the settings run concurrently on a thread pool
+ * and share the decoded slices, which are never modified.
+ * <p>
+ * Each run is segmented by VolumeSkullStripper, as in the GUI, including
+ * the retries of slices that differ too much from their neighbors.
+ * <p>
+ * Usage: java LevelSet.ParameterSweep image label results alphas radii
+ * thresholdSelectors statnMaxes [threads [pyramidLevels]], where the
+ * parameter lists are comma separated. A threshold selector of NaN or a
+ * STATN_MAX below 0 keeps the values SkullStripper chooses for each slice.
+ * The center slice is evolved at full resolution only, as in the GUI,
+ * unless pyramidLevels is given, so that the coarse-to-fine evolution can
+ * be scored against it before the GUI turns it on.
+ *
+ * @version 19 October 2026
+ */
+public class ParameterSweep
+{
+
+  /** The image file. */
+  private File _imageFile;
+
+  /** The decoded slices and their raw data, shared by all runs. */
+  private BufferedImage[] _images;
+  private short[][][] _arrays;
+
+  /** The label mask of each slice. */
+  private BitMask[] _labels;
+
+  /** The size of the slices. */
+  private int X_DIM;
+  private int Y_DIM;
+
+  /** Resampling orientation of the volume. */
+  private int _resamplingOrient;
+
+  /** Number of coarse levels of the center slice; 0 for none. */
+  private int _pyramidLevels = 0;
+
+  /**
+   * A combination of the parameters of SkullStripper.
+   */
+  public static class Setting
+  {
+    public final double alpha;
+    public final double radius;
+    public final double thresholdSelector;
+    public final int statnMax;
+
+    public Setting(double alpha, double radius, double thresholdSelector,
+		   int statnMax)
+    {
+      this.alpha = alpha;
+      this.radius = radius;
+      this.thresholdSelector = thresholdSelector;
+      this.statnMax = statnMax;
+    }
+  }
+
+  /**
+   * The score of one setting over the whole volume.
+   */
+  public static class Result
+  {
+    public final Setting setting;
+    public final int truePositive;
+    public final int falsePositive;
+    public final int falseNegative;
+    public final int iterations;
+    public final long millis;
+
+    Result(Setting setting, int[] counts, int iterations, long millis)
+    {
+      this.setting = setting;
+      truePositive = counts[0];
+      falsePositive = counts[1];
+      falseNegative = counts[2];
+      this.iterations = iterations;
+      this.millis = millis;
+    }
+
+    /** Returns TP / (TP + FP + FN), or 0 if both masks are empty. */
+    public double getJaccard()
+    {
+      int union = truePositive + falsePositive + falseNegative;
+      return (union == 0) ? 0 : (double) truePositive / union;
+    }
+
+    /** Returns 2TP / (2TP + FP + FN), or 0 if both masks are empty. */
+    public double getDice()
+    {
+      int sum = 2 * truePositive + falsePositive + falseNegative;
+      return (sum == 0) ? 0 : 2.0 * truePositive / sum;
+    }
+  }
+
+  /**
+   * Constructor. Reads the volume and the label mask.
+   *
+   * @param imageFile The image volume.
+   * @param labelFile The label volume; nonzero voxels are brain.
+   * @throws IOException If a file cannot be read, or the volumes differ in
+   *                     size.
+   */
+  public ParameterSweep(File imageFile, File labelFile) throws IOException
+  {
+    _imageFile = imageFile;
+    ReaderPool pool = new ReaderPool(imageFile);
+    ImageReader reader = pool.getImageReader();
+    int numImages = pool.getNumImages();
+    X_DIM = reader.getWidth(0);
+    Y_DIM = reader.getHeight(0);
+    _images = pool.readAll();
+    _arrays = new short[numImages][][];
+    for(int z = 0; z < numImages; z++) _arrays[z] = _toArray(_images[z]);
+
+    MetadataParser metadataParser = new MetadataParser(reader);
+    _resamplingOrient = SkullStripper.getResamplingOrient(metadataParser,
+							  _images);
+    pool.close();
+
+    ImageReader labelReader = new FileReader(labelFile).getImageReader();
+    if(labelReader == null) throw new IOException("Cannot read " + labelFile);
+    if(labelReader.getNumImages(true) != numImages
+       || labelReader.getWidth(0) != X_DIM
+       || labelReader.getHeight(0) != Y_DIM){
+      throw new IOException("The label volume must have the size of the " +
+			    "image volume.");
+    }
+    _labels = new BitMask[numImages];
+    for(int z = 0; z < numImages; z++){
+      short[][] label = _toArray(labelReader.read(z));
+      BitMask mask = new BitMask(X_DIM, Y_DIM);
+      for(int x = 0; x < X_DIM; x++)
+	for(int y = 0; y < Y_DIM; y++)
+	  if(label[x][y] != 0) mask.set(x, y, true);
+      _labels[z] = mask;
+    }
+    labelReader.dispose();
+  }
+
+  /**
+   * Creates all combinations of the given parameter values.
+   *
+   * @return A List of Settings.
+   */
+  public static List createGrid(double[] alphas, double[] radii,
+				double[] thresholdSelectors, int[] statnMaxes)
+  {
+    List settings = new ArrayList();
+    for(int a = 0; a < alphas.length; a++)
+      for(int r = 0; r < radii.length; r++)
+	for(int t = 0; t < thresholdSelectors.length; t++)
+	  for(int s = 0; s < statnMaxes.length; s++)
+	    settings.add(new Setting(alphas[a], radii[r],
+				     thresholdSelectors[t], statnMaxes[s]));
+    return settings;
+  }
+
+  /**
+   * Sets the number of coarse levels the center slice is evolved on
+   * before full resolution.
+   *
+   * @param levels The number of levels; 0, the default, for none.
+   */
+  public void setPyramidLevels(int levels)
+  {
+    if(levels < 0)
+      throw new IllegalArgumentException("levels must not be negative.");
+    _pyramidLevels = levels;
+  }
+
+  /**
+   * Runs the settings concurrently.
+   *
+   * @param settings A List of Settings.
+   * @param threads The number of threads.
+   * @return A List of Results in the order of the settings.
+   * @throws IOException If a run cannot read the metadata of the volume.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public List run(List settings, int threads)
+    throws IOException, InterruptedException
+  {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try{
+      List tasks = new ArrayList(settings.size());
+      for(int i = 0; i < settings.size(); i++){
+	final Setting setting = (Setting) settings.get(i);
+	tasks.add(new Callable() {
+	    public Object call() throws Exception
+	    {
+	      return evaluate(setting);
+	    }
+	  });
+      }
+      List futures = executor.invokeAll(tasks);
+      List results = new ArrayList(futures.size());
+      for(int i = 0; i < futures.size(); i++){
+	try{
+	  results.add(((Future) futures.get(i)).get());
+	}catch(ExecutionException e){
+	  if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+	  throw new IllegalStateException(e.getCause().toString());
+	}
+      }
+      return results;
+    }finally{
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Segments the volume with one setting and scores it.
+   *
+   * @param setting The parameters.
+   * @return The Result.
+   * @throws IOException If the metadata of the volume cannot be read.
+   * @throws InterruptedException If the run is interrupted.
+   */
+  public Result evaluate(Setting setting)
+    throws IOException, InterruptedException
+  {
+    long start = System.currentTimeMillis();
+
+    // Each run has its own reader, for the metadata only
+    ImageReader reader = new FileReader(_imageFile).getImageReader();
+    if(reader == null) throw new IOException("Cannot read " + _imageFile);
+    int numImages = _images.length;
+    SkullStripper[] slices = new SkullStripper[numImages];
+    for(int z = 0; z < numImages; z++){
+      SkullStripper slice = new SkullStripper(z);
+      slice.sliceInVolume = numImages;
+      slice._imageReader = reader;
+      slice.setDim(X_DIM, Y_DIM);
+      slice.setParam(setting.alpha, setting.radius);
+      slice.initialization(_images[z], _arrays[z]);
+      slice.setResamplingOrient(_resamplingOrient);
+      if(!Double.isNaN(setting.thresholdSelector))
+	slice.setThresholdSelector(setting.thresholdSelector);
+      if(setting.statnMax >= 0) slice.setStationaryMax(setting.statnMax);
+      slices[z] = slice;
+    }
+
+    VolumeSkullStripper stripper = new VolumeSkullStripper(slices);
+    stripper.setPyramidLevels(_pyramidLevels);
+    int iterations;
+    try{
+      iterations = stripper.segment();
+    }finally{
+      reader.dispose();
+    }
+
+    int[] counts = new int[3];
+    for(int z = 0; z < numImages; z++){
+      int[] c = _labels[z].compare(BitMask.fromPhi(slices[z].phi,
+				  VolumeSkullStripper.BOUNDARY_VALUE));
+      counts[0] += c[0];
+      counts[1] += c[1];
+      counts[2] += c[2];
+    }
+    return new Result(setting, counts, iterations,
+		      System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Writes the results as a tab separated table, one setting per line.
+   *
+   * @param results A List of Results.
+   * @param file The output file.
+   * @throws IOException If the file cannot be written.
+   */
+  public static void writeResults(List results, File file) throws IOException
+  {
+    PrintWriter out = new PrintWriter(new java.io.FileWriter(file));
+    try{
+      out.println("alpha\tradius\tthresholdSelector\tstatnMax\tjaccard\tdice"
+		  + "\ttp\tfp\tfn\titerations\tms");
+      for(int i = 0; i < results.size(); i++){
+	Result r = (Result) results.get(i);
+	Setting s = r.setting;
+	out.println(s.alpha + "\t" + s.radius + "\t" + s.thresholdSelector
+		    + "\t" + s.statnMax + "\t"
+		    + String.format("%.5f\t%.5f", r.getJaccard(), r.getDice())
+		    + "\t" + r.truePositive + "\t" + r.falsePositive
+		    + "\t" + r.falseNegative + "\t" + r.iterations
+		    + "\t" + r.millis);
+      }
+    }finally{
+      out.close();
+    }
+    if(out.checkError()) throw new IOException("Cannot write " + file);
+  }
+
+  /**
+   * Runs a sweep from the command line.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if(args.length < 7){
+      System.out.println("Usage: java LevelSet.ParameterSweep image label " +
+			 "results alphas radii thresholdSelectors " +
+			 "statnMaxes [threads [pyramidLevels]]");
+      System.exit(1);
+    }
+    double[] alphas = _parseList(args[3]);
+    double[] radii = _parseList(args[4]);
+    double[] selectors = _parseList(args[5]);
+    double[] statn = _parseList(args[6]);
+    int[] statnMaxes = new int[statn.length];
+    for(int i = 0; i < statn.length; i++) statnMaxes[i] = (int) statn[i];
+    int threads = (args.length > 7) ? Integer.parseInt(args[7])
+      : Runtime.getRuntime().availableProcessors();
+
+    ParameterSweep sweep = new ParameterSweep(new File(args[0]),
+					      new File(args[1]));
+    if(args.length > 8) sweep.setPyramidLevels(Integer.parseInt(args[8]));
+    List settings = createGrid(alphas, radii, selectors, statnMaxes);
+    System.out.println("Running " + settings.size() + " settings on " +
+		       threads + " threads");
+    List results = sweep.run(settings, threads);
+    writeResults(results, new File(args[2]));
+  }
+
+  /**
+   * Parses a comma separated list of numbers.
+   */
+  private static double[] _parseList(String list)
+  {
+    String[] items = list.split(",");
+    double[] values = new double[items.length];
+    for(int i = 0; i < items.length; i++)
+      values[i] = Double.parseDouble(items[i].trim());
+    return values;
+  }
+
+  /**
+   * Converts a slice to raw data, as SkullStripper.create2DArray does.
+   */
+  private short[][] _toArray(BufferedImage image)
+  {
+    Raster raster = image.getRaster();
+    short[][] array = new short[X_DIM][Y_DIM];
+    for(int y = 0; y < Y_DIM; y++)
+      for(int x = 0; x < X_DIM; x++)
+	array[x][y] = (short)(raster.getSample(x, y, 0) & 0xffff);
+    return array;
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+package LevelSet;
+
+/**
+ * Resamples images and level set functions between the levels of a 2x
+ * resolution pyramid, for coarse-to-fine evolution. Arrays are indexed as
+ * array[x][y]. Level set values are distances in pixels, so they are halved
+ * when downsampling and doubled when upsampling.
+ *
+ * @version 19 October 2026
+ */
+public class Pyramid
+{
+
+  /**
+   * Constructor. Not used; all methods are static.
+   */
+  private Pyramid()
+  {
+  }
+
+  /**
+   * Halves the resolution of an image by averaging 2x2 blocks. An odd last
+   * row or column is dropped.
+   *
+   * @param image The image to downsample.
+   * @return The image at half resolution.
+   */
+  public static short[][] downsample(short[][] image)
+  {
+    int width = image.length / 2;
+    int height = image[0].length / 2;
+    short[][] coarse = new short[width][height];
+    for(int x = 0; x < width; x++){
+      short[] c0 = image[2*x];
+      short[] c1 = image[2*x+1];
+      for(int y = 0; y < height; y++){
+	int sum = (c0[2*y] & 0xffff) + (c0[2*y+1] & 0xffff)
+	  + (c1[2*y] & 0xffff) + (c1[2*y+1] & 0xffff);
+	coarse[x][y] = (short)((sum + 2) >> 2);
+      }
+    }
+    return coarse;
+  }
+
+  /**
+   * Halves the resolution of a level set function by averaging 2x2 blocks
+   * and halving the values. An odd last row or column is dropped.
+   *
+   * @param phi The level set function to downsample.
+   * @return The level set function at half resolution.
+   */
+  public static double[][] downsample(double[][] phi)
+  {
+    int width = phi.length / 2;
+    int height = phi[0].length / 2;
+    double[][] coarse = new double[width][height];
+    for(int x = 0; x < width; x++){
+      double[] c0 = phi[2*x];
+      double[] c1 = phi[2*x+1];
+      for(int y = 0; y < height; y++){
+	coarse[x][y] = (c0[2*y] + c0[2*y+1] + c1[2*y] + c1[2*y+1]) * 0.125;
+      }
+    }
+    return coarse;
+  }
+
+  /**
+   * Doubles the resolution of a level set function by bilinear
+   * interpolation and doubles the values.
+   *
+   * @param phi The level set function to upsample.
+   * @param width The width of the result, about twice that of phi.
+   * @param height The height of the result, about twice that of phi.
+   * @return The level set function at the given size.
+   */
+  public static double[][] upsample(double[][] phi, int width, int height)
+  {
+    int coarseWidth = phi.length;
+    int coarseHeight = phi[0].length;
+    double[][] fine = new double[width][height];
+
+    // Pixel centers: fine x maps to coarse (x + 0.5) / 2 - 0.5
+    int[] y0 = new int[height];
+    double[] wy = new double[height];
+    for(int y = 0; y < height; y++){
+      double cy = Math.max(0, Math.min(coarseHeight - 1, (y + 0.5) / 2 - 0.5));
+      y0[y] = Math.min((int)cy, coarseHeight - 2 < 0 ? 0 : coarseHeight - 2);
+      wy[y] = (coarseHeight > 1) ? cy - y0[y] : 0;
+    }
+    for(int x = 0; x < width; x++){
+      double cx = Math.max(0, Math.min(coarseWidth - 1, (x + 0.5) / 2 - 0.5));
+      int x0 = Math.min((int)cx, coarseWidth - 2 < 0 ? 0 : coarseWidth - 2);
+      double wx = (coarseWidth > 1) ? cx - x0 : 0;
+      double[] c0 = phi[x0];
+      double[] c1 = phi[Math.min(x0 + 1, coarseWidth - 1)];
+      for(int y = 0; y < height; y++){
+	int y1 = Math.min(y0[y] + 1, coarseHeight - 1);
+	double top = c0[y0[y]] + wx * (c1[y0[y]] - c0[y0[y]]);
+	double bottom = c0[y1] + wx * (c1[y1] - c0[y1]);
+	fine[x][y] = 2 * (top + wy[y] * (bottom - top));
+      }
+    }
+    return fine;
+  }
+}
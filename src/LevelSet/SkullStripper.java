@@ -1,7 +1,9 @@
 package LevelSet;
 
+import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.geom.GeneralPath;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
@@ -16,24 +18,39 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import FileIO.FileWriter;
+import tools.Metrics;
 import FileIO.MetadataParser;
+import FileIO.ReaderPool;
 import LevelSet.DataVolume;
 import LevelSet.Filler;
 
-import org.medtoolbox.jviewbox.viewport.annotation.DynamicAnnotationImage;
+import org.medtoolbox.jviewbox.viewport.annotation.DynamicAnnotationShape;
 
 import LevelSet.Calculator;
 
 public class SkullStripper {
 	/**
-	 * Annotation image for showing the evolving contour.
+	 * Annotation shape for showing the evolving contour.
 	 */
-	public DynamicAnnotationImage annImage;
+	public DynamicAnnotationShape annShape;
 
 	/** iteration is pause **/
 	boolean isfrozen = false;
 	boolean isfirstTime = true;
 	double BOUNDARY_VALUE = -0.5;
+	/** choose the time step of each iteration from the CFL condition **/
+	boolean ADAPTIVE_TIME_STEP = false;
+	/** largest change of phi per time step, in pixels **/
+	double CFL_SAFETY = 0.9;
+	/** smallest and largest adaptive time step **/
+	double MIN_TIME_STEP = 0.01;
+	double MAX_TIME_STEP = 1.0;
+	/** largest number of sweeps of one reinitialization **/
+	int REINIT_MAX_SWEEPS = 200;
+	/** half width of the band deciding convergence of reinitialization, 0 for the whole slice **/
+	double REINIT_BAND = 0;
+	/** reinitialize every REINIT_INTERVAL iterations **/
+	int REINIT_INTERVAL = 1;
 
 	/** number of this slice**/
 	public int slice;
@@ -86,12 +103,35 @@ public class SkullStripper {
 	/** Maximum oscillations to reach stability */
 	private int STATN_MAX = 4;
 
+	/** Resampling orientation of the volume; -1 until it is computed. */
+	private int _resamplingOrient = -1;
+
+	/** Iterations since the last convergence, and when the first one started. */
+	private int _iterations = 0;
+	private long _sliceStartNanos;
+
+	/** Metrics of the iterations and of the converged slices. */
+	private static final Metrics.Histogram ITERATION_TIME = Metrics.histogram("levelset.iteration.us");
+	private static final Metrics.Counter ITERATIONS = Metrics.counter("levelset.iterations");
+	private static final Metrics.Histogram ITERATION_BAND = Metrics.histogram("levelset.iteration.band");
+	private static final Metrics.Histogram ITERATION_AREA = Metrics.histogram("levelset.iteration.area");
+	private static final Metrics.Counter SLICES_CONVERGED = Metrics.counter("levelset.slices.converged");
+	private static final Metrics.Histogram SLICE_ITERATIONS = Metrics.histogram("levelset.slice.iterations");
+	private static final Metrics.Histogram SLICE_TIME = Metrics.histogram("levelset.slice.us");
+	private static final Metrics.Histogram SLICE_AREA = Metrics.histogram("levelset.slice.area");
+
+	/** Iterations with unchanged area to stop evolving a coarse level */
+	private static final int COARSE_STABLE_ITER = 3;
+
 	/** Calculates level set functions */
 	public Calculator _calculator;
 
 	/** Intensity of brain mask. */
 	private int _intensityOfMask = 1;
 
+	/** Background writer for the masks; null to save them synchronously. */
+	private MaskWriter _maskWriter = null;
+
 	/** X-coord of the center of the initial zero level set circle. */
 	private double _centerX;
 
@@ -115,6 +155,11 @@ public class SkullStripper {
 	
 	/** For File I/O */
 	public ImageReader _imageReader;
+
+	/** Pool of readers of the input, if it is shared with the viewer; the
+	 * volume is then decoded with a borrowed reader, and _imageReader, the
+	 * pool's first reader, is only used for the metadata. */
+	public ReaderPool _readerPool = null;
 	
 	 /** Interslice distance (/pixel size). */
 	public float INTER_SLICE_DIST = 3;
@@ -210,6 +255,60 @@ public class SkullStripper {
 	
 	
 	
+	/**
+	 * Set the threshold selector, replacing the one chosen for this slice 
+	 * by initialization.
+	 */
+	public void setThresholdSelector(double selector)
+	{
+		thresholdSelector = selector;
+		_calculator.setThresholdSelector(selector);
+	}
+
+	/**
+	 * Set the maximum oscillations to reach stability, replacing the one 
+	 * chosen for this slice by initialization.
+	 */
+	public void setStationaryMax(int statnMax)
+	{
+		STATN_MAX = statnMax;
+	}
+
+	/**
+	 * Set the resampling orientation of the volume, so that it is not 
+	 * computed again from the image file: 0-axial, 1-coronal, 2-sagittal.
+	 */
+	public void setResamplingOrient(int orient)
+	{
+		_resamplingOrient = orient;
+	}
+
+	/**
+	 * Get the weight of the curvature term relative to the image force of 
+	 * this slice, for the volumetric evolution.
+	 */
+	public double getCurvatureWeight()
+	{
+		return _calculator.getCurvatureWeight(alpha);
+	}
+
+	/**
+	 * Gets the resampling orientation of a volume from its decoded slices, 
+	 * so that it is computed once for all slices, without decoding the image 
+	 * file again.
+	 * 
+	 * @param metadataParser An parser for parsing image file's metadata.
+	 * @param images The slices of the volume, in order.
+	 * @return An int value indicating the orientation: 0-axial, 1-coronal, 
+	 *         2-sagittal.
+	 */
+	public static int getResamplingOrient(MetadataParser metadataParser, BufferedImage[] images)
+	{
+		DataVolume dv = new DataVolume(images, metadataParser.getOrient(),
+				metadataParser.getBitsPP(), metadataParser.getFormatName());
+		return _getResamplingOrient(metadataParser, dv);
+	}
+
 	/**
 	 * Get alpha;
 	 * 
@@ -279,9 +378,22 @@ public class SkullStripper {
 	 *            the buffered image from the original image data.
 	 */
 	public void initialization(BufferedImage bufferedImage) {
-		_inputImage = new BufferedImage(X_DIM, Y_DIM,BufferedImage.TYPE_BYTE_GRAY);
+		initialization(bufferedImage, create2DArray(bufferedImage));
+	}
+
+	/**
+	 * Class to initilization with raw data already read from the image, 
+	 * which may be shared by several SkullStrippers of the same slice.
+	 * 
+	 * @param bufferedImage
+	 *            the buffered image from the original image data.
+	 * @param inputImageArray
+	 *            the raw data of bufferedImage, as create2DArray returns; 
+	 *            it is not modified.
+	 */
+	public void initialization(BufferedImage bufferedImage, short[][] inputImageArray) {
 		_inputImage = bufferedImage;
-		_inputImageArray = create2DArray(_inputImage);
+		_inputImageArray = inputImageArray;
 	
 		
 		if(slice<=sliceInVolume/2){
@@ -331,6 +443,8 @@ public class SkullStripper {
         System.out.println("slice ="+slice+"threshold ="+thresholdSelector);
 		
 		_calculator = new Calculator(X_DIM, Y_DIM, alpha, thresholdSelector);
+		_calculator.setAdaptiveTimeStep(ADAPTIVE_TIME_STEP, CFL_SAFETY, MIN_TIME_STEP, MAX_TIME_STEP);
+		_calculator.setReinitPolicy(REINIT_MAX_SWEEPS, REINIT_BAND, REINIT_INTERVAL);
 		_calculator.slice=slice;	
 	}
     /**
@@ -343,6 +457,15 @@ public class SkullStripper {
 		return _inputImage;
 		
 	}
+
+	/**
+	 * Get the raw data of inputImage, as create2DArray returns; it must not
+	 * be modified.
+	 */
+	public short[][] getInputImageArray()
+	{
+		return _inputImageArray;
+	}
 	
 	/**
 	 * Class to get X_DIM
@@ -438,9 +561,8 @@ public class SkullStripper {
 		
 		MetadataParser metadataParser = new MetadataParser(_imageReader); 
 		
-		DataVolume dv = new DataVolume(_imageReader);
-		
-		int _resamplingOrient = _getResamplingOrient(metadataParser, dv);
+		if(_resamplingOrient < 0)
+			_resamplingOrient = _getResamplingOrient(metadataParser, _readDataVolume());
 		isfrozen = false;
 	
 		if(slice==(int)sliceInVolume/2-1)
@@ -454,7 +576,7 @@ public class SkullStripper {
 		
 	
 		
-		short[][] inputarray = create2DArray(_inputImage);
+		short[][] inputarray = _inputImageArray;
         //initial maskArea
 		_lastMaskArea=calculateMaskArea(phi);
 		//DisplayInputImage();
@@ -474,8 +596,8 @@ public class SkullStripper {
 	{
 
 		MetadataParser metadataParser = new MetadataParser(_imageReader); 
-		DataVolume dv = new DataVolume(_imageReader);
-		int _resamplingOrient = _getResamplingOrient(metadataParser, dv);
+		if(_resamplingOrient < 0)
+			_resamplingOrient = _getResamplingOrient(metadataParser, _readDataVolume());
 		    
 		ZeroLSInitializer phimetadata = new ZeroLSInitializer(_imageReader,this,_intens2,_intens98,_resamplingOrient);
 	     _centerX = phimetadata.x();
@@ -529,6 +651,7 @@ public class SkullStripper {
 		  for(int s=0;s<Y_DIM;s++)
 			  phi[i][s]=-1;
 			  
+		_calculator.invalidateMaskArea();
 	}
 	
 	
@@ -560,7 +683,9 @@ public class SkullStripper {
 	 */
 	public void Skullstrip() {
 		   
-		   short[][] inputarray = create2DArray(_inputImage);
+		   long start = System.nanoTime();
+		   if(_iterations == 0) _sliceStartNanos = start;
+		   short[][] inputarray = _inputImageArray;
 			
 		 
 			
@@ -577,8 +702,68 @@ public class SkullStripper {
 			phi = _calculator.calculatePhiNew2(phi, delta_eps, f,inputarray);
 			
 			// Reinitialization
-			phi = _calculator.reinitialize(phi);
-		
+			phi = _calculator.reinitializeAfterStep(phi);
+
+			ITERATION_TIME.recordSince(start);
+			ITERATIONS.increment();
+			ITERATION_BAND.record(_calculator.getLastBandSize());
+			ITERATION_AREA.record(_calculator.getMaskArea(phi));
+			_iterations++;
+	}
+
+	/**
+	 * Evolve phi coarse to fine. The input slice and phi are downsampled 
+	 * by 2 for each level; phi is evolved until its area settles at the 
+	 * coarsest level, then upsampled as the initial phi of the next finer 
+	 * level, down to full resolution. Skullstrip() then only needs a few 
+	 * full resolution iterations to finish.
+	 * 
+	 * @param levels Number of coarse levels, e.g., 2 for 4x and 2x; 0 does 
+	 *               nothing.
+	 * @param maxIterations Maximum number of iterations at each level.
+	 */
+	public void evolveCoarseToFine(int levels, int maxIterations) {
+		if(phi == null || levels <= 0) return;
+
+		// Build the pyramid of input slices and phi
+		short[][][] images = new short[levels+1][][];
+		double[][][] phis = new double[levels+1][][];
+		images[0] = _inputImageArray;
+		phis[0] = phi;
+		for(int l = 1; l <= levels; l++){
+			// Stop when the slice becomes too small to evolve on
+			if(images[l-1].length < 16 || images[l-1][0].length < 16){
+				levels = l-1;
+				break;
+			}
+			images[l] = Pyramid.downsample(images[l-1]);
+			phis[l] = Pyramid.downsample(phis[l-1]);
+		}
+		if(levels <= 0) return;
+
+		double[][] levelPhi = phis[levels];
+		for(int l = levels; l >= 1; l--){
+			Calculator calculator = _calculator.createCoarseCalculator(1 << l);
+			short[][] image = images[l];
+			levelPhi = calculator.reinitialize(levelPhi);
+
+			// Iterate until the area has not changed for a few iterations
+			int lastArea = calculator.getMaskArea(levelPhi);
+			int stableCount = 0;
+			for(int iter = 0; iter < maxIterations && stableCount < COARSE_STABLE_ITER; iter++){
+				double[][] delta = calculator.calculateHEpsilonAndDeltaEpsilon3(levelPhi);
+				double[][] force = calculator.calculateF(levelPhi, delta, image, 
+						_intens2, _intens10, _intensM, _intens98);
+				levelPhi = calculator.calculatePhiNew2(levelPhi, delta, force, image);
+				levelPhi = calculator.reinitializeAfterStep(levelPhi);
+				int area = calculator.getMaskArea(levelPhi);
+				if(area == lastArea) stableCount++;
+				else stableCount = 0;
+				lastArea = area;
+			}
+			levelPhi = Pyramid.upsample(levelPhi, images[l-1].length, images[l-1][0].length);
+		}
+		phi = _calculator.reinitialize(levelPhi);
 	}
 	
 	/**
@@ -624,6 +809,7 @@ public class SkullStripper {
 			  phi[x][y] = phi[x][y] - 1;
 		      }
 		  }
+		  _calculator.invalidateMaskArea();
 
 		  // reinialize phi
 		  phi = _calculator.reinitialize(phi);
@@ -634,40 +820,38 @@ public class SkullStripper {
 
 	
 
+	/**
+	 * Calculate the mask area of the given level set function. The area of 
+	 * the current phi is tracked by the calculator as the evolution 
+	 * proceeds, so it is returned without scanning the array.
+	 * 
+	 * @param array The level set function.
+	 * @return The number of pixels not less than BOUNDARY_VALUE.
+	 */
 	public int calculateMaskArea(double[][] array) {
-		int maskArea = 0;
-
-		for (int y = 0; y < Y_DIM; y++) {
-			for (int x = 0; x < X_DIM; x++) {
-				if (array[x][y] >= BOUNDARY_VALUE)
-					maskArea++;
-			}
-		}
+		return _calculator.getMaskArea(array);
+	}
 
-		// System.out.println("area="+maskArea);
-		return maskArea;
+	/**
+	 * Get the mask area of the current phi.
+	 * 
+	 * @return The number of pixels not less than BOUNDARY_VALUE.
+	 */
+	public int getMaskArea() {
+		return _calculator.getMaskArea(phi);
 	}
 	
 	/**
 	   * Calculate the length of the zero level set.
 	   *
-	   * @param array An array of binary values, whose elements with positive 
-	   *              values correspond to the brain tissue. 
-	   * @return The number of positive pixels of the given array.
+	   * @param array The level set function, whose elements above 
+	   *              BOUNDARY_VALUE correspond to the brain tissue. 
+	   * @return The length of the contour in pixels, rounded to an integer.
 	   */
 	  public int calculateContourLength(double[][] array)
 	  {
-	    int length = 0;
-	    byte[][] byteArray = _calculator.convertToBinaryArray(array);
-	    long tempLong;
-	    for(int y = 1; y < Y_DIM-1; y++){
-	      for(int x =1; x < X_DIM-1; x++){
-		tempLong = 4* byteArray[x][y] - byteArray[x][y-1] - byteArray[x][y+1]
-		             - byteArray[x-1][y] - byteArray[x+1][y];
-		if(tempLong > 0 ) length++;		
-	      }
-	    }
-	    return length;
+	    ContourExtractor extractor = new ContourExtractor(array, BOUNDARY_VALUE);
+	    return (int) Math.round(extractor.getLength());
 	  }
 	
 	
@@ -710,6 +894,32 @@ public class SkullStripper {
 		return array;
 	}
 
+	/**
+	 * Get the contour of the mask as sub-pixel polylines in image 
+	 * coordinates.
+	 * 
+	 * @return A GeneralPath of the zero level set.
+	 */
+	public GeneralPath getContourShape() {
+		return new ContourExtractor(phi, BOUNDARY_VALUE).getPath();
+	}
+
+	/**
+	 * Get an annotation for showing the current contour.
+	 * 
+	 * @return A red DynamicAnnotationShape of the zero level set.
+	 */
+	public DynamicAnnotationShape getAnnotationShape() {
+		DynamicAnnotationShape shape = new DynamicAnnotationShape(getContourShape());
+		shape.setForegroundColor(Color.red);
+		return shape;
+	}
+
+	/**
+	 * Rasterize the contour into an image. getAnnotationShape() is 
+	 * preferred for display, since it does not scan the whole image.
+	 * 
+	 */
 	public BufferedImage getAnnotationImage() {
 		BufferedImage AnnotationImage = new BufferedImage(X_DIM, Y_DIM,
 				BufferedImage.TYPE_INT_ARGB);
@@ -757,7 +967,7 @@ public class SkullStripper {
 		 if(phi==null){
 	       return true;   	 
 		 }
-		 int maskArea=calculateMaskArea(phi);
+		 int maskArea=getMaskArea();
 		
 		   
 		    
@@ -798,12 +1008,56 @@ public class SkullStripper {
 		    _lastLastMaskArea = _lastMaskArea;
 		    _lastMaskArea = maskArea;
 		    
-		    if(_statnCounter > STATN_MAX) return true;
+		    if(_statnCounter > STATN_MAX){
+		    	_recordConvergence(maskArea);
+		    	return true;
+		    }
 		    else return false;
-		  }    	
+		  }
+
+	/**
+	 * Record the iterations, time and area of a converged slice.
+	 */
+	private void _recordConvergence(int maskArea)
+	{
+		if(_iterations == 0) return;
+		SLICES_CONVERGED.increment();
+		SLICE_ITERATIONS.record(_iterations);
+		SLICE_TIME.recordSince(_sliceStartNanos);
+		SLICE_AREA.record(maskArea);
+		_iterations = 0;
+	}    	
 	
 	/**
-	 * Save the mask image
+	 * Set the writer which saves the masks in the background.
+	 * 
+	 * @param maskWriter A MaskWriter, or null to save each mask 
+	 *                   synchronously as a PNG file.
+	 */
+	public void setMaskWriter(MaskWriter maskWriter)
+	{
+		_maskWriter = maskWriter;
+	}
+
+	/**
+	 * Get the median intensity inside the current phi.
+	 */
+	public double getMedianIntensity()
+	{
+		return _intensM;
+	}
+
+	/**
+	 * Get intensity of brain mask.
+	 */
+	public int getIntensityOfMask()
+	{
+		return _intensityOfMask;
+	}
+
+	/**
+	 * Save the mask image. If a MaskWriter is set, the mask is only queued 
+	 * and hole filling and output are done in the background.
 	 * @throws IOException 
 	 * 
 	 * 
@@ -811,9 +1065,14 @@ public class SkullStripper {
 	 */
 	public void saveMaskImage() throws IOException
 	{
+		byte[][] outputArray = _calculator.convertToBinaryArray(phi);
+		if(_maskWriter != null){
+			_maskWriter.submit(slice, outputArray);
+			return;
+		}
+		
 		// Save the brain masks as Byte images
 		System.out.println("slice "+(slice+1)+" save.....");
-		byte[][] outputArray = _calculator.convertToBinaryArray(phi);
 		//filling the hole
 		Filler filler = new Filler(outputArray);
 		byte[][] outputArray2 = filler.getFilledArray();
@@ -1024,7 +1283,7 @@ public class SkullStripper {
 	     * @return An int value indicating the orientation: 0-axial, 1-coronal, 
 	     *         2-sagittal.
 	     */
-	    private int _getResamplingOrient(MetadataParser metadataParser,DataVolume dv)
+	    private static int _getResamplingOrient(MetadataParser metadataParser,DataVolume dv)
 	    {
 	      int resamplingOrient = 0;
 
@@ -1040,5 +1299,34 @@ public class SkullStripper {
 	      return resamplingOrient;
 	    }
 
+	    /**
+	     * Decodes the input volume, with a reader borrowed from the pool when
+	     * there is one, so that it is never decoded through a reader which
+	     * the viewer or another thread is using.
+	     *
+	     * @return A DataVolume of the input.
+	     */
+	    private DataVolume _readDataVolume()
+	    {
+	      if(_readerPool == null){
+		synchronized(_imageReader){
+		  return new DataVolume(_imageReader);
+		}
+	      }
+	      ImageReader reader;
+	      try{
+		reader = _readerPool.borrow();
+	      }catch(IOException e){
+		throw new IllegalStateException("Cannot read the volume due to " + e);
+	      }
+	      try{
+		synchronized(reader){
+		  return new DataVolume(reader);
+		}
+	      }finally{
+		_readerPool.release(reader);
+	      }
+	    }
+
 
 }
@@ -0,0 +1,683 @@
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+package LevelSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Evolves one 3D level set function over a whole volume, as an alternative
+ * to the slice by slice evolution of SkullStripper. Only a narrow band of
+ * voxels around the zero level set is updated; the level set function is
+ * clamped to +/-BAND_OUTER elsewhere. The speed is the image force of
+ * Calculator sampled along the 3D normal plus a mean curvature term.
+ * <p>
+ * The volume is split into slabs of consecutive slices, which are processed
+ * in parallel. Each phase of an iteration reads the previous buffer and
+ * writes the next one, so a slab sees the boundary slices of its neighbors
+ * (the halo) as of the end of the previous phase; the phases are separated
+ * by a barrier. When the band moves across a slab boundary, the new band
+ * voxels are passed to the neighboring slab.
+ * <p>
+ * Volumes are indexed as volume[z][x * height + y], matching phi[x][y] of
+ * the slices. Voxels are assumed to be cubic.
+ *
+ * @version 19 October 2026
+ */
+public class VolumeEvolver
+{
+
+  /** Voxels with |phi| below this value are moved by the speed. */
+  private static final float BAND_ACTIVE = 1.5f;
+
+  /** Voxels with |phi| below this value keep their neighbors in the band. */
+  private static final float BAND_INNER = 3.0f;
+
+  /** The value of phi outside the band. */
+  private static final float BAND_OUTER = 4.0f;
+
+  /** Cut off boundary value of phi. */
+  private static final float BOUNDARY_VALUE = -0.5f;
+
+  /** Largest change of phi per iteration, in voxels. */
+  private static final float CFL = 0.5f;
+
+  /** Reinitialization steps after each update. */
+  private static final int REINIT_STEPS = 2;
+
+  /** Time step of reinitialization. */
+  private static final float REINIT_DELTA_T = 0.3f;
+
+  /** The width of a slice. */
+  private int X_DIM;
+
+  /** The height of a slice. */
+  private int Y_DIM;
+
+  /** The number of slices. */
+  private int Z_DIM;
+
+  /** The input volume. */
+  private short[][] _volume;
+
+  /** The level set function and the buffer for its next values. */
+  private float[][] _phi;
+  private float[][] _next;
+
+  /** Band membership of each voxel, written only by the owning slab. */
+  private byte[][] _inBand;
+
+  /** Intensity thresholds of the image force. */
+  private double _intens2;
+  private double _intens10;
+  private double _intensM;
+  private double _intens98;
+
+  /** Threshold selector. */
+  private double _bT = 0.5;
+
+  /** Weight of the mean curvature term. */
+  private double _curvatureWeight = 0.2;
+
+  /** Distances for searching the minimum and maximum intensities. */
+  private int _minD = 16;
+  private int _maxD = 8;
+
+  /** The number of voxels not less than BOUNDARY_VALUE. */
+  private long _area = 0;
+
+  /** The slabs processed in parallel. */
+  private Slab[] _slabs;
+
+  /** The threads processing the slabs. */
+  private ExecutorService _executor;
+
+  /**
+   * Constructor.
+   *
+   * @param volume The input volume, indexed as volume[z][x * height + y].
+   * @param width The width of a slice.
+   * @param height The height of a slice.
+   * @param threads The number of threads; also determines the number of
+   *                slabs.
+   */
+  public VolumeEvolver(short[][] volume, int width, int height, int threads)
+  {
+    _volume = volume;
+    X_DIM = width;
+    Y_DIM = height;
+    Z_DIM = volume.length;
+    _phi = new float[Z_DIM][X_DIM * Y_DIM];
+    _next = new float[Z_DIM][X_DIM * Y_DIM];
+    _inBand = new byte[Z_DIM][X_DIM * Y_DIM];
+
+    // Two slabs per thread, each at least two slices thick
+    int numSlabs = Math.max(1, Math.min(2 * threads, Z_DIM / 2));
+    _slabs = new Slab[numSlabs];
+    for(int k = 0; k < numSlabs; k++){
+      _slabs[k] = new Slab(k * Z_DIM / numSlabs, (k + 1) * Z_DIM / numSlabs);
+    }
+    _executor = Executors.newFixedThreadPool(Math.max(1, threads),
+					     new ThreadFactory() {
+	public Thread newThread(Runnable r)
+	{
+	  Thread t = new Thread(r, "VolumeEvolver");
+	  t.setDaemon(true);
+	  return t;
+	}
+      });
+  }
+
+  /**
+   * Creates the input volume from the slices.
+   *
+   * @param slices The slices, each indexed as slice[x][y].
+   * @return The volume indexed as volume[z][x * height + y].
+   */
+  public static short[][] toVolume(short[][][] slices)
+  {
+    short[][] volume = new short[slices.length][];
+    for(int z = 0; z < slices.length; z++){
+      int width = slices[z].length;
+      int height = slices[z][0].length;
+      volume[z] = new short[width * height];
+      for(int x = 0; x < width; x++)
+	System.arraycopy(slices[z][x], 0, volume[z], x * height, height);
+    }
+    return volume;
+  }
+
+  /**
+   * Set intensity values at 2%, 10%, the median and 98% histogram.
+   */
+  public void setThresholdIntensities(double intens2, double intens10,
+				      double intensM, double intens98)
+  {
+    _intens2 = intens2;
+    _intens10 = intens10;
+    _intensM = intensM;
+    _intens98 = intens98;
+  }
+
+  /**
+   * Set the parameters of the speed.
+   *
+   * @param curvatureWeight Weight of the mean curvature term.
+   * @param thresholdSelector Threshold selector of the image force.
+   * @param minD Distance for searching the minimum intensity, in voxels.
+   * @param maxD Distance for searching the maximum intensity, in voxels.
+   */
+  public void setParameters(double curvatureWeight, double thresholdSelector,
+			    int minD, int maxD)
+  {
+    _curvatureWeight = curvatureWeight;
+    _bT = thresholdSelector;
+    _minD = minD;
+    _maxD = maxD;
+  }
+
+  /**
+   * Initializes phi by extending the phi of one slice through the volume,
+   * decreasing by the distance from that slice.
+   *
+   * @param slicePhi The level set function of slice z, indexed as
+   *                 slicePhi[x][y].
+   * @param z The index of the slice.
+   * @param sliceDistance The distance between slices, in pixels.
+   */
+  public void initialize(double[][] slicePhi, int z, double sliceDistance)
+  {
+    _area = 0;
+    for(int k = 0; k < Z_DIM; k++){
+      double dz = Math.abs(k - z) * sliceDistance;
+      float[] phi = _phi[k];
+      for(int x = 0; x < X_DIM; x++){
+	for(int y = 0; y < Y_DIM; y++){
+	  float value = (float) Math.max(-BAND_OUTER,
+				  Math.min(BAND_OUTER, slicePhi[x][y] - dz));
+	  phi[x * Y_DIM + y] = value;
+	  if(value >= BOUNDARY_VALUE) _area++;
+	}
+      }
+      System.arraycopy(phi, 0, _next[k], 0, phi.length);
+    }
+
+    // Build the initial band by scanning the volume once
+    for(int s = 0; s < _slabs.length; s++) _slabs[s].initBand();
+    _runPhase(Slab.REBUILD_SEND);
+    _runPhase(Slab.REBUILD_RECEIVE);
+    for(int i = 0; i < REINIT_STEPS * 5; i++){
+      _runPhase(Slab.REINITIALIZE);
+      _swap();
+    }
+  }
+
+  /**
+   * Evolves phi until the number of voxels in the mask has changed by less
+   * than the given fraction for five iterations, or until the maximum
+   * number of iterations.
+   *
+   * @param maxIterations The maximum number of iterations.
+   * @param tolerance The relative change of the mask volume regarded as
+   *                  stationary, e.g., 1e-4.
+   * @return The number of iterations done.
+   */
+  public int evolve(int maxIterations, double tolerance)
+  {
+    int stableCount = 0;
+    int iter;
+    for(iter = 0; iter < maxIterations && stableCount < 5; iter++){
+      long lastArea = _area;
+      step();
+      if(Math.abs(_area - lastArea) <= tolerance * lastArea) stableCount++;
+      else stableCount = 0;
+    }
+    return iter;
+  }
+
+  /**
+   * Does one iteration: moves the active voxels, reinitializes the band and
+   * rebuilds it around the new zero level set.
+   */
+  public void step()
+  {
+    _runPhase(Slab.SPEED);
+
+    // Time step from the CFL condition and the stability of the curvature
+    // term, which is explicit
+    float maxSpeed = 0;
+    for(int s = 0; s < _slabs.length; s++)
+      maxSpeed = Math.max(maxSpeed, _slabs[s].maxSpeed);
+    float deltaT = (maxSpeed > 0) ? CFL / maxSpeed : 1;
+    if(_curvatureWeight > 0)
+      deltaT = Math.min(deltaT, (float)(0.9 / (6 * _curvatureWeight)));
+    for(int s = 0; s < _slabs.length; s++) _slabs[s].deltaT = deltaT;
+
+    _runPhase(Slab.UPDATE);
+    _swap();
+    for(int i = 0; i < REINIT_STEPS; i++){
+      _runPhase(Slab.REINITIALIZE);
+      _swap();
+    }
+    _runPhase(Slab.REBUILD_SEND);
+    _runPhase(Slab.REBUILD_RECEIVE);
+  }
+
+  /**
+   * Returns the number of voxels in the mask.
+   */
+  public long getMaskVolume()
+  {
+    return _area;
+  }
+
+  /**
+   * Returns the level set function of a slice.
+   *
+   * @param z The index of the slice.
+   * @return A double array indexed as phi[x][y].
+   */
+  public double[][] getSlicePhi(int z)
+  {
+    return FloatKernels.toArray(_phi[z], X_DIM, Y_DIM);
+  }
+
+  /**
+   * Stops the threads.
+   */
+  public void dispose()
+  {
+    _executor.shutdown();
+  }
+
+  /**
+   * Runs a phase on all slabs in parallel and waits for all of them.
+   */
+  private void _runPhase(final int phase)
+  {
+    List tasks = new ArrayList(_slabs.length);
+    for(int s = 0; s < _slabs.length; s++){
+      final Slab slab = _slabs[s];
+      tasks.add(new Callable() {
+	  public Object call()
+	  {
+	    slab.run(phase);
+	    return null;
+	  }
+	});
+    }
+    try{
+      List futures = _executor.invokeAll(tasks);
+      for(int i = 0; i < futures.size(); i++) ((Future)futures.get(i)).get();
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted.");
+    }catch(ExecutionException e){
+      throw new IllegalStateException(e.getCause().toString());
+    }
+    for(int s = 0; s < _slabs.length; s++){
+      _area += _slabs[s].areaChange;
+      _slabs[s].areaChange = 0;
+    }
+  }
+
+  /**
+   * Swaps the buffers of phi.
+   */
+  private void _swap()
+  {
+    float[][] temp = _phi;
+    _phi = _next;
+    _next = temp;
+  }
+
+  /**
+   * A range of slices [z0, z1) with its part of the band.
+   */
+  private class Slab
+  {
+    static final int SPEED = 0;
+    static final int UPDATE = 1;
+    static final int REINITIALIZE = 2;
+    static final int REBUILD_SEND = 3;
+    static final int REBUILD_RECEIVE = 4;
+
+    /** The slices of this slab. */
+    final int z0;
+    final int z1;
+
+    /** The band voxels, as z * X_DIM * Y_DIM + x * Y_DIM + y. */
+    int[] band = new int[1024];
+    int bandSize = 0;
+
+    /** The speed of each band voxel. */
+    float[] speed = new float[1024];
+
+    /** The largest speed in this slab. */
+    float maxSpeed;
+
+    /** The time step of the update. */
+    float deltaT;
+
+    /** The change of the mask volume in the last phase. */
+    long areaChange;
+
+    /** Candidates for the band of the slabs below and above. */
+    int[] sendDown = new int[256];
+    int sendDownSize = 0;
+    int[] sendUp = new int[256];
+    int sendUpSize = 0;
+
+    /** Candidates for this slab found by this slab. */
+    int[] candidates = new int[1024];
+    int candidateSize = 0;
+
+    Slab(int z0, int z1)
+    {
+      this.z0 = z0;
+      this.z1 = z1;
+    }
+
+    void run(int phase)
+    {
+      if(phase == SPEED) _speed();
+      else if(phase == UPDATE) _update();
+      else if(phase == REINITIALIZE) _reinitialize();
+      else if(phase == REBUILD_SEND) _rebuildSend();
+      else _rebuildReceive();
+    }
+
+    /**
+     * Puts the voxels with |phi| below BAND_INNER into the band, so that
+     * the first rebuild adds their neighbors.
+     */
+    void initBand()
+    {
+      bandSize = 0;
+      int sliceSize = X_DIM * Y_DIM;
+      for(int z = z0; z < z1; z++){
+	float[] phi = _phi[z];
+	for(int i = 0; i < sliceSize; i++){
+	  if(Math.abs(phi[i]) < BAND_INNER && _isInterior(i)){
+	    _inBand[z][i] = 1;
+	    band = _add(band, bandSize++, z * sliceSize + i);
+	  }
+	}
+      }
+    }
+
+    /**
+     * Computes the speed of the active voxels.
+     */
+    void _speed()
+    {
+      if(speed.length < bandSize) speed = new float[band.length];
+      int sliceSize = X_DIM * Y_DIM;
+      float max = 0;
+      for(int n = 0; n < bandSize; n++){
+	int z = band[n] / sliceSize;
+	int i = band[n] - z * sliceSize;
+	float p = _phi[z][i];
+	if(p >= BAND_ACTIVE || p <= -BAND_ACTIVE){
+	  speed[n] = 0;
+	  continue;
+	}
+	float[] c = _phi[z];
+	float[] down = _phi[Math.max(z - 1, 0)];
+	float[] up = _phi[Math.min(z + 1, Z_DIM - 1)];
+
+	// Central differences
+	float px = (c[i + Y_DIM] - c[i - Y_DIM]) * 0.5f;
+	float py = (c[i + 1] - c[i - 1]) * 0.5f;
+	float pz = (up[i] - down[i]) * 0.5f;
+	float pxx = c[i + Y_DIM] - 2 * p + c[i - Y_DIM];
+	float pyy = c[i + 1] - 2 * p + c[i - 1];
+	float pzz = up[i] - 2 * p + down[i];
+	float pxy = (c[i + Y_DIM + 1] - c[i + Y_DIM - 1]
+		     - c[i - Y_DIM + 1] + c[i - Y_DIM - 1]) * 0.25f;
+	float pxz = (up[i + Y_DIM] - up[i - Y_DIM]
+		     - down[i + Y_DIM] + down[i - Y_DIM]) * 0.25f;
+	float pyz = (up[i + 1] - up[i - 1] - down[i + 1] + down[i - 1]) * 0.25f;
+	float g2 = px * px + py * py + pz * pz;
+	float g = (float) Math.sqrt(g2);
+
+	// Mean curvature times |grad phi|
+	float curvature = 0;
+	if(g2 > 1e-6f){
+	  curvature = ((pyy + pzz) * px * px + (pxx + pzz) * py * py
+		       + (pxx + pyy) * pz * pz - 2 * px * py * pxy
+		       - 2 * px * pz * pxz - 2 * py * pz * pyz) / g2;
+	}
+	float force = 0;
+	if(g > 0) force = _force(z, i, px / g, py / g, pz / g);
+	float v = (float)(_curvatureWeight * curvature) + force * g;
+	speed[n] = v;
+	if(Math.abs(force * g) > max) max = Math.abs(force * g);
+      }
+      maxSpeed = max;
+    }
+
+    /**
+     * The image force of Calculator._calculateF, sampled along the inward
+     * normal (nx, ny, nz).
+     */
+    float _force(int z, int i, float nx, float ny, float nz)
+    {
+      int x = i / Y_DIM;
+      int y = i - x * Y_DIM;
+      int depth = Math.max(_minD, _maxD);
+      int minI = Integer.MAX_VALUE;
+      int maxI = Integer.MIN_VALUE;
+      for(int d = 0; d < depth; d++){
+	int sx = (int) Math.floor(x + d * nx + 0.5f);
+	int sy = (int) Math.floor(y + d * ny + 0.5f);
+	int sz = (int) Math.floor(z + d * nz + 0.5f);
+	if(sx <= 0 || sy <= 0 || sz < 0 || sx >= X_DIM || sy >= Y_DIM
+	   || sz >= Z_DIM) break;
+	int intens = _volume[sz][sx * Y_DIM + sy];
+	if(d < _minD && intens < minI) minI = intens;
+	if(d < _maxD && intens > maxI) maxI = intens;
+      }
+      if(minI == Integer.MAX_VALUE) minI = (int) _intensM;
+      if(maxI == Integer.MIN_VALUE) maxI = (int) _intensM;
+      double min = Math.max(_intens2, Math.min(minI, _intensM));
+      double max = Math.max(_intensM, maxI);
+      if(max <= _intens2) return 0;
+      double tL = (max - _intens2) * _bT + _intens2;
+      return (float)(2 * (min - tL) / (max - _intens2));
+    }
+
+    /**
+     * Moves the active voxels by deltaT * speed.
+     */
+    void _update()
+    {
+      int sliceSize = X_DIM * Y_DIM;
+      long change = 0;
+      for(int n = 0; n < bandSize; n++){
+	int z = band[n] / sliceSize;
+	int i = band[n] - z * sliceSize;
+	float p = _phi[z][i];
+	float value = p + deltaT * speed[n];
+	_next[z][i] = value;
+	if((p >= BOUNDARY_VALUE) != (value >= BOUNDARY_VALUE))
+	  change += (value >= BOUNDARY_VALUE) ? 1 : -1;
+      }
+      areaChange = change;
+    }
+
+    /**
+     * One step of Sussman's reinitialization on the band, as in
+     * FloatKernels.reinitializeStep.
+     */
+    void _reinitialize()
+    {
+      int sliceSize = X_DIM * Y_DIM;
+      long change = 0;
+      for(int n = 0; n < bandSize; n++){
+	int z = band[n] / sliceSize;
+	int i = band[n] - z * sliceSize;
+	float[] c = _phi[z];
+	float p = c[i];
+	float a = p - c[i - Y_DIM];
+	float b = c[i + Y_DIM] - p;
+	float cc = p - c[i - 1];
+	float d = c[i + 1] - p;
+	float e = (z > 0) ? p - _phi[z - 1][i] : 0;
+	float f = (z < Z_DIM - 1) ? _phi[z + 1][i] - p : 0;
+	if(p > 0){
+	  a = a > 0 ? a : 0;   b = b < 0 ? b : 0;
+	  cc = cc > 0 ? cc : 0; d = d < 0 ? d : 0;
+	  e = e > 0 ? e : 0;   f = f < 0 ? f : 0;
+	}
+	else {
+	  a = a < 0 ? a : 0;   b = b > 0 ? b : 0;
+	  cc = cc < 0 ? cc : 0; d = d > 0 ? d : 0;
+	  e = e < 0 ? e : 0;   f = f > 0 ? f : 0;
+	}
+	float dis = (float) Math.sqrt(Math.max(a*a, b*b) + Math.max(cc*cc, d*d)
+				      + Math.max(e*e, f*f));
+	float s = p / (float) Math.sqrt(p * p + 1);
+	float value = p - REINIT_DELTA_T * s * (dis - 1);
+	value = Math.max(-BAND_OUTER, Math.min(BAND_OUTER, value));
+	_next[z][i] = value;
+	if((p >= BOUNDARY_VALUE) != (value >= BOUNDARY_VALUE))
+	  change += (value >= BOUNDARY_VALUE) ? 1 : -1;
+      }
+      areaChange = change;
+    }
+
+    /**
+     * Collects the neighbors of the voxels near the zero level set as
+     * candidates for the new band, sending those in other slabs to them.
+     */
+    void _rebuildSend()
+    {
+      int sliceSize = X_DIM * Y_DIM;
+      candidateSize = 0;
+      sendDownSize = 0;
+      sendUpSize = 0;
+      for(int n = 0; n < bandSize; n++){
+	int v = band[n];
+	int z = v / sliceSize;
+	int i = v - z * sliceSize;
+	float p = _phi[z][i];
+	if(p >= BAND_INNER || p <= -BAND_INNER) continue;
+	candidates = _add(candidates, candidateSize++, v);
+	candidates = _add(candidates, candidateSize++, v - Y_DIM);
+	candidates = _add(candidates, candidateSize++, v + Y_DIM);
+	candidates = _add(candidates, candidateSize++, v - 1);
+	candidates = _add(candidates, candidateSize++, v + 1);
+	if(z - 1 >= z0) candidates = _add(candidates, candidateSize++, v - sliceSize);
+	else if(z > 0) sendDown = _add(sendDown, sendDownSize++, v - sliceSize);
+	if(z + 1 < z1) candidates = _add(candidates, candidateSize++, v + sliceSize);
+	else if(z < Z_DIM - 1) sendUp = _add(sendUp, sendUpSize++, v + sliceSize);
+      }
+    }
+
+    /**
+     * Builds the new band from the candidates of this slab and those sent by
+     * the neighboring slabs, and clamps the voxels which left the band.
+     */
+    void _rebuildReceive()
+    {
+      int sliceSize = X_DIM * Y_DIM;
+      int[] oldBand = band;
+      int oldSize = bandSize;
+      int[] newBand = new int[Math.max(1024, candidateSize + 64)];
+      int newSize = 0;
+
+      // Mark the old band with 2; members of the new band become 1
+      for(int n = 0; n < oldSize; n++){
+	int z = oldBand[n] / sliceSize;
+	_inBand[z][oldBand[n] - z * sliceSize] = 2;
+      }
+      int index = _indexOf(this);
+      Slab below = (index > 0) ? _slabs[index - 1] : null;
+      Slab above = (index < _slabs.length - 1) ? _slabs[index + 1] : null;
+      for(int source = 0; source < 3; source++){
+	int[] list;
+	int size;
+	if(source == 0) { list = candidates; size = candidateSize; }
+	else if(source == 1) {
+	  if(below == null) continue;
+	  list = below.sendUp; size = below.sendUpSize;
+	}
+	else {
+	  if(above == null) continue;
+	  list = above.sendDown; size = above.sendDownSize;
+	}
+	for(int n = 0; n < size; n++){
+	  int v = list[n];
+	  int z = v / sliceSize;
+	  int i = v - z * sliceSize;
+	  if(_inBand[z][i] == 1 || !_isInterior(i)) continue;
+	  _inBand[z][i] = 1;
+	  newBand = _add(newBand, newSize++, v);
+	}
+      }
+
+      // Voxels of the old band not in the new one are clamped
+      for(int n = 0; n < oldSize; n++){
+	int z = oldBand[n] / sliceSize;
+	int i = oldBand[n] - z * sliceSize;
+	if(_inBand[z][i] == 2){
+	  _inBand[z][i] = 0;
+	  float p = _phi[z][i];
+	  float value = (p >= 0) ? BAND_OUTER : -BAND_OUTER;
+	  _phi[z][i] = value;
+	  _next[z][i] = value;
+	}
+      }
+      band = newBand;
+      bandSize = newSize;
+    }
+
+    /** Whether element i of a slice is off the border of the slice. */
+    boolean _isInterior(int i)
+    {
+      int x = i / Y_DIM;
+      int y = i - x * Y_DIM;
+      return x > 0 && y > 0 && x < X_DIM - 1 && y < Y_DIM - 1;
+    }
+  }
+
+  /**
+   * Returns the position of a slab.
+   */
+  private int _indexOf(Slab slab)
+  {
+    for(int s = 0; s < _slabs.length; s++) if(_slabs[s] == slab) return s;
+    return -1;
+  }
+
+  /**
+   * Stores a value at the given position of a growable array.
+   */
+  private static int[] _add(int[] array, int size, int value)
+  {
+    if(size == array.length){
+      int[] temp = new int[size * 2];
+      System.arraycopy(array, 0, temp, 0, size);
+      array = temp;
+    }
+    array[size] = value;
+    return array;
+  }
+}
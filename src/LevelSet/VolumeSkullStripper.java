@@ -0,0 +1,421 @@
+/**
+ * Model-based Level Set (MLS) Algorithm
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2003-2005 Haihong Zhuang and Daniel J. Valentino
+ *
+ * Please read LICENSE.TXT for the license covering this software
+ *
+ * For more information, please contact the authors at:
+ * haihongz@seas.ucla.edu
+ * dvalentino@mednet.ucla.edu
+ */
+package LevelSet;
+
+import java.io.IOException;
+
+/**
+ * Skull strips a volume slice by slice, without a display, for the GUI and
+ * for ParameterSweep. The center slice is evolved from the initial circle,
+ * then the slices below and above it are evolved from the phi of their
+ * neighbors toward the center. A slice whose mask differs too much from its
+ * neighbor's is evolved again with a larger curvature weight, at most twice,
+ * and then takes its neighbor's phi; slices near the mid-sagittal slice are
+ * not checked.
+ * <p>
+ * A Listener is told after every iteration of a slice and when a slice is
+ * finished; the GUI draws and saves the masks there.
+ *
+ * @version 19 October 2026
+ */
+public class VolumeSkullStripper
+{
+
+  /** Maximum iterations of the center slice. */
+  public static final int CENTER_MAX_ITER = 1500;
+
+  /** Maximum iterations of the slices below the center slice. */
+  public static final int LOWER_MAX_ITER = 600;
+
+  /** Maximum iterations of the slices above the center slice. */
+  public static final int UPPER_MAX_ITER = 700;
+
+  /** Maximum iterations on each coarse level of the center slice. */
+  public static final int COARSE_MAX_ITER = 300;
+
+  /** Cut off boundary value of phi. */
+  public static final double BOUNDARY_VALUE = -0.5;
+
+  /** Mask areas below which the slices below and above are left empty. */
+  private static final int LOWER_MIN_AREA = 100;
+  private static final int UPPER_MIN_AREA = 10;
+
+  /** How many times a slice is evolved again before it takes its
+   * neighbor's phi. */
+  private static final int MAX_RETRIES = 2;
+
+  /** Jaccard coefficients with the neighbor below which a large mask is
+   * reported, and is evolved again. */
+  private static final double HLIMIT_JACCARD = 0.90;
+  private static final double LIMIT_JACCARD = 0.75;
+
+  /** Mask area above which masks are compared by their Jaccard
+   * coefficient instead of their areas. */
+  private static final int JACCARD_AREA = 10000;
+
+  /**
+   * Receives the progress of the segmentation.
+   */
+  public interface Listener
+  {
+    /**
+     * Called after each iteration of a slice, and when its phi is set
+     * without iterating.
+     *
+     * @param slice The slice.
+     */
+    void sliceUpdated(SkullStripper slice) throws InterruptedException;
+
+    /**
+     * Called once for each slice when its phi is final.
+     *
+     * @param slice The slice.
+     */
+    void sliceFinished(SkullStripper slice) throws IOException;
+  }
+
+  /** The slices of the volume, in order. */
+  private SkullStripper[] _slices;
+
+  /** The index of the center slice. */
+  private int _center;
+
+  /** Slices strictly between these, around the mid-sagittal slice, are
+   * not checked against their neighbors. */
+  private int _midBegin;
+  private int _midEnd;
+
+  /** Number of coarse levels of the center slice; 0 for none. */
+  private int _pyramidLevels = 0;
+
+  /** The listener; may be null. */
+  private Listener _listener = null;
+
+  /** Intensities at 2%, 10%, 40% and 98% of the histogram. */
+  private double _intens2;
+  private double _intens10;
+  private double _intens40;
+  private double _intens98;
+
+  /**
+   * Constructor. Calculates the histogram of the volume and sets the
+   * intensity thresholds of every slice.
+   *
+   * @param slices The initialized slices of the volume, in order.
+   */
+  public VolumeSkullStripper(SkullStripper[] slices)
+  {
+    _slices = slices;
+    _center = slices.length / 2 - 1;
+    _midBegin = (int) (slices.length * 0.45);
+    _midEnd = (int) (slices.length * 0.55);
+    _histogram();
+  }
+
+  /**
+   * Sets the number of coarse levels the center slice is evolved on
+   * before full resolution.
+   *
+   * @param levels The number of levels; 0, the default, for none.
+   */
+  public void setPyramidLevels(int levels)
+  {
+    if(levels < 0)
+      throw new IllegalArgumentException("levels must not be negative.");
+    _pyramidLevels = levels;
+  }
+
+  /**
+   * Sets the listener.
+   *
+   * @param listener A Listener, or null.
+   */
+  public void setListener(Listener listener)
+  {
+    _listener = listener;
+  }
+
+  /**
+   * Gets the index of the center slice.
+   */
+  public int getCenterIndex()
+  {
+    return _center;
+  }
+
+  /**
+   * Gets the intensity at 2% of the histogram.
+   */
+  public double getIntens2()
+  {
+    return _intens2;
+  }
+
+  /**
+   * Gets the intensity at 10% of the histogram.
+   */
+  public double getIntens10()
+  {
+    return _intens10;
+  }
+
+  /**
+   * Gets the intensity at 98% of the histogram.
+   */
+  public double getIntens98()
+  {
+    return _intens98;
+  }
+
+  /**
+   * Segments every slice.
+   *
+   * @return The number of iterations done.
+   */
+  public int segment() throws IOException, InterruptedException
+  {
+    initializeCenter();
+    return segmentCenter() + segmentLower() + segmentUpper();
+  }
+
+  /**
+   * Initializes the phi of the center slice, and evolves it on the coarse
+   * levels.
+   */
+  public void initializeCenter()
+  {
+    SkullStripper center = _slices[_center];
+    center.initialParameter();
+    center.evolveCoarseToFine(_pyramidLevels, COARSE_MAX_ITER);
+  }
+
+  /**
+   * Evolves the center slice at full resolution until it is stationary or
+   * frozen.
+   *
+   * @return The number of iterations done.
+   */
+  public int segmentCenter() throws IOException, InterruptedException
+  {
+    SkullStripper center = _slices[_center];
+    int iter = 0;
+    while(iter < CENTER_MAX_ITER && !center.isStationary()
+	  && !center.getisFrozen()){
+      center.Skullstrip();
+      _update(center);
+      iter++;
+    }
+    System.out.println("center slice area = " + center.getMaskArea());
+    _finish(center);
+    return iter;
+  }
+
+  /**
+   * Segments the slices below the center slice, from the center down.
+   *
+   * @return The number of iterations done.
+   */
+  public int segmentLower() throws IOException, InterruptedException
+  {
+    int iterations = 0;
+    for(int z = _center - 1; z >= 0; z--){
+      System.out.println("current slice = " + (z+1));
+      iterations += _segmentFromFormer(z, z + 1, LOWER_MAX_ITER,
+				       LOWER_MIN_AREA, 0.5);
+    }
+    return iterations;
+  }
+
+  /**
+   * Segments the slices above the center slice, from the center up.
+   *
+   * @return The number of iterations done.
+   */
+  public int segmentUpper() throws IOException, InterruptedException
+  {
+    int iterations = 0;
+    for(int z = _center + 1; z < _slices.length; z++){
+      iterations += _segmentFromFormer(z, z - 1, UPPER_MAX_ITER,
+				       UPPER_MIN_AREA, -0.5);
+    }
+    return iterations;
+  }
+
+  /**
+   * Segments a slice from the phi of its neighbor, evolving it again if its
+   * mask is not acceptable.
+   *
+   * @param z The index of the slice.
+   * @param former The index of the neighbor closer to the center slice.
+   * @param maxIter The maximum number of iterations of each try.
+   * @param minArea The mask area below which the slice is left empty.
+   * @param round Added to the inter-slice distance before rounding it to
+   *              the distance phi is shrunk by.
+   * @return The number of iterations done.
+   */
+  private int _segmentFromFormer(int z, int former, int maxIter, int minArea,
+				 double round)
+    throws IOException, InterruptedException
+  {
+    SkullStripper slice = _slices[z];
+    SkullStripper formerSlice = _slices[former];
+    int iterations = 0;
+    for(int retries = 0; ; retries++){
+      iterations += _evolveFromFormer(slice, formerSlice, maxIter, minArea,
+				      round);
+      if((z > _midBegin && z < _midEnd)
+	 || isPhiAcceptable(slice.phi, slice, formerSlice, formerSlice.phi))
+	break;
+      if(retries == MAX_RETRIES){
+	System.out.println("replace slice " + (z+1) + " with former");
+	slice.initialphiwithFormer(formerSlice.phi);
+	_update(slice);
+	break;
+      }
+      System.out.println("adjust slice=" + (z+1));
+    }
+    _finish(slice);
+    return iterations;
+  }
+
+  /**
+   * Evolves a slice from the phi of its neighbor.
+   *
+   * @return The number of iterations done.
+   */
+  private int _evolveFromFormer(SkullStripper slice, SkullStripper former,
+				int maxIter, int minArea, double round)
+    throws InterruptedException
+  {
+    slice.initialphiwithFormer(former.phi);
+    slice.initialParameter();
+    slice.phi = slice.shrinkPhiZero(slice.phi, (int)
+			 Math.floor(Math.abs(slice.INTER_SLICE_DIST) + round));
+    int iter = 0;
+    while(iter < maxIter && !slice.isStationary()){
+      if(slice.getMaskArea() < minArea){
+	slice.setPhiZero();
+	_update(slice);
+	break;
+      }
+      slice.Skullstrip();
+      _update(slice);
+      iter++;
+    }
+    return iter;
+  }
+
+  /**
+   * If the segmentation results, represented by phi, is acceptable. If it
+   * is not, the curvature weight of the current slice is raised.
+   *
+   * @param phi to check on.
+   * @param current The slice of phi.
+   * @param last The previous slice.
+   * @param lastPhi Phi in last (or previous) slide.
+   * @return True is phi is acceptable; or false if it is unacceptable.
+   */
+  public static boolean isPhiAcceptable(double[][] phi, SkullStripper current,
+					SkullStripper last, double[][] lastPhi)
+  {
+    // Pack both masks once; areas and overlap come from the bits
+    BitMask mask = BitMask.fromPhi(phi, BOUNDARY_VALUE);
+    BitMask lastMask = BitMask.fromPhi(lastPhi, BOUNDARY_VALUE);
+    int maskArea = mask.area();
+    if(maskArea > JACCARD_AREA){
+      double jaccard = lastMask.jaccard(mask);
+      if(jaccard < HLIMIT_JACCARD) System.out.print("Adjust th, ");
+      if(jaccard < LIMIT_JACCARD){
+	System.out.print("Adjust curvature, ");
+	current.AdjustCurva();
+	return false;
+      }
+      return true;
+    }
+
+    // If the mask grew by more than a band along the last contour, then phi
+    // is not acceptable
+    double difference = maskArea - lastMask.area();
+    int contourLength = last.calculateContourLength(lastPhi);
+    double maxAreaDif = (contourLength > 0) ? contourLength * (3 + 1) * 2
+      : difference;
+    if(difference > maxAreaDif){
+      current.AdjustCurva();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Tells the listener that a slice has changed.
+   */
+  private void _update(SkullStripper slice) throws InterruptedException
+  {
+    if(_listener != null) _listener.sliceUpdated(slice);
+  }
+
+  /**
+   * Tells the listener that a slice is finished.
+   */
+  private void _finish(SkullStripper slice) throws IOException
+  {
+    if(_listener != null) _listener.sliceFinished(slice);
+  }
+
+  /**
+   * Calculates the intensities at 2%, 10%, 40% and 98% of the histogram of
+   * the volume, and sets them and the maximum intensity on every slice.
+   */
+  private void _histogram()
+  {
+    int maxI = 0;
+    for(int z = 0; z < _slices.length; z++){
+      short[][] array = _slices[z].getInputImageArray();
+      for(int x = 0; x < array.length; x++)
+	for(int y = 0; y < array[0].length; y++)
+	  if(maxI < array[x][y]) maxI = array[x][y];
+    }
+
+    int[] hist = new int[maxI + 1];
+    double totalSum = 0;
+    for(int z = 0; z < _slices.length; z++){
+      short[][] array = _slices[z].getInputImageArray();
+      totalSum += (double) array.length * array[0].length;
+      for(int x = 0; x < array.length; x++)
+	for(int y = 0; y < array[0].length; y++)
+	  if(array[x][y] >= 0) hist[array[x][y]]++;
+    }
+
+    double sum = 0;
+    boolean found2 = false;
+    for(int k = 0; k < hist.length; k++){
+      sum += hist[k];
+      if(!found2 && sum / totalSum > 0.02){
+	_intens2 = k;
+	found2 = true;
+      }
+      if(sum / totalSum > 0.98){
+	_intens98 = k;
+	break;
+      }
+    }
+    _intens10 = Math.floor(((_intens98 - _intens2)*0.1) + _intens2 + 0.5);
+    _intens40 = Math.floor(((_intens98 - _intens2)*0.4) + _intens2 + 0.5);
+
+    for(int z = 0; z < _slices.length; z++){
+      _slices[z]._calculator.setIntensity(maxI, 0);
+      _slices[z].setThresholdIntensities(_intens2, _intens10, _intens40,
+					 _intens98);
+    }
+  }
+}
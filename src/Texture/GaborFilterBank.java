@@ -0,0 +1,207 @@
+package Texture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tools.FastFourierTransform;
+
+/**
+ * Dense texture maps from a bank of Gabor filters, computed in the frequency
+ * domain. The image is transformed once with FastFourierTransform, multiplied
+ * by the spectrum of each filter and transformed back, which gives the energy
+ * (magnitude of the complex response) of every filter at every pixel. The cost
+ * does not depend on the size of the filters, unlike the windowed features of
+ * Glcm, RunLengthMat and TamuraTextureFeature.
+ *
+ * Images are indexed as GrayValue[row][column], as in the other texture
+ * features. The filter spectra are cached for the few image sizes used most
+ * recently. The image is treated as periodic, so the energy near the border
+ * mixes in the opposite border.
+ */
+public class GaborFilterBank {
+
+	/**
+	 * Wavelengths of the filters in pixels, one scale each.
+	 */
+	private double[] _wavelengths;
+
+	/**
+	 * Number of orientations, evenly spaced over 180 degrees.
+	 */
+	private int _orientations;
+
+	/**
+	 * Ratio of the Gaussian standard deviation to the wavelength; 0.56 gives
+	 * a bandwidth of one octave.
+	 */
+	private double _sigmaRatio;
+
+	/**
+	 * Largest number of image sizes whose filter spectra are cached.
+	 */
+	public static final int SPECTRA_CACHE_SIZE = 4;
+
+	/**
+	 * Cached filter spectra, by "rows x columns", the least recently used
+	 * first.
+	 */
+	private final Map _spectra = new LinkedHashMap(SPECTRA_CACHE_SIZE, 0.75f, true){
+		protected boolean removeEldestEntry(Map.Entry eldest){
+			return size() > SPECTRA_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Creates a filter bank with a bandwidth of one octave.
+	 *
+	 * @param wavelengths wavelengths of the scales in pixels, at least 2
+	 * @param orientations number of orientations
+	 */
+	public GaborFilterBank(double[] wavelengths, int orientations){
+		this(wavelengths, orientations, 0.56);
+	}
+
+	/**
+	 * Creates a filter bank.
+	 *
+	 * @param wavelengths wavelengths of the scales in pixels, at least 2
+	 * @param orientations number of orientations
+	 * @param sigmaRatio ratio of the Gaussian standard deviation to the
+	 *                   wavelength, positive
+	 */
+	public GaborFilterBank(double[] wavelengths, int orientations, double sigmaRatio){
+		if(orientations < 1)
+			throw new IllegalArgumentException("At least one orientation is needed.");
+		for(int s = 0; s < wavelengths.length; s++)
+			if(wavelengths[s] < 2)
+				throw new IllegalArgumentException("Wavelengths must be at least 2 pixels.");
+		if(!(sigmaRatio > 0))
+			throw new IllegalArgumentException("The sigma ratio must be positive.");
+		_wavelengths = (double[])wavelengths.clone();
+		_orientations = orientations;
+		_sigmaRatio = sigmaRatio;
+	}
+
+	/**
+	 * Returns the number of filters, scales times orientations.
+	 */
+	public int getNumOfFilters(){
+		return _wavelengths.length * _orientations;
+	}
+
+	/**
+	 * Returns the wavelength of a filter.
+	 */
+	public double getWavelength(int filter){
+		return _wavelengths[filter / _orientations];
+	}
+
+	/**
+	 * Returns the orientation of a filter in radians.
+	 */
+	public double getOrientation(int filter){
+		return Math.PI * (filter % _orientations) / _orientations;
+	}
+
+	/**
+	 * Computes the energy maps of all filters.
+	 *
+	 * @param GrayValue the image, indexed as GrayValue[row][column]
+	 * @return energy[filter][row][column], for filter = scale * orientations
+	 *         + orientation
+	 */
+	public double[][][] energy(double[][] GrayValue){
+		int height = GrayValue.length;
+		int width = GrayValue[0].length;
+
+		// Transform the image once
+		double[][] real = new double[height][width];
+		double[][] imag = new double[height][width];
+		FastFourierTransform.forwardRealFT2D(GrayValue, real, imag);
+
+		double[][][] filters = _getSpectra(height, width);
+		double[][][] energy = new double[filters.length][][];
+		for(int f = 0; f < filters.length; f++){
+			double[][] g = filters[f];
+			double[][] re = new double[height][width];
+			double[][] im = new double[height][width];
+			for(int m = 0; m < height; m++){
+				for(int n = 0; n < width; n++){
+					re[m][n] = real[m][n] * g[m][n];
+					im[m][n] = imag[m][n] * g[m][n];
+				}
+			}
+			FastFourierTransform.parallelFT2D(re, im, false);
+
+			// Magnitude of the complex response, stored in re
+			for(int m = 0; m < height; m++)
+				for(int n = 0; n < width; n++)
+					re[m][n] = Math.sqrt(re[m][n] * re[m][n] + im[m][n] * im[m][n]);
+			energy[f] = re;
+		}
+		return energy;
+	}
+
+	/**
+	 * Returns the mean energy of each filter over a region of interest.
+	 *
+	 * @param energy the energy maps returned by energy
+	 * @param mask the region, indexed as mask[row][column]
+	 * @param inside the value of mask inside the region
+	 * @return the mean energy of each filter, or zeros if the region is empty
+	 */
+	public static double[] meanEnergy(double[][][] energy, double[][] mask, double inside){
+		double[] means = new double[energy.length];
+		int total = 0;
+		for(int m = 0; m < mask.length; m++){
+			for(int n = 0; n < mask[0].length; n++){
+				if(mask[m][n] == inside){
+					total++;
+					for(int f = 0; f < energy.length; f++)
+						means[f] += energy[f][m][n];
+				}
+			}
+		}
+		if(total > 0)
+			for(int f = 0; f < means.length; f++)
+				means[f] /= total;
+		return means;
+	}
+
+	/**
+	 * Returns the filter spectra for an image size, creating them at the first
+	 * call. Each filter is a Gaussian around the frequency 1 / wavelength in
+	 * its direction, so the response is complex and its magnitude is the local
+	 * energy.
+	 */
+	private synchronized double[][][] _getSpectra(int height, int width){
+		String key = height + "x" + width;
+		double[][][] filters = (double[][][])_spectra.get(key);
+		if(filters != null)
+			return filters;
+
+		filters = new double[getNumOfFilters()][height][width];
+		for(int f = 0; f < filters.length; f++){
+			double wavelength = getWavelength(f);
+			double theta = getOrientation(f);
+			double cos = Math.cos(theta);
+			double sin = Math.sin(theta);
+			double f0 = 1.0 / wavelength;
+			// Standard deviation in frequency of a spatial Gaussian of _sigmaRatio * wavelength
+			double sigmaF = 1.0 / (2 * Math.PI * _sigmaRatio * wavelength);
+			double scale = -0.5 / (sigmaF * sigmaF);
+			for(int m = 0; m < height; m++){
+				// Frequencies in cycles per pixel, negative in the upper half
+				double v = (m < (height + 1) / 2 ? m : m - height) / (double)height;
+				for(int n = 0; n < width; n++){
+					double u = (n < (width + 1) / 2 ? n : n - width) / (double)width;
+					double along = u * cos + v * sin - f0;
+					double across = -u * sin + v * cos;
+					filters[f][m][n] = Math.exp(scale * (along * along + across * across));
+				}
+			}
+		}
+		_spectra.put(key, filters);
+		return filters;
+	}
+}
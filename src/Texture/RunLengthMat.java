@@ -31,6 +31,7 @@ import org.medtoolbox.jviewbox.viewport.ViewportTool;
 import org.medtoolbox.jviewbox.viewport.annotation.DynamicAnnotationShape;
 
 import tools.GeometryContour;
+import tools.Metrics;
 //import tools.Matrix;
 import LevelSet.SkullStripper;
 
@@ -647,6 +648,8 @@ public class RunLengthMat extends ViewportTool{
 		    }
 		}*/
 		System.out.println("Using Time:" + (System.currentTimeMillis() - StartTime) + " ms");
+		Metrics.histogram("texture.runlength.us").record((System.currentTimeMillis() - StartTime) * 1000);
+		Metrics.counter("texture.runlength.computations").increment();
 	}
 	private static double LRHGE(int inside,int[][] OGLRmatrix,double ONr) {
 		// TODO Auto-generated method stub
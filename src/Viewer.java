@@ -37,7 +37,6 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
-import javax.imageio.stream.FileImageInputStream;
 
 import org.medtoolbox.jviewbox.imagesource.ImageReaderAdapter;
 import org.medtoolbox.jviewbox.viewport.ViewportGrid;
@@ -46,6 +45,7 @@ import org.medtoolbox.jviewbox.viewport.Viewport;
 import org.medtoolbox.jviewbox.viewport.annotation.StaticAnnotationString;
 
 import FileIO.FileReader;
+import FileIO.ReaderPool;
 import LevelSet.LevelSetTool;
 import LevelSet.SkullStripper;
 import tools.PanTool;
@@ -54,6 +54,7 @@ import tools.ZoomTool2;
 import tools.LayoutTool;
 import tools.ScrollTool;
 import tools.WriteDataTool;
+import tools.Metrics;
 
 
 /**
@@ -68,6 +69,12 @@ public class Viewer
 	 * Storing the input images from the original data.
 	 */
 	private Vector _allImages = new Vector(2);
+
+	/**
+	 * Readers of the input file, shared by the images in _allImages and the
+	 * slices in _skullstripper; closed when another file is read.
+	 */
+	private ReaderPool _readerPool;
 	
 	/**
 	 * Arranging the display layout of the input images.
@@ -217,54 +224,33 @@ public class Viewer
 	 */
 	public void _imageIO(File file) throws IOException
 	{
+		// The images of a previous file decode with its pool
+		if (_readerPool != null) {
+			_readerPool.close();
+			_readerPool = null;
+			_allImages.clear();
+			_skullstripper.clear();
+		}
 		try {
-			// 1st try: use FileImageInputStream as input
-			Object input = new FileImageInputStream(file);
-			Iterator it = ImageIO.getImageReaders(input);	    
-			// Found no reader at the 1st try?
-			if (!it.hasNext()) {
-			    // 2nd try: use the file itself as input
-			    input = file;
-			    it = ImageIO.getImageReaders(file);
-			    // Found no reader at the 2nd try?
-			    if (!it.hasNext()) {
-					// 3rd try: get a reader from the file name suffix
-					String fileName = file.getName();
-					int lastDot = fileName.lastIndexOf('.');
-					if (lastDot >= 0) {
-				    	String suffix = fileName.substring(lastDot + 1);
-				    	it = ImageIO.getImageReadersBySuffix(suffix);
-					}
-				}
-			}
-			// Found any reader at all?
-			if (it.hasNext()) {
-			    ImageReader reader = (ImageReader)it.next();
-			    reader.setInput(input, false);
-				// Get the width and height of the first image.
-				_width = reader.getWidth(0);
-				_height = reader.getHeight(0);
-			    // Wrap each image in the reader in an adapter for jViewBox
-			    int numImages = reader.getNumImages(true);
-			    for (int j = 0; j < numImages; j++) {
-			    //test
-					_allImages.add(new ImageReaderAdapter(reader, j));
-					SkullStripper slice = new SkullStripper(j);
-					slice.sliceInVolume=numImages;
-					//for skullstripper ImageIO using 
-					FileReader fileReader = new FileReader(file);
-					slice._imageReader=fileReader.getImageReader();
-                    _skullstripper.add(slice);
-			    }
-			}
-			
-			
-			
-			
-			// No reader available for the file
-			else {
-			    System.out.println("Unable to find an image decoder for " + file);
-			    System.out.println("Skipping the file");
+			// Independent readers of the file, so that the slices can be
+			// decoded concurrently instead of through one shared reader
+			ReaderPool pool = new ReaderPool(file);
+			_readerPool = pool;
+			ImageReader reader = pool.getImageReader();
+			// Get the width and height of the first image.
+			_width = reader.getWidth(0);
+			_height = reader.getHeight(0);
+			// Wrap each image of the pool in an adapter for jViewBox
+			int numImages = pool.getNumImages();
+			for (int j = 0; j < numImages; j++) {
+				_allImages.add(pool.createImageSource(j));
+				SkullStripper slice = new SkullStripper(j);
+				slice.sliceInVolume=numImages;
+				//for skullstripper ImageIO using: the metadata through
+				//the first reader, the volume with borrowed readers
+				slice._imageReader=reader;
+				slice._readerPool=pool;
+				_skullstripper.add(slice);
 			}
 		}
 		catch (IOException e) {
@@ -314,8 +300,10 @@ public class Viewer
 			Path2.replaceAll("\\\\", "/");
 			System.out.println("path is "+Path);
 			System.out.println("path2 is "+Path2);
+			long decodeStart = System.nanoTime();
 			BufferedImage origImage = ImageIO.read(new File(Path2));
 			BufferedImage maskimage = ImageIO.read(new File(Path));
+			Metrics.histogram("texture.images.read.us").recordSince(decodeStart);
 			// Fill in the double array with the original data
 			_height = origImage.getHeight();
 			_width = origImage.getWidth();
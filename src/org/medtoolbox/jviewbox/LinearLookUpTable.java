@@ -10,6 +10,7 @@ See README.license for license notices.
 package org.medtoolbox.jviewbox;
 
 import java.awt.image.ByteLookupTable;
+import java.util.Arrays;
 
 /**
  * LookUpTable which implements a linear look up table (LUT) to map a
@@ -52,6 +53,13 @@ import java.awt.image.ByteLookupTable;
  * <li> The only restriction on <code>Window</code> and <code>Level</code>
  *	values is <code>Window >= 0</code>.
  * </ul>
+ * <p>
+ * The table is rebuilt incrementally by {@link #setWindowLevel}: only the
+ * linear ramp and the entries which move between the two constant regions
+ * since the previous call are rewritten, so the cost of a window/level change
+ * is proportional to the window rather than to the table size. As a
+ * consequence, direct modifications to the array returned by
+ * {@link #getArray} are not guaranteed to be overwritten by the next call.
  *
  * @version January 8, 2004
  */
@@ -83,6 +91,15 @@ public class LinearLookUpTable implements LookUpTable
     /** ByteLookupTable to return in getByteLookupTable(). */
     private ByteLookupTable _blut;
 
+    /** First table entry on the ramp when the table was last filled. */
+    private int _rampStart;
+
+    /** Table entry after the ramp when the table was last filled. */
+    private int _rampEnd;
+
+    /** Whether the table was last filled inverted. */
+    private boolean _tableInverted;
+
     // ----------------------
     // Constructor and cloner
     // ----------------------
@@ -206,11 +223,6 @@ public class LinearLookUpTable implements LookUpTable
      */
     public void setWindowLevel(int window, int level)
     {
-	// Allocate memory for the table on first call
-	if (_table == null) {
-	    _table = new byte[_tableSize];
-	}
-
 	// Check bounds on new window and level fractional values
 	_window = (window < 0) ? 0 : window;
 	_level = level;
@@ -220,6 +232,7 @@ public class LinearLookUpTable implements LookUpTable
 	double intercept = 0.0;
 	if (_window > 0) {
 	    slope = 255.0 / _window;
+
 	    // Mathematically, the intercept should be 127.5
 	    // However, 128.0 produces a rounding effect because later the
 	    // floating-point results are cast, i.e., floored to byte values,
@@ -227,36 +240,56 @@ public class LinearLookUpTable implements LookUpTable
 	    intercept = 128.0 - 255.0 * (double)_level / _window;
 	}
 
-	// Fill the LUT with the mapped values
+	// Entries up to start map to 0, entries from end on map to 255, and
+	// entries in between are on the linear ramp. The ramp is the table
+	// range [rampStart, rampEnd).
 	int start = _level - _window / 2;
 	int end   = _level + _window / 2;
-	for (int pixel = 0; pixel < _tableSize; pixel++) {
-
-	    // Pixel is before the linear ramp
-	    if (pixel <= start) {
-		_table[pixel] = 0;
+	int rampStart = _clamp((long)start + 1);
+	int rampEnd = Math.max(rampStart, _clamp(end));
+
+	// Bitwise inversion is equivalent to subtracting from 255
+	byte low = _isInverted ? (byte)255 : 0;
+	byte high = (byte)~low;
+
+	// Allocate memory for the table on first call and fill it entirely,
+	// as well as when the inversion has changed
+	if (_table == null || _tableInverted != _isInverted) {
+	    if (_table == null) {
+		_table = new byte[_tableSize];
 	    }
+	    Arrays.fill(_table, 0, rampStart, low);
+	    Arrays.fill(_table, rampEnd, _tableSize, high);
+	}
 
-	    // Pixel is after the linear ramp
-	    else if (pixel >= end) {
-		_table[pixel] = (byte)255;
+	// Otherwise, only rewrite the entries which were on the ramp or in the
+	// other constant region last time
+	else {
+	    if (_rampStart < rampStart) {
+		Arrays.fill(_table, _rampStart, rampStart, low);
 	    }
-
-	    // Pixel is on the linear ramp
-	    else {
-		// Casting from double to byte is done by flooring
-		// We already adjust the intercept by +0.5 for rounding effect
-		_table[pixel] = (byte)(slope * pixel + intercept);
+	    if (rampEnd < _rampEnd) {
+		Arrays.fill(_table, rampEnd, _rampEnd, high);
 	    }
 	}
 
-	// Invert the pixel if required
+	// Fill the linear ramp
+	// Casting from double to byte is done by flooring
+	// We already adjust the intercept by +0.5 for rounding effect
 	if (_isInverted) {
-	    for (int i = 0; i < _tableSize; i++) {
-		// Bitwise inversion is equivalent to subtracting from 255
-		_table[i] = (byte)(~_table[i]);
+	    for (int pixel = rampStart; pixel < rampEnd; pixel++) {
+		_table[pixel] = (byte)~(int)(slope * pixel + intercept);
+	    }
+	}
+	else {
+	    for (int pixel = rampStart; pixel < rampEnd; pixel++) {
+		_table[pixel] = (byte)(slope * pixel + intercept);
 	    }
 	}
+
+	_rampStart = rampStart;
+	_rampEnd = rampEnd;
+	_tableInverted = _isInverted;
     }
 
     /**
@@ -329,4 +362,20 @@ public class LinearLookUpTable implements LookUpTable
 	_table = null;
 	_blut = null;
     }
+
+    // ---------------
+    // Private methods
+    // ---------------
+
+    /** Clamps a table index to <code>[0, size]</code>. */
+    private int _clamp(long index)
+    {
+	if (index < 0) {
+	    return 0;
+	}
+	if (index > _tableSize) {
+	    return _tableSize;
+	}
+	return (int)index;
+    }
 }
@@ -29,7 +29,9 @@ import org.medtoolbox.jviewbox.ImageRenderingHintsFactory;
  * This class provides a convenient implementation of <code>ImageSource</code>
  * by adapting an existing <code>ImageReader</code>. The ImageReader instance
  * used by an adapter instance must be configured with an input source which
- * allows the reading of the same image repetitively.
+ * allows the reading of the same image repetitively. Several adapters may
+ * share one ImageReader; calls to the reader are synchronized on the reader,
+ * since it is not thread safe.
  *
  * @version January 8, 2004
  */
@@ -189,7 +191,9 @@ public class ImageReaderAdapter extends AbstractImageSource
     {
 	// Lazy initialization
 	if (_imageWidth < 0) {
-	    _imageWidth = _imageReader.getWidth(_imageIndex);
+	    synchronized (_imageReader) {
+		_imageWidth = _imageReader.getWidth(_imageIndex);
+	    }
 	}
 
 	return _imageWidth;
@@ -210,7 +214,9 @@ public class ImageReaderAdapter extends AbstractImageSource
     {
 	// Lazy initialization
 	if (_imageHeight < 0) {
-	    _imageHeight = _imageReader.getHeight(_imageIndex);
+	    synchronized (_imageReader) {
+		_imageHeight = _imageReader.getHeight(_imageIndex);
+	    }
 	}
 
 	return _imageHeight;
@@ -249,8 +255,10 @@ public class ImageReaderAdapter extends AbstractImageSource
 	}
 	// Otherwise, use the first from ImageReader.getImageTypes(),
 	// which is supposed to be the one used by the reader in this case.
-	return (ImageTypeSpecifier)
-	    _imageReader.getImageTypes(_imageIndex).next();
+	synchronized (_imageReader) {
+	    return (ImageTypeSpecifier)
+		_imageReader.getImageTypes(_imageIndex).next();
+	}
     }
 
     /**
@@ -310,8 +318,9 @@ public class ImageReaderAdapter extends AbstractImageSource
      */
     public synchronized BufferedImage getBufferedImage() throws IOException
     {
-
-	return _imageReader.read(_imageIndex, _imageReadParam);
+	synchronized (_imageReader) {
+	    return _imageReader.read(_imageIndex, _imageReadParam);
+	}
     }
 
     /**
@@ -363,7 +372,7 @@ public class ImageReaderAdapter extends AbstractImageSource
 	throws IOException
     {
 	// Lazy initialization
-	if (_renderingHints == null) {
+	if (_renderingHints == null) synchronized (_imageReader) {
 	    // Try image metadata first, followed by stream metadata
 	    // for one that is not null and supports standard metadata format
 	    IIOMetadata metadata;
@@ -16,6 +16,11 @@ import java.awt.Image;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.SwingUtilities;
 
 import org.medtoolbox.jviewbox.ImageRenderingHints;
 import org.medtoolbox.jviewbox.imagesource.ImageSource;
@@ -38,6 +43,9 @@ public class ImageSourceViewport extends Viewport
     /** Default height to use if image height is unavailable. */
     private static final int DEFAULT_HEIGHT = 512;
 
+    /** Text message to show while image is being loaded asynchronously. */
+    private static final String LOADING_MESSAGE = "Loading...";
+
     // --------------
     // Private fields
     // --------------
@@ -54,6 +62,24 @@ public class ImageSourceViewport extends Viewport
     /** IOException occurred when loading the image. */
     private volatile IOException _ioException;
 
+    /** Whether to load pixel data in the background while painting. */
+    private static boolean _asynchronousLoading = false;
+
+    /** Executor shared by all ImageSourceViewports for background loading. */
+    private static ExecutorService _loadingExecutor;
+
+    /** Whether a background load of the image is in progress. */
+    private boolean _loading = false;
+
+    /**
+     * Number of times the cache has been flushed. A background load started
+     * before a flush does not store its (stale) result.
+     */
+    private int _loadGeneration = 0;
+
+    /** ViewportCluster which last painted this Viewport. */
+    private WeakReference _viewportCluster;
+
     // -----------
     // Constructor
     // -----------
@@ -225,6 +251,68 @@ public class ImageSourceViewport extends Viewport
 	return _imageSource;
     }
 
+    /**
+     * Sets whether to load the pixel data in the background when this
+     * Viewport is painted before the image is available. This setting applies
+     * to <b>ALL</b> <code>ImageSourceViewport</code>s. The default is not.
+     * <p>
+     * With this option enabled, {@link #paint} does not stall on an uncached
+     * image. It paints a "Loading..." placeholder instead and hands the
+     * loading over to a shared pool of background threads. Once the image
+     * is loaded, the <code>ViewportCluster</code> which last painted this
+     * Viewport is asked to repaint just this Viewport through
+     * {@link ViewportCluster#repaint(Viewport)}.
+     * <p>
+     * {@link #getBufferedImage} remains synchronous regardless of this
+     * setting.
+     *
+     * @param asynchronousLoading <code>true</code> to load the pixel data in
+     *				  the background; <code>false</code> to load
+     *				  it on the painting thread.
+     *
+     * @see #isAsynchronousLoadingEnabled
+     *
+     * @since 2.0b
+     */
+    public static void setAsynchronousLoadingEnabled(boolean
+						     asynchronousLoading)
+    {
+	_asynchronousLoading = asynchronousLoading;
+    }
+
+    /**
+     * Returns whether the pixel data is loaded in the background when this
+     * Viewport is painted before the image is available. This setting applies
+     * to <b>ALL</b> <code>ImageSourceViewport</code>s.
+     *
+     * @return <code>true</code> if the pixel data is loaded in the
+     *	       background; <code>false</code> if it is loaded on the painting
+     *	       thread.
+     *
+     * @see #setAsynchronousLoadingEnabled
+     *
+     * @since 2.0b
+     */
+    public static boolean isAsynchronousLoadingEnabled()
+    {
+	return _asynchronousLoading;
+    }
+
+    /**
+     * Returns whether the image is currently being loaded in the background.
+     *
+     * @return <code>true</code> if the image is being loaded in the
+     *	       background; <code>false</code> if not.
+     *
+     * @see #setAsynchronousLoadingEnabled
+     *
+     * @since 2.0b
+     */
+    public synchronized boolean isLoading()
+    {
+	return _loading;
+    }
+
     /**
      * Flushes all the resources being used by the Viewport. This includes
      * any cached data for rendering to the screen and any system resources
@@ -249,6 +337,10 @@ public class ImageSourceViewport extends Viewport
 	    _bufferedImage = null;
 	}
 	_ioException = null;
+
+	// Discard the result of any background load in progress
+	_loadGeneration++;
+	_loading = false;
     }
 
     /** 
@@ -260,7 +352,9 @@ public class ImageSourceViewport extends Viewport
      * As of the current implementation, this method will load the pixel data
      * from the <code>ImageSource</code> if the data has not been loaded or
      * the cache has been flushed. Pixel data loading is synchronous, which
-     * means this method stalls as long as it takes to finish loading.
+     * means this method stalls as long as it takes to finish loading, unless
+     * {@link #setAsynchronousLoadingEnabled asynchronous loading} is enabled,
+     * in which case a placeholder is painted until the data is available.
      * <p>
      * If pixel loading fails, this method shows an error message in the
      * Viewport.
@@ -271,11 +365,18 @@ public class ImageSourceViewport extends Viewport
      */
     public synchronized void paint(Graphics2D g2d, boolean toEraseBackground)
     {
-	// Make sure the image is loaded
-	BufferedImage bi = getBufferedImage();
+	// Make sure the image is loaded, or is being loaded in the background
+	boolean available;
+	if (isAsynchronousLoadingEnabled()) {
+	    available = _isDisplayCached() ||
+		_getBufferedImageAsynchronously() != null;
+	}
+	else {
+	    available = getBufferedImage() != null;
+	}
 
 	// Is image available?
-	if (bi != null) {
+	if (available) {
 	    super.paint(g2d, toEraseBackground);
 	}
 
@@ -288,16 +389,16 @@ public class ImageSourceViewport extends Viewport
 	    }
 
 	    // Is message available?
-	    if (_viewportMessage != null) {
+	    String message = _loading ? LOADING_MESSAGE : _viewportMessage;
+	    if (message != null) {
 		// Center the text message in this Viewport
 		int vpCenterX = getX() + getWidth() / 2;
 		int vpCenterY = getY() + getHeight() / 2;
 		FontMetrics metric = g2d.getFontMetrics();
-		Rectangle2D bounds = metric.getStringBounds(_viewportMessage,
-							    g2d);
+		Rectangle2D bounds = metric.getStringBounds(message, g2d);
 		Color c = g2d.getColor();
 		g2d.setColor(Color.white);
-		g2d.drawString(_viewportMessage,
+		g2d.drawString(message,
 			       vpCenterX - (int)bounds.getCenterX(),
 			       vpCenterY - (int)bounds.getCenterY());
 		g2d.setColor(c);
@@ -314,6 +415,24 @@ public class ImageSourceViewport extends Viewport
     // Protected methods
     // -----------------
 
+    /**
+     * Returns whether the data needed to display the image is cached
+     * elsewhere so that the pixel data need not be loaded from the
+     * <code>ImageSource</code> before painting. Used only when
+     * {@link #setAsynchronousLoadingEnabled asynchronous loading} is enabled.
+     * This implementation always returns <code>false</code>.
+     *
+     * @return <code>true</code> if the image can be painted without the
+     *	       pixel data from the <code>ImageSource</code>;
+     *	       <code>false</code> if not.
+     *
+     * @since 2.0b
+     */
+    protected boolean _isDisplayCached()
+    {
+	return false;
+    }
+
     // Image dimension
 
     /**
@@ -343,4 +462,151 @@ public class ImageSourceViewport extends Viewport
 	    return DEFAULT_HEIGHT;
 	}
     }
+
+    // -----------------------
+    // Package-private methods
+    // -----------------------
+
+    /**
+     * Records the <code>ViewportCluster</code> in which this Viewport is
+     * displayed, so that a background load can ask it for a repaint.
+     *
+     * @param viewportCluster <code>ViewportCluster</code> painting this
+     *			      Viewport.
+     */
+    synchronized void _setViewportCluster(ViewportCluster viewportCluster)
+    {
+	if (_viewportCluster == null ||
+	    _viewportCluster.get() != viewportCluster) {
+	    _viewportCluster = new WeakReference(viewportCluster);
+	}
+    }
+
+    // ---------------
+    // Private methods
+    // ---------------
+
+    /**
+     * Returns the cached <code>BufferedImage</code> if available; otherwise
+     * schedules a background load (if not already scheduled) and returns
+     * <code>null</code> immediately.
+     *
+     * @return Cached <code>BufferedImage</code>; <code>null</code> if it is
+     *	       not yet available.
+     */
+    private synchronized BufferedImage _getBufferedImageAsynchronously()
+    {
+	if (_bufferedImage == null && _ioException == null && !_loading) {
+	    _loading = true;
+	    _getLoadingExecutor().execute(new Loader(_loadGeneration));
+	}
+
+	return _bufferedImage;
+    }
+
+    /**
+     * Stores the result of a background load and asks the
+     * <code>ViewportCluster</code> to repaint this Viewport.
+     *
+     * @param generation Flush generation in which the load was started.
+     * @param bi Loaded <code>BufferedImage</code>; <code>null</code> if
+     *		 loading failed.
+     * @param e <code>IOException</code> occurred when loading;
+     *		<code>null</code> if none.
+     */
+    private void _loadingDone(int generation, BufferedImage bi, IOException e)
+    {
+	final ViewportCluster vpc;
+	synchronized (this) {
+	    // Discard stale results
+	    if (generation != _loadGeneration) {
+		if (bi != null) {
+		    bi.flush();
+		}
+		return;
+	    }
+
+	    _loading = false;
+	    if (e != null) {
+		_ioException = e;
+		_viewportMessage = "I/O Error, " + e;
+	    }
+	    else if (_bufferedImage == null) {
+		_bufferedImage = bi;
+	    }
+
+	    vpc = _viewportCluster != null ?
+		(ViewportCluster)_viewportCluster.get() : null;
+	}
+
+	// Repaint this Viewport on the event dispatching thread
+	if (vpc != null) {
+	    SwingUtilities.invokeLater(new Runnable() {
+		    public void run()
+		    {
+			vpc.repaint(ImageSourceViewport.this);
+		    }
+		});
+	}
+    }
+
+    /**
+     * Returns the executor shared by all ImageSourceViewports for background
+     * loading, creating it if necessary.
+     *
+     * @return Executor for background loading.
+     */
+    private static synchronized ExecutorService _getLoadingExecutor()
+    {
+	if (_loadingExecutor == null) {
+	    int n = Math.max(1, Runtime.getRuntime().availableProcessors());
+	    _loadingExecutor =
+		Executors.newFixedThreadPool(n, new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+			    Thread t = new Thread(r, "ImageSourceViewport " +
+						  "Loader");
+			    t.setDaemon(true);
+			    t.setPriority(Thread.NORM_PRIORITY - 1);
+			    return t;
+			}
+		    });
+	}
+
+	return _loadingExecutor;
+    }
+
+    // --------------------
+    // Private member class
+    // --------------------
+
+    /** Loads the image from the ImageSource in the background. */
+    private class Loader implements Runnable
+    {
+	/** Flush generation in which this load was started. */
+	private final int _generation;
+
+	/** Constructs a Loader for the specified flush generation. */
+	Loader(int generation)
+	{
+	    _generation = generation;
+	}
+
+	/** Loads the image without holding the Viewport's lock. */
+	public void run()
+	{
+	    BufferedImage bi = null;
+	    IOException ioe = null;
+	    try {
+		bi = _imageSource.getBufferedImage();
+	    }
+	    catch (IOException e) {
+		ioe = e;
+	    }
+	    catch (RuntimeException e) {
+		ioe = new IOException(e.toString());
+	    }
+	    _loadingDone(_generation, bi, ioe);
+	}
+    }
 }
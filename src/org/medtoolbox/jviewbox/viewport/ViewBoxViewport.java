@@ -28,6 +28,7 @@ import org.medtoolbox.jviewbox.viewport.engine.AffineTransformEngine;
 import org.medtoolbox.jviewbox.viewport.engine.BugFix4192198AffineTransformEngine;
 import org.medtoolbox.jviewbox.viewport.engine.LookUpEngine;
 import org.medtoolbox.jviewbox.viewport.engine.SourceOptimizeEngine;
+import org.medtoolbox.jviewbox.viewport.engine.TransformLookUpEngine;
 
 /**
  * ImageSourceViewport with accelarated image rendering and table look-up
@@ -125,6 +126,9 @@ public class ViewBoxViewport extends ImageSourceViewport
     /** Cache of affine transformed raster. */
     private WritableRaster _cachedTransformedRaster;
 
+    /** Previous result of table look-up, kept for buffer reuse. */
+    private BufferedImage _cachedLookUpResult;
+
 
     /** Previous Viewport size. */
     private Dimension _previousSize;
@@ -256,6 +260,7 @@ public class ViewBoxViewport extends ImageSourceViewport
 	    _cachedOptimizedSource = null;
 	}
 	_cachedTransformedRaster = null;
+	_cachedLookUpResult = null;
     }
 
     /**
@@ -272,6 +277,7 @@ public class ViewBoxViewport extends ImageSourceViewport
 	    _cachedOptimizedSource = null;
 	}
 	_cachedTransformedRaster = null;
+	_cachedLookUpResult = null;
     }
 
     /**
@@ -398,6 +404,21 @@ public class ViewBoxViewport extends ImageSourceViewport
     // Protected methods
     // -----------------
 
+    /**
+     * Returns whether the optimized source image is cached, in which case the
+     * pixel data need not be loaded from the <code>ImageSource</code> before
+     * painting.
+     *
+     * @return <code>true</code> if the optimized source image is cached;
+     *	       <code>false</code> if not.
+     *
+     * @since 2.0b
+     */
+    protected synchronized boolean _isDisplayCached()
+    {
+	return _cachedOptimizedSource != null;
+    }
+
     // Paint methods
 
     /**
@@ -432,6 +453,13 @@ public class ViewBoxViewport extends ImageSourceViewport
      * <code>RenderingHints</code>, current implementation of
      * <code>AffineTransformEngine</code> can guarantee the application of
      * bilinear interpolation.
+     * <p>
+     * If the <code>LookUpEngine</code> is also a
+     * {@link TransformLookUpEngine} and a look-up table is available, the
+     * 2nd and 3rd steps are fused into a single call to
+     * <code>TransformLookUpEngine.transformAndFilter</code>, which writes
+     * directly into the reused output image without an intermediate
+     * transformed raster.
      * 
      * @param g2d Graphics context to paint in.
      *
@@ -483,40 +511,65 @@ public class ViewBoxViewport extends ImageSourceViewport
 	    }
 	}
 
-	// 2nd stage of the pipeline: affine transformation
-	// Executed only if it's the first time, if pipeline is dirty,
-	// if the transform has changed, or if the Viewport's size has changed
-
-	// Get Image Transform and Viewport size
+	// Get Image Transform, Viewport size and LUT
 	AffineTransform it = getImageTransform();
 	Dimension vpSize = getSize();
+	LookUpTable lut = getLut();
+	BufferedImage lookupResult;
 
-	if (pipelineIsDirty || _cachedTransformedRaster == null ||
-	    !vpSize.equals(_previousSize) ||
-	    !it.equals(_previousImageTransform)) {
-	    
-	    // Mark pipeline dirty
-	    pipelineIsDirty = true;
-
-	    // Apply affine transform
+	// 2nd and 3rd stages fused: affine transformation and table look-up
+	// Always executed if supported by the engine and a LUT is available
+	if (lut != null && _lookUpEngine instanceof TransformLookUpEngine) {
 	    WritableRaster wr = _cachedOptimizedSource.getRaster();
 	    ColorModel cm = _cachedOptimizedSource.getColorModel();
-	    _cachedTransformedRaster =
-		_affineTransformEngine.transform(wr, cm, it, vpSize,
-						 _cachedTransformedRaster,
-						 isPreBufferClearingEnabled(),
-						 getInterpolationMode());
-
-	    // Keep copies of previous inputs
-	    _previousSize = (Dimension)vpSize.clone();
-	    _previousImageTransform = (AffineTransform)it.clone();
+	    lookupResult = ((TransformLookUpEngine)_lookUpEngine).
+		transformAndFilter(wr, cm, it, vpSize, lut, _cachedLookUpResult,
+				   getInterpolationMode());
+	    _cachedLookUpResult = lookupResult;
+
+	    // The transformed raster cache is not used in this mode
+	    _cachedTransformedRaster = null;
 	}
 
-	// 3rd stage of the pipeline: table look-up
-	// Always executed
-	BufferedImage lookupResult =
-	    _lookUpEngine.filter(_cachedOptimizedSource.getColorModel(),
-				 _cachedTransformedRaster, getLut(), null);
+	else {
+	    // 2nd stage of the pipeline: affine transformation
+	    // Executed only if it's the first time, if pipeline is dirty,
+	    // if the transform has changed, or if the Viewport's size has
+	    // changed
+	    if (pipelineIsDirty || _cachedTransformedRaster == null ||
+		!vpSize.equals(_previousSize) ||
+		!it.equals(_previousImageTransform)) {
+
+		// Mark pipeline dirty
+		pipelineIsDirty = true;
+
+		// Apply affine transform
+		WritableRaster wr = _cachedOptimizedSource.getRaster();
+		ColorModel cm = _cachedOptimizedSource.getColorModel();
+		_cachedTransformedRaster =
+		    _affineTransformEngine.transform(wr, cm, it, vpSize,
+						     _cachedTransformedRaster,
+						     isPreBufferClearingEnabled(),
+						     getInterpolationMode());
+
+		// Keep copies of previous inputs
+		_previousSize = (Dimension)vpSize.clone();
+		_previousImageTransform = (AffineTransform)it.clone();
+	    }
+
+	    // 3rd stage of the pipeline: table look-up
+	    // Always executed
+	    lookupResult =
+		_lookUpEngine.filter(_cachedOptimizedSource.getColorModel(),
+				     _cachedTransformedRaster, lut,
+				     _cachedLookUpResult);
+
+	    // Keep the result for reuse only if it is not merely a wrapper of
+	    // the transformed raster, which must not be written to
+	    _cachedLookUpResult =
+		(lookupResult.getRaster() != _cachedTransformedRaster) ?
+		lookupResult : null;
+	}
 
 	// Set up g2d's clip before drawing the image
 	Shape origClip = g2d.getClip();
@@ -17,6 +17,8 @@ import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
@@ -28,10 +30,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Vector;
 import javax.swing.JComponent;
+import javax.swing.Timer;
 
 /**
  * Class which manages the Viewports of a group of displayed images. It
@@ -93,6 +97,21 @@ public abstract class ViewportCluster extends JComponent
     /** Background color of this ViewportCluster. */
     private Color _background = Color.black;
 
+    /**
+     * Maximum rate, in frames per second, at which repaint(Viewport) renders;
+     * 0 for no limit.
+     */
+    private double _maximumFrameRate = 0.0;
+
+    /** Viewports waiting to be repainted by the repaint timer. */
+    private final LinkedHashSet _dirtyViewports = new LinkedHashSet();
+
+    /** Timer which repaints the dirty Viewports. */
+    private Timer _repaintTimer;
+
+    /** Time in milliseconds at which dirty Viewports were last repainted. */
+    private long _lastFrameTime = 0;
+
 
     /**
      * A MouseListener which acquires input focus when the Component is
@@ -406,6 +425,67 @@ public abstract class ViewportCluster extends JComponent
 	return _bypassingRepaintManager;
     }
 
+    /**
+     * Sets the maximum rate at which {@link #repaint(Viewport)} renders
+     * Viewports. The default is 0, i.e., no limit.
+     * <p>
+     * With a limit set, <code>repaint(Viewport)</code> only marks the
+     * Viewport dirty and returns. Dirty Viewports are repainted together on
+     * the event dispatching thread at most once per frame period, each in its
+     * latest state; any number of requests for the same Viewport within a
+     * period result in a single repaint. This keeps the event dispatching
+     * thread from being saturated by tools which repaint on every mouse drag
+     * event and by computations which repaint on every iteration. It also
+     * makes <code>repaint(Viewport)</code> thread-safe when
+     * <code>RepaintManager</code> is bypassed.
+     *
+     * @param framesPerSecond Maximum number of times per second dirty
+     *			      Viewports are repainted; 0 for no limit, i.e.,
+     *			      to repaint on every request.
+     *
+     * @throws IllegalArgumentException if <code>framesPerSecond</code> is
+     *	       negative.
+     *
+     * @see #getMaximumFrameRate
+     *
+     * @since 2.0b
+     */
+    public void setMaximumFrameRate(double framesPerSecond)
+    {
+	if (framesPerSecond < 0.0) {
+	    throw new IllegalArgumentException("framesPerSecond can not be " +
+					       "negative.");
+	}
+
+	// Flush any pending repaints with the old setting
+	Viewport[] pending;
+	synchronized (_dirtyViewports) {
+	    _maximumFrameRate = framesPerSecond;
+	    pending = _takeDirtyViewports();
+	}
+	for (int i = 0; i < pending.length; i++) {
+	    _repaintViewport(pending[i]);
+	}
+    }
+
+    /**
+     * Returns the maximum rate at which {@link #repaint(Viewport)} renders
+     * Viewports.
+     *
+     * @return Maximum number of times per second dirty Viewports are
+     *	       repainted; 0 if there is no limit.
+     *
+     * @see #setMaximumFrameRate
+     *
+     * @since 2.0b
+     */
+    public double getMaximumFrameRate()
+    {
+	synchronized (_dirtyViewports) {
+	    return _maximumFrameRate;
+	}
+    }
+
     // -------------
     // Paint methods
     // -------------
@@ -456,6 +536,9 @@ public abstract class ViewportCluster extends JComponent
 				 window.width, window.height);
 
 		    vp.setBounds(window);
+		    if (vp instanceof ImageSourceViewport) {
+			((ImageSourceViewport)vp)._setViewportCluster(this);
+		    }
 		    vp.paint(g2d, false);
 
 		    // Restore the clip bounds
@@ -470,10 +553,42 @@ public abstract class ViewportCluster extends JComponent
 
     /**
      * Repaints only the specified Viewport inside the ViewportCluster.
+     * <p>
+     * If a maximum frame rate is set, the Viewport is only marked dirty and
+     * is repainted later together with other dirty Viewports.
      *
      * @param viewport Viewport to repaint inside the ViewportCluster.
+     *
+     * @see #setMaximumFrameRate
      */
     public void repaint(Viewport viewport)
+    {
+	synchronized (_dirtyViewports) {
+	    if (_maximumFrameRate > 0.0) {
+		_dirtyViewports.add(viewport);
+		_scheduleRepaint();
+		return;
+	    }
+	}
+
+	_repaintViewport(viewport);
+    }
+
+
+    // -----------------
+    // Protected methods
+    // -----------------
+
+    /**
+     * Repaints the specified Viewport right away (or through
+     * <code>RepaintManager</code> if it is not bypassed), regardless of the
+     * maximum frame rate.
+     *
+     * @param viewport Viewport to repaint inside the ViewportCluster.
+     *
+     * @since 2.0b
+     */
+    protected void _repaintViewport(Viewport viewport)
     {
 	// Determine the window of the Viewport
 	Rectangle window = _getWindowForViewport(viewport);
@@ -484,6 +599,9 @@ public abstract class ViewportCluster extends JComponent
 	    if (isBypassingRepaintManager()) {
 		Graphics2D g2d = (Graphics2D)getGraphics();
 		g2d.clipRect(window.x, window.y, window.width, window.height);
+		if (viewport instanceof ImageSourceViewport) {
+		    ((ImageSourceViewport)viewport)._setViewportCluster(this);
+		}
 		viewport.paint(g2d, true);
 		g2d.dispose();
 	    }
@@ -495,11 +613,6 @@ public abstract class ViewportCluster extends JComponent
 	}
     }
 
-
-    // -----------------
-    // Protected methods
-    // -----------------
-
     /**
      * Returns the rectangles which define the Viewport Windows in a
      * <code>List</code>. The returned list and all elements in the list
@@ -590,6 +703,56 @@ public abstract class ViewportCluster extends JComponent
 	return r;
     }
 
+    // ---------------
+    // Private methods
+    // ---------------
+
+    /**
+     * Starts the repaint timer unless it is already running, delaying the
+     * repaint until one frame period after the previous one. Must be called
+     * while holding the lock on <code>_dirtyViewports</code>.
+     */
+    private void _scheduleRepaint()
+    {
+	if (_repaintTimer == null) {
+	    _repaintTimer = new Timer(0, new ActionListener() {
+		    public void actionPerformed(ActionEvent e)
+		    {
+			Viewport[] dirty;
+			synchronized (_dirtyViewports) {
+			    _lastFrameTime = System.currentTimeMillis();
+			    dirty = _takeDirtyViewports();
+			}
+			for (int i = 0; i < dirty.length; i++) {
+			    _repaintViewport(dirty[i]);
+			}
+		    }
+		});
+	    _repaintTimer.setRepeats(false);
+	    _repaintTimer.setCoalesce(true);
+	}
+
+	if (!_repaintTimer.isRunning()) {
+	    long period = (long)(1000.0 / _maximumFrameRate);
+	    long delay = _lastFrameTime + period - System.currentTimeMillis();
+	    _repaintTimer.setInitialDelay((int)Math.max(0, Math.min(delay,
+								    period)));
+	    _repaintTimer.start();
+	}
+    }
+
+    /**
+     * Returns and clears the dirty Viewports. Must be called while holding
+     * the lock on <code>_dirtyViewports</code>.
+     */
+    private Viewport[] _takeDirtyViewports()
+    {
+	Viewport[] dirty = (Viewport[])_dirtyViewports.toArray(
+	    new Viewport[_dirtyViewports.size()]);
+	_dirtyViewports.clear();
+	return dirty;
+    }
+
     // --------------------
     // Private member class
     // --------------------
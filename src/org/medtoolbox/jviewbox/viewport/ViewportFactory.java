@@ -32,10 +32,14 @@ import org.medtoolbox.jviewbox.viewport.engine.BugFix4192198SourceOptimizeEngine
 import org.medtoolbox.jviewbox.viewport.engine.BugFix4554571AffineTransformEngine;
 import org.medtoolbox.jviewbox.viewport.engine.BugFix4554571LookUpEngine;
 import org.medtoolbox.jviewbox.viewport.engine.DefaultAffineTransformEngine;
+import org.medtoolbox.jviewbox.viewport.engine.FusedGrayLookUpEngine;
 import org.medtoolbox.jviewbox.viewport.engine.GrayLookUpEngine;
 import org.medtoolbox.jviewbox.viewport.engine.LookUpEngine;
 import org.medtoolbox.jviewbox.viewport.engine.NullLookUpEngine;
 import org.medtoolbox.jviewbox.viewport.engine.NullSourceOptimizeEngine;
+import org.medtoolbox.jviewbox.viewport.engine.ParallelAffineTransformEngine;
+import org.medtoolbox.jviewbox.viewport.engine.ParallelFusedGrayLookUpEngine;
+import org.medtoolbox.jviewbox.viewport.engine.ParallelGrayLookUpEngine;
 import org.medtoolbox.jviewbox.viewport.engine.RGBSourceOptimizeEngine;
 import org.medtoolbox.jviewbox.viewport.engine.SourceOptimizeEngine;
 
@@ -53,6 +57,12 @@ public class ViewportFactory
     /** Optimal RGB types for RGBSourceOptimizeEngines. */
     private static int[] _optimalRGBTypes;
 
+    /** Whether to use fused transform and look-up engines for grayscale. */
+    private static boolean _fusedGrayscaleEnabled = true;
+
+    /** Whether to use engines which render strips in parallel. */
+    private static boolean _parallelRenderingEnabled = false;
+
     // -----------
     // Constructor
     // -----------
@@ -386,6 +396,90 @@ public class ViewportFactory
 	return (int[])_optimalRGBTypes.clone();
     }
 
+    /**
+     * Sets whether short (16-bit) grayscale <code>ViewBoxViewport</code>s
+     * created afterwards use a {@link FusedGrayLookUpEngine}, which performs
+     * affine transformation and table look-up in a single pass, instead of a
+     * separate <code>AffineTransformEngine</code> and
+     * <code>GrayLookUpEngine</code>. The default is <code>true</code>.
+     * <p>
+     * The fused engine is not used on JVMs with the Java 2D bugs #4192198 or
+     * #4554571, for which the existing work-around engines are kept.
+     *
+     * @param fusedGrayscaleEnabled <code>true</code> to use fused engines for
+     *				    short grayscale images; <code>false</code> to
+     *				    use separate engines.
+     *
+     * @see #isFusedGrayscaleEnabled
+     * @see org.medtoolbox.jviewbox.viewport.engine.FusedGrayLookUpEngine
+     *
+     * @since 2.0b
+     */
+    public static void setFusedGrayscaleEnabled(boolean fusedGrayscaleEnabled)
+    {
+	_fusedGrayscaleEnabled = fusedGrayscaleEnabled;
+    }
+
+    /**
+     * Returns whether short (16-bit) grayscale <code>ViewBoxViewport</code>s
+     * are created with a {@link FusedGrayLookUpEngine}.
+     *
+     * @return <code>true</code> if fused engines are used for short grayscale
+     *	       images; <code>false</code> if not.
+     *
+     * @see #setFusedGrayscaleEnabled
+     *
+     * @since 2.0b
+     */
+    public static boolean isFusedGrayscaleEnabled()
+    {
+	return _fusedGrayscaleEnabled;
+    }
+
+    /**
+     * Sets whether <code>ViewBoxViewport</code>s created afterwards use
+     * engines which split the output into horizontal strips and render them
+     * in parallel on a shared <code>ForkJoinPool</code>. The default is
+     * <code>false</code>. Since engines are assigned at construction time,
+     * toggling this option between calls to <code>createViewport</code>
+     * selects the engines per Viewport.
+     * <p>
+     * Parallel engines are not used on JVMs with the Java 2D bugs #4192198 or
+     * #4554571, for which the existing work-around engines are kept.
+     *
+     * @param parallelRenderingEnabled <code>true</code> to use parallel
+     *				       engines; <code>false</code> to render
+     *				       on the painting thread only.
+     *
+     * @see #isParallelRenderingEnabled
+     * @see org.medtoolbox.jviewbox.viewport.engine.ParallelAffineTransformEngine
+     * @see org.medtoolbox.jviewbox.viewport.engine.ParallelGrayLookUpEngine
+     * @see org.medtoolbox.jviewbox.viewport.engine.ParallelFusedGrayLookUpEngine
+     *
+     * @since 2.0b
+     */
+    public static void setParallelRenderingEnabled(boolean
+						   parallelRenderingEnabled)
+    {
+	_parallelRenderingEnabled = parallelRenderingEnabled;
+    }
+
+    /**
+     * Returns whether <code>ViewBoxViewport</code>s are created with engines
+     * which render strips of the output in parallel.
+     *
+     * @return <code>true</code> if parallel engines are used;
+     *	       <code>false</code> if not.
+     *
+     * @see #setParallelRenderingEnabled
+     *
+     * @since 2.0b
+     */
+    public static boolean isParallelRenderingEnabled()
+    {
+	return _parallelRenderingEnabled;
+    }
+
     // ---------------
     // Private methods
     // ---------------
@@ -402,7 +496,7 @@ public class ViewportFactory
 	}
 
 	return new Object[] { rgbOptimizeEngine,
-			      new DefaultAffineTransformEngine(),
+			      _createAffineTransformEngine(),
 			      new NullLookUpEngine() };
     }
 
@@ -410,8 +504,10 @@ public class ViewportFactory
     private static Object[] _createEnginesForGrayViewport()
     {
 	return new Object[] { new NullSourceOptimizeEngine(),
-			      new DefaultAffineTransformEngine(),
-			      new GrayLookUpEngine() };
+			      _createAffineTransformEngine(),
+			      isParallelRenderingEnabled()
+			      ? new ParallelGrayLookUpEngine()
+			      : new GrayLookUpEngine() };
     }
 
     /** Creates the Engines for a short grayscale ViewBoxViewport. */
@@ -434,9 +530,29 @@ public class ViewportFactory
 	// Bug free
 	else {
 	    return new Object[] { new NullSourceOptimizeEngine(),
-				  new DefaultAffineTransformEngine(),
-				  new GrayLookUpEngine() };
+				  _createAffineTransformEngine(),
+				  _createShortGrayLookUpEngine() };
+	}
+    }
+
+    /** Creates the AffineTransformEngine for a bug free ViewBoxViewport. */
+    private static AffineTransformEngine _createAffineTransformEngine()
+    {
+	return isParallelRenderingEnabled()
+	    ? (AffineTransformEngine)new ParallelAffineTransformEngine()
+	    : new DefaultAffineTransformEngine();
+    }
+
+    /** Creates the LookUpEngine for a bug free short grayscale Viewport. */
+    private static GrayLookUpEngine _createShortGrayLookUpEngine()
+    {
+	if (isFusedGrayscaleEnabled()) {
+	    return isParallelRenderingEnabled()
+		? new ParallelFusedGrayLookUpEngine()
+		: new FusedGrayLookUpEngine();
 	}
+	return isParallelRenderingEnabled() ? new ParallelGrayLookUpEngine()
+					    : new GrayLookUpEngine();
     }
 
     /** Makes a grayscale (i.e., single-band) LookUpTable. */
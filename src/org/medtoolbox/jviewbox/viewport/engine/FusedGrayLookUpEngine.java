@@ -0,0 +1,471 @@
+/*
+jViewBox 2.0 beta
+
+COPYRIGHT NOTICE
+Copyright (c) 2003  Jack C. Wei, Scott C. Neu, and Daniel J. Valentino
+
+See README.license for license notices.
+ */
+
+package org.medtoolbox.jviewbox.viewport.engine;
+
+import java.awt.Dimension;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+import java.awt.image.ByteLookupTable;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.ImagingOpException;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import org.medtoolbox.jviewbox.BufferedImageUtilities;
+import org.medtoolbox.jviewbox.LookUpTable;
+import org.medtoolbox.jviewbox.viewport.Viewport;
+
+/**
+ * <code>GrayLookUpEngine</code> which also performs the affine transform of a
+ * 16-bit grayscale image, mapping the source pixels through the
+ * <code>LookUpTable</code> directly into a reused 8-bit destination in one
+ * pass over the output.
+ * <p>
+ * Compared to running an <code>AffineTransformEngine</code> into an
+ * intermediate raster of the source's precision (e.g., 16-bit) followed by
+ * <code>LookupOp</code>, this engine touches every output pixel once, does
+ * not allocate an intermediate raster, and reuses the previous output image
+ * whenever its size is unchanged. Window/level changes then cost a single
+ * resampling-and-lookup sweep.
+ * <p>
+ * The source raster must be a single band interleaved raster of
+ * <code>short</code> or <code>ushort</code> samples. Only nearest-neighbor
+ * and bilinear interpolation are implemented; bilinear is used when bicubic
+ * is requested. Since the resampling is done by this class
+ * instead of Java 2D's <code>AffineTransformOp</code>, the affine transform
+ * bugs worked around elsewhere in this package do not apply.
+ *
+ * @see TransformLookUpEngine
+ *
+ * @since 2.0b
+ */
+public class FusedGrayLookUpEngine extends GrayLookUpEngine
+    implements TransformLookUpEngine
+{
+    // --------------
+    // Public methods
+    // --------------
+
+    /**
+     * Applies an <code>AffineTransform</code> and then a table look-up
+     * operation to a grayscale raster in a single pass, and returns the
+     * result clipped to the specified size as a grayscale image of 8-bit
+     * precision (byte pixels). Output pixels which do not map into the source
+     * are set to zero.
+     *
+     * @param source Source <code>WritableRaster</code> to render.
+     * @param sourceColorModel <code>ColorModel</code> of the source image.
+     *			       This is ignored by this engine.
+     * @param transform <code>AffineTransform</code> to apply to the source.
+     * @param outputSize Size to which the output should be clipped.
+     * @param lut <code>LookUpTable</code> to apply to the transformed source.
+     * @param previousResult Previous result from this method cached by a
+     *			     <code>ViewBoxViewport</code> for buffer reuse;
+     *			     <code>null</code> if not available.
+     * @param mode Mode of interpolation suggested for the transformation
+     *		   (only nearest-neighbor and bilinear are implemented);
+     *	           <code>null</code> to use nearest-neighbor interpolation.
+     *
+     * @return Transformed and filtered copy of the source as a
+     *	       <code>BufferedImage</code>.
+     *
+     * @throws IllegalArgumentException if <code>lut</code> is
+     *	       <code>null</code> or does not have exactly one band, or if
+     *	       <code>source</code> is not a single band interleaved raster of
+     *	       short or ushort samples.
+     * @throws ImagingOpException if <code>transform</code> is not
+     *	       invertible.
+     */
+    public BufferedImage transformAndFilter(WritableRaster source,
+					    ColorModel sourceColorModel,
+					    AffineTransform transform,
+					    Dimension outputSize,
+					    LookUpTable lut,
+					    BufferedImage previousResult,
+					    Viewport.InterpolationMode mode)
+    {
+	_checkSource(source);
+	if (lut == null) {
+	    throw new IllegalArgumentException("lut can not be null.");
+	}
+	if (lut.getNumComponents() != 1) {
+	    throw new IllegalArgumentException("lut must have exactly one " +
+					       "band.");
+	}
+
+	// Source coordinates are computed from destination pixel centers
+	AffineTransform inverse = _invert(transform);
+
+	// Create a new destination image if no previous result is available,
+	// or the output size has changed
+	BufferedImage dest = previousResult;
+	if (dest == null || dest.getType() != getOutputType() ||
+	    dest.getWidth() != outputSize.width ||
+	    dest.getHeight() != outputSize.height) {
+
+	    dest = _createDestination(outputSize.width, outputSize.height);
+	}
+
+	// Transform and apply LUT in one pass
+	ByteLookupTable blut = lut.getByteLookupTable();
+	_render(source, inverse, blut.getTable()[0], blut.getOffset(),
+		dest.getRaster(), _isBilinear(mode), 0, outputSize.height);
+
+	return dest;
+    }
+
+    // -----------------------
+    // Package private methods
+    // -----------------------
+
+    /**
+     * Checks that the source raster is supported by {@link #_render}.
+     *
+     * @throws IllegalArgumentException if <code>source</code> is not a single
+     *	       band interleaved raster of short or ushort samples.
+     */
+    static void _checkSource(Raster source)
+    {
+	if (!BufferedImageUtilities.isSingleBandInterleavedOfShorts(source)) {
+	    throw new IllegalArgumentException("source must be a single-band "+
+					       "interleaved short/ushort " +
+					       "raster.");
+	}
+    }
+
+    /**
+     * Returns the inverse of the specified transform.
+     *
+     * @throws ImagingOpException if <code>transform</code> is not
+     *	       invertible.
+     */
+    static AffineTransform _invert(AffineTransform transform)
+    {
+	try {
+	    return transform.createInverse();
+	}
+	catch (NoninvertibleTransformException e) {
+	    throw new ImagingOpException("Unable to invert transform " +
+					 transform);
+	}
+    }
+
+    /** Returns whether the interpolation mode calls for bilinear. */
+    static boolean _isBilinear(Viewport.InterpolationMode mode)
+    {
+	return (mode == Viewport.INTERPOLATION_BILINEAR ||
+		mode == Viewport.INTERPOLATION_BICUBIC);
+    }
+
+    /**
+     * Renders the rows <code>[yStart, yEnd)</code> of the destination by
+     * sampling the source at the inverse-transformed pixel centers and
+     * mapping the samples through the look-up table. Distinct row ranges may
+     * be rendered concurrently.
+     *
+     * @param source Single band interleaved short/ushort raster.
+     * @param inverse Transform from destination to source coordinates.
+     * @param table Look-up table array.
+     * @param tableOffset Offset subtracted from samples before look-up.
+     * @param dest Single band interleaved byte raster.
+     * @param bilinear <code>true</code> for bilinear interpolation;
+     *		       <code>false</code> for nearest-neighbor.
+     * @param yStart First destination row to render.
+     * @param yEnd Destination row after the last one to render.
+     */
+    static void _render(Raster source, AffineTransform inverse,
+			byte[] table, int tableOffset, WritableRaster dest,
+			boolean bilinear, int yStart, int yEnd)
+    {
+	// Source geometry
+	PixelInterleavedSampleModel ssm =
+	    (PixelInterleavedSampleModel)source.getSampleModel();
+	int sPixel = ssm.getPixelStride();
+	int sScan = ssm.getScanlineStride();
+	DataBuffer sdb = source.getDataBuffer();
+	int sBase = sdb.getOffset() + ssm.getBandOffsets()[0] +
+	    (source.getMinY() - source.getSampleModelTranslateY()) * sScan +
+	    (source.getMinX() - source.getSampleModelTranslateX()) * sPixel;
+	int sw = source.getWidth();
+	int sh = source.getHeight();
+
+	// Samples are read as ints; signed shorts keep their sign
+	short[] sData;
+	int mask;
+	if (sdb.getDataType() == DataBuffer.TYPE_USHORT) {
+	    sData = ((DataBufferUShort)sdb).getData();
+	    mask = 0xFFFF;
+	}
+	else {
+	    sData = ((DataBufferShort)sdb).getData();
+	    mask = 0xFFFFFFFF;
+	}
+
+	// Destination geometry
+	PixelInterleavedSampleModel dsm =
+	    (PixelInterleavedSampleModel)dest.getSampleModel();
+	int dPixel = dsm.getPixelStride();
+	int dScan = dsm.getScanlineStride();
+	DataBufferByte ddb = (DataBufferByte)dest.getDataBuffer();
+	byte[] dData = ddb.getData();
+	int dBase = ddb.getOffset() + dsm.getBandOffsets()[0] +
+	    (dest.getMinY() - dest.getSampleModelTranslateY()) * dScan +
+	    (dest.getMinX() - dest.getSampleModelTranslateX()) * dPixel;
+	int dw = dest.getWidth();
+
+	double m00 = inverse.getScaleX();
+	double m01 = inverse.getShearX();
+	double m02 = inverse.getTranslateX();
+	double m10 = inverse.getShearY();
+	double m11 = inverse.getScaleY();
+	double m12 = inverse.getTranslateY();
+
+	// Viewport transforms are scaling, flipping and rotation by multiples
+	// of 90 degrees, where one source axis varies only along destination
+	// rows and the other only along columns. Sample offsets and weights
+	// can then be tabulated once per axis.
+	int rows = yEnd - yStart;
+	int[] col0 = new int[dw];
+	int[] col1 = bilinear ? new int[dw] : null;
+	int[] colW = bilinear ? new int[dw] : null;
+	int[] row0 = new int[rows];
+	int[] row1 = bilinear ? new int[rows] : null;
+	int[] rowW = bilinear ? new int[rows] : null;
+	if (m01 == 0.0 && m10 == 0.0) {
+	    _tabulate(m00, m02, 0, sw, sPixel, col0, col1, colW);
+	    _tabulate(m11, m12, yStart, sh, sScan, row0, row1, rowW);
+	}
+	else if (m00 == 0.0 && m11 == 0.0) {
+	    _tabulate(m10, m12, 0, sh, sScan, col0, col1, colW);
+	    _tabulate(m01, m02, yStart, sw, sPixel, row0, row1, rowW);
+	}
+	else {
+	    _renderGeneral(sData, mask, sBase, sPixel, sScan, sw, sh,
+			   inverse, table, tableOffset,
+			   dData, dBase, dPixel, dScan, dw,
+			   bilinear, yStart, yEnd);
+	    return;
+	}
+
+	// Table look-up is clamped to the table range
+	int lastIndex = table.length - 1;
+
+	int previousRow = -1;
+	for (int y = yStart; y < yEnd; y++) {
+	    int d = dBase + y * dScan;
+	    int r0 = row0[y - yStart];
+
+	    // Whole row outside the source
+	    if (r0 < 0) {
+		for (int x = 0; x < dw; x++, d += dPixel) {
+		    dData[d] = 0;
+		}
+		previousRow = -1;
+		continue;
+	    }
+
+	    // Nearest-neighbor rows sampling the same source row are equal
+	    if (!bilinear) {
+		if (r0 == previousRow && dPixel == 1) {
+		    System.arraycopy(dData, d - dScan, dData, d, dw);
+		    continue;
+		}
+		previousRow = r0;
+
+		int s = sBase + r0;
+		for (int x = 0; x < dw; x++, d += dPixel) {
+		    int c0 = col0[x];
+		    if (c0 < 0) {
+			dData[d] = 0;
+			continue;
+		    }
+		    int index = (sData[s + c0] & mask) - tableOffset;
+		    if (index < 0) {
+			index = 0;
+		    }
+		    else if (index > lastIndex) {
+			index = lastIndex;
+		    }
+		    dData[d] = table[index];
+		}
+	    }
+
+	    // Bilinear with 8-bit fixed-point weights
+	    else {
+		int s0 = sBase + r0;
+		int s1 = sBase + row1[y - yStart];
+		long wy = rowW[y - yStart];
+		for (int x = 0; x < dw; x++, d += dPixel) {
+		    int c0 = col0[x];
+		    if (c0 < 0) {
+			dData[d] = 0;
+			continue;
+		    }
+		    int c1 = col1[x];
+		    int wx = colW[x];
+		    int v00 = sData[s0 + c0] & mask;
+		    int v01 = sData[s0 + c1] & mask;
+		    int v10 = sData[s1 + c0] & mask;
+		    int v11 = sData[s1 + c1] & mask;
+		    long top = (v00 << 8) + (v01 - v00) * wx;
+		    long bottom = (v10 << 8) + (v11 - v10) * wx;
+		    int value =
+			(int)(((top << 8) + (bottom - top) * wy + 32768) >> 16);
+
+		    int index = value - tableOffset;
+		    if (index < 0) {
+			index = 0;
+		    }
+		    else if (index > lastIndex) {
+			index = lastIndex;
+		    }
+		    dData[d] = table[index];
+		}
+	    }
+	}
+    }
+
+    // ---------------
+    // Private methods
+    // ---------------
+
+    /**
+     * Tabulates the sample offsets along one destination axis for a source
+     * coordinate <code>scale * (i + 0.5) + translate</code>. Offsets of
+     * positions outside the source are set to -1.
+     *
+     * @param scale Change of the source coordinate per destination pixel.
+     * @param translate Source coordinate at the destination origin.
+     * @param start Destination index of the first table entry.
+     * @param extent Size of the source along the coordinate.
+     * @param stride Array stride of the source along the coordinate.
+     * @param off0 Output offsets of the (first) sample.
+     * @param off1 Output offsets of the second bilinear sample;
+     *		   <code>null</code> for nearest-neighbor.
+     * @param weight Output 8-bit weights of the second bilinear sample;
+     *		     <code>null</code> for nearest-neighbor.
+     */
+    private static void _tabulate(double scale, double translate, int start,
+				  int extent, int stride, int[] off0,
+				  int[] off1, int[] weight)
+    {
+	for (int i = 0; i < off0.length; i++) {
+	    double c = scale * (start + i + 0.5) + translate;
+	    if (c < 0.0 || c >= extent) {
+		off0[i] = -1;
+	    }
+	    else if (off1 == null) {
+		off0[i] = (int)c * stride;
+	    }
+	    else {
+		// Sample grid is at pixel centers
+		double f = c - 0.5;
+		int i0 = (int)Math.floor(f);
+		int w = (int)((f - i0) * 256.0 + 0.5);
+		int i1 = i0 + 1;
+		if (i0 < 0) {
+		    i0 = 0;
+		}
+		if (i1 >= extent) {
+		    i1 = extent - 1;
+		}
+		off0[i] = i0 * stride;
+		off1[i] = i1 * stride;
+		weight[i] = w;
+	    }
+	}
+    }
+
+    /**
+     * Renders the rows <code>[yStart, yEnd)</code> for an arbitrary affine
+     * transform, computing the source position of every pixel.
+     */
+    private static void _renderGeneral(short[] sData, int mask, int sBase,
+				       int sPixel, int sScan, int sw, int sh,
+				       AffineTransform inverse, byte[] table,
+				       int tableOffset, byte[] dData,
+				       int dBase, int dPixel, int dScan,
+				       int dw, boolean bilinear, int yStart,
+				       int yEnd)
+    {
+	int lastIndex = table.length - 1;
+
+	double m00 = inverse.getScaleX();
+	double m01 = inverse.getShearX();
+	double m02 = inverse.getTranslateX();
+	double m10 = inverse.getShearY();
+	double m11 = inverse.getScaleY();
+	double m12 = inverse.getTranslateY();
+
+	for (int y = yStart; y < yEnd; y++) {
+	    // Source coordinates of the center of the first pixel in the row
+	    double rowX = m00 * 0.5 + m01 * (y + 0.5) + m02;
+	    double rowY = m10 * 0.5 + m11 * (y + 0.5) + m12;
+	    int d = dBase + y * dScan;
+
+	    for (int x = 0; x < dw; x++, d += dPixel) {
+		double sx = rowX + m00 * x;
+		double sy = rowY + m10 * x;
+
+		// Outside the source
+		if (sx < 0.0 || sy < 0.0 || sx >= sw || sy >= sh) {
+		    dData[d] = 0;
+		    continue;
+		}
+
+		int value;
+		if (!bilinear) {
+		    int s = sBase + (int)sy * sScan + (int)sx * sPixel;
+		    value = sData[s] & mask;
+		}
+		else {
+		    // Sample grid is at pixel centers
+		    double fx = sx - 0.5;
+		    double fy = sy - 0.5;
+		    int x0 = (int)Math.floor(fx);
+		    int y0 = (int)Math.floor(fy);
+		    double ax = fx - x0;
+		    double ay = fy - y0;
+		    int x1 = x0 + 1;
+		    int y1 = y0 + 1;
+		    if (x0 < 0) { x0 = 0; }
+		    if (y0 < 0) { y0 = 0; }
+		    if (x1 >= sw) { x1 = sw - 1; }
+		    if (y1 >= sh) { y1 = sh - 1; }
+
+		    int r0 = sBase + y0 * sScan;
+		    int r1 = sBase + y1 * sScan;
+		    double v00 = sData[r0 + x0 * sPixel] & mask;
+		    double v01 = sData[r0 + x1 * sPixel] & mask;
+		    double v10 = sData[r1 + x0 * sPixel] & mask;
+		    double v11 = sData[r1 + x1 * sPixel] & mask;
+		    double top = v00 + ax * (v01 - v00);
+		    double bottom = v10 + ax * (v11 - v10);
+		    value = (int)Math.floor(top + ay * (bottom - top) + 0.5);
+		}
+
+		int index = value - tableOffset;
+		if (index < 0) {
+		    index = 0;
+		}
+		else if (index > lastIndex) {
+		    index = lastIndex;
+		}
+		dData[d] = table[index];
+	    }
+	}
+    }
+}
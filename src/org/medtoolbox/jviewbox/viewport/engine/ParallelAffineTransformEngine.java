@@ -0,0 +1,120 @@
+/*
+jViewBox 2.0 beta
+
+COPYRIGHT NOTICE
+Copyright (c) 2003  Jack C. Wei, Scott C. Neu, and Daniel J. Valentino
+
+See README.license for license notices.
+ */
+
+package org.medtoolbox.jviewbox.viewport.engine;
+
+import java.awt.Dimension;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+
+import org.medtoolbox.jviewbox.BufferedImageUtilities;
+import org.medtoolbox.jviewbox.viewport.Viewport;
+
+/**
+ * <code>AffineTransformEngine</code> which transforms horizontal strips of
+ * the output in parallel on a shared <code>ForkJoinPool</code>. Each strip is
+ * rendered by its own <code>AffineTransformOp</code> whose transform is
+ * translated to the strip's origin.
+ *
+ * @since 2.0b
+ */
+public class ParallelAffineTransformEngine implements AffineTransformEngine
+{
+    // --------------
+    // Public methods
+    // --------------
+
+    /**
+     * Applies an <code>AffineTransform</code> to a <code>WritableRaster</code>
+     * and returns a transformed copy clipped to the specified size. The
+     * transformed copy is in the same format as the source. The source
+     * <code>WritableRaster</code> is never modified.
+     * <p>
+     * Currently, either nearest-neighbor or bilinear interpolation can be
+     * used for transformation. Bilinear interpolation will also be applied if
+     * {@link Viewport#INTERPOLATION_BICUBIC} is requested. This is limited
+     * by the capability of Java 2D's <code>AffineTransformOp</code>.
+     *
+     * @param source Source <code>WritableRaster</code> to transform.
+     * @param sourceColorModel <code>ColorModel</code> of the source image.
+     *			       This is ignored by this engine.
+     * @param transform <code>AffineTransform</code> to apply to the source.
+     * @param outputSize Size to which the output should be clipped.
+     * @param previousResult Previous result from this method cached by a
+     *			     <code>ViewBoxViewport</code> for buffer reuse;
+     *			     <code>null</code> if not available.
+     * @param toClearBuffer Whether to clear <code>previousResult</code> before
+     *			    outputing to it.
+     * @param mode Mode of interpolation suggested for the transformation
+     *		   (only nearest-neighbor and bilinear are implemented);
+     *	           <code>null</code> to use nearest-neighbor interpolation.
+     *
+     * @return Transformed copy of the source as a <code>WritableRaster</code>.
+     *
+     * @throws ImagingOpException if the transformation failed because of a
+     *	       data-processing error that might be caused by an invalid image
+     *	       format, tile format, or image-processing operation, or any
+     *	       other unsupported operation.
+     */
+    public WritableRaster transform(final WritableRaster source,
+				    ColorModel sourceColorModel,
+				    final AffineTransform transform,
+				    Dimension outputSize,
+				    WritableRaster previousResult,
+				    boolean toClearBuffer,
+				    Viewport.InterpolationMode mode)
+    {
+	// Create a new dest WritableRaster if no previous result is available
+	// or output size has changed
+	final WritableRaster dest;
+	if (previousResult == null ||
+	    previousResult.getWidth() != outputSize.width ||
+	    previousResult.getHeight() != outputSize.height) {
+
+	    dest = source.createCompatibleWritableRaster(outputSize.width,
+							 outputSize.height);
+	}
+
+	// Reuse the previous WritableRaster after clearing it
+	else {
+	    dest = previousResult;
+	    // Zero out dest if requested
+	    if (toClearBuffer) {
+		BufferedImageUtilities.clearRaster(dest);
+	    }
+	}
+
+	// Perform affine transform strip by strip
+	final int interpolation =
+	    (mode == Viewport.INTERPOLATION_BILINEAR ||
+	     mode == Viewport.INTERPOLATION_BICUBIC)
+	    ? AffineTransformOp.TYPE_BILINEAR
+	    : AffineTransformOp.TYPE_NEAREST_NEIGHBOR;
+	final int width = dest.getWidth();
+	StripScheduler.run(width, dest.getHeight(), new StripScheduler.Strip() {
+	    public void run(int yStart, int yEnd)
+	    {
+		WritableRaster strip =
+		    dest.createWritableChild(dest.getMinX(),
+					     dest.getMinY() + yStart,
+					     width, yEnd - yStart, 0, 0, null);
+
+		// Shift the output so that the strip's first row is row 0
+		AffineTransform t =
+		    AffineTransform.getTranslateInstance(0, -yStart);
+		t.concatenate(transform);
+		new AffineTransformOp(t, interpolation).filter(source, strip);
+	    }
+	});
+
+	return dest;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+jViewBox 2.0 beta
+
+COPYRIGHT NOTICE
+Copyright (c) 2003  Jack C. Wei, Scott C. Neu, and Daniel J. Valentino
+
+See README.license for license notices.
+ */
+
+package org.medtoolbox.jviewbox.viewport.engine;
+
+import java.awt.Dimension;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ByteLookupTable;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+
+import org.medtoolbox.jviewbox.LookUpTable;
+import org.medtoolbox.jviewbox.viewport.Viewport;
+
+/**
+ * <code>FusedGrayLookUpEngine</code> which renders horizontal strips of the
+ * output in parallel on a shared <code>ForkJoinPool</code>. The plain
+ * table look-up step, used when only a <code>LookUpEngine</code> is called
+ * for, is parallelized the same way as in
+ * <code>ParallelGrayLookUpEngine</code>.
+ *
+ * @since 2.0b
+ */
+public class ParallelFusedGrayLookUpEngine extends FusedGrayLookUpEngine
+{
+    // --------------
+    // Private fields
+    // --------------
+
+    /** Engine used for the plain table look-up step. */
+    private final ParallelGrayLookUpEngine _lookUpEngine =
+	new ParallelGrayLookUpEngine();
+
+    // --------------
+    // Public methods
+    // --------------
+
+    /**
+     * Filters an image by a table look-up operation in parallel strips. See
+     * {@link ParallelGrayLookUpEngine#filter}.
+     */
+    public BufferedImage filter(ColorModel srcColorModel,
+				WritableRaster srcRaster, LookUpTable lut,
+				BufferedImage previousResult)
+    {
+	return _lookUpEngine.filter(srcColorModel, srcRaster, lut,
+				    previousResult);
+    }
+
+    /**
+     * Applies an <code>AffineTransform</code> and then a table look-up
+     * operation to a grayscale raster in parallel strips. See
+     * {@link FusedGrayLookUpEngine#transformAndFilter}.
+     */
+    public BufferedImage transformAndFilter(final WritableRaster source,
+					    ColorModel sourceColorModel,
+					    AffineTransform transform,
+					    Dimension outputSize,
+					    LookUpTable lut,
+					    BufferedImage previousResult,
+					    Viewport.InterpolationMode mode)
+    {
+	_checkSource(source);
+	if (lut == null) {
+	    throw new IllegalArgumentException("lut can not be null.");
+	}
+	if (lut.getNumComponents() != 1) {
+	    throw new IllegalArgumentException("lut must have exactly one " +
+					       "band.");
+	}
+
+	// Source coordinates are computed from destination pixel centers
+	final AffineTransform inverse = _invert(transform);
+
+	// Create a new destination image if no previous result is available,
+	// or the output size has changed
+	BufferedImage dest = previousResult;
+	if (dest == null || dest.getType() != getOutputType() ||
+	    dest.getWidth() != outputSize.width ||
+	    dest.getHeight() != outputSize.height) {
+
+	    dest = _createDestination(outputSize.width, outputSize.height);
+	}
+
+	// Transform and apply LUT strip by strip
+	ByteLookupTable blut = lut.getByteLookupTable();
+	final byte[] table = blut.getTable()[0];
+	final int tableOffset = blut.getOffset();
+	final WritableRaster destRaster = dest.getRaster();
+	final boolean bilinear = _isBilinear(mode);
+	StripScheduler.run(outputSize.width, outputSize.height,
+			   new StripScheduler.Strip() {
+	    public void run(int yStart, int yEnd)
+	    {
+		_render(source, inverse, table, tableOffset, destRaster,
+			bilinear, yStart, yEnd);
+	    }
+	});
+
+	return dest;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+jViewBox 2.0 beta
+
+COPYRIGHT NOTICE
+Copyright (c) 2003  Jack C. Wei, Scott C. Neu, and Daniel J. Valentino
+
+See README.license for license notices.
+ */
+
+package org.medtoolbox.jviewbox.viewport.engine;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ByteLookupTable;
+import java.awt.image.ColorModel;
+import java.awt.image.LookupOp;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import org.medtoolbox.jviewbox.BufferedImageUtilities;
+import org.medtoolbox.jviewbox.LookUpTable;
+
+/**
+ * <code>GrayLookUpEngine</code> which applies the look-up table to
+ * horizontal strips of the image in parallel on a shared
+ * <code>ForkJoinPool</code>. The result is identical to that of
+ * <code>GrayLookUpEngine</code>.
+ *
+ * @since 2.0b
+ */
+public class ParallelGrayLookUpEngine extends GrayLookUpEngine
+{
+    // --------------
+    // Public methods
+    // --------------
+
+    /**
+     * Filters an image by a table look-up operation and returns a filtered
+     * copy. The source raster must be a single band integer-type raster.
+     * The result is a grayscale image of 8-bit precision (byte pixels).
+     *
+     * @param srcColorModel <code>ColorModel</code> for the source image.
+     *			    This is ignored by this engine for the output
+     *			    is always <code>TYPE_BYTE_GRAY</code>.
+     * @param srcRaster <code>WritableRaster</code> which contains the pixels
+     *			of the source image.
+     * @param lut <code>LookUpTable</code> to apply to the source image.
+     * @param previousResult Previous result from this method cached by a
+     *			     <code>ViewBoxViewport</code> for buffer reuse;
+     *			     <code>null</code> if not available.
+     *
+     * @return Filtered copy of the source image as a
+     *	       <code>BufferedImage</code>.
+     *
+     * @throws IllegalArgumentException if <code>lut</code> does not have
+     *	       exactly one band, or if <code>srcRaster</code> is not
+     *	       a compatible single band integer-type raster.
+     */
+    public BufferedImage filter(ColorModel srcColorModel,
+				final WritableRaster srcRaster,
+				LookUpTable lut, BufferedImage previousResult)
+    {
+	if (!BufferedImageUtilities.isSingleBandInterleaved(srcRaster)) {
+	    throw new IllegalArgumentException("srcRaster must be a single-" +
+					       "band interleaved raster.");
+	}
+	if (lut == null) {
+	    // Return the original as is
+	    return new BufferedImage(srcColorModel, srcRaster, false, null);
+	}
+	if (lut.getNumComponents() != 1) {
+	    throw new IllegalArgumentException("lut must have exactly one " +
+					       "band.");
+	}
+
+	// Create a new destination image if no previous result is available,
+	// or the output size has changed
+	BufferedImage dest = previousResult;
+	if (dest == null || dest.getType() != getOutputType() ||
+	    dest.getWidth() != srcRaster.getWidth() ||
+	    dest.getHeight() != srcRaster.getHeight()) {
+
+	    dest = _createDestination(srcRaster.getWidth(),
+				      srcRaster.getHeight());
+	}
+
+	// Apply LUT strip by strip; LookupOp is stateless
+	ByteLookupTable blut = lut.getByteLookupTable();
+	final LookupOp lo = new LookupOp(blut, null);
+	final WritableRaster destRaster = dest.getRaster();
+	final int width = srcRaster.getWidth();
+	StripScheduler.run(width, srcRaster.getHeight(),
+			   new StripScheduler.Strip() {
+	    public void run(int yStart, int yEnd)
+	    {
+		Raster src =
+		    srcRaster.createChild(srcRaster.getMinX(),
+					  srcRaster.getMinY() + yStart,
+					  width, yEnd - yStart, 0, 0, null);
+		WritableRaster dst =
+		    destRaster.createWritableChild(destRaster.getMinX(),
+						   destRaster.getMinY() +
+						   yStart,
+						   width, yEnd - yStart,
+						   0, 0, null);
+		lo.filter(src, dst);
+	    }
+	});
+
+	return dest;
+    }
+}
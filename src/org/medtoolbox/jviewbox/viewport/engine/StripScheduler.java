@@ -0,0 +1,124 @@
+/*
+jViewBox 2.0 beta
+
+COPYRIGHT NOTICE
+Copyright (c) 2003  Jack C. Wei, Scott C. Neu, and Daniel J. Valentino
+
+See README.license for license notices.
+ */
+
+package org.medtoolbox.jviewbox.viewport.engine;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the rows of an output raster into horizontal strips and processes
+ * them on a <code>ForkJoinPool</code> shared by all parallel engines.
+ *
+ * @since 2.0b
+ */
+class StripScheduler
+{
+    // ---------
+    // Constants
+    // ---------
+
+    /** Minimum number of rows in a strip. */
+    private static final int MIN_STRIP_HEIGHT = 16;
+
+    /** Number of pixels below which an output is processed serially. */
+    private static final int MIN_PARALLEL_PIXELS = 128 * 128;
+
+    // --------------
+    // Private fields
+    // --------------
+
+    /** Pool shared by all parallel engines. */
+    private static final ForkJoinPool _POOL = new ForkJoinPool();
+
+    // ----------------------
+    // Package private types
+    // ----------------------
+
+    /** Work on a horizontal strip of rows. */
+    interface Strip
+    {
+	/**
+	 * Processes the rows <code>[yStart, yEnd)</code>. Invoked
+	 * concurrently for disjoint row ranges.
+	 */
+	void run(int yStart, int yEnd);
+    }
+
+    // -----------
+    // Constructor
+    // -----------
+
+    /** Non-instantiable class. */
+    private StripScheduler()
+    {
+	throw new UnsupportedOperationException("Non-instantiable class.");
+    }
+
+    // -----------------------
+    // Package private methods
+    // -----------------------
+
+    /**
+     * Runs <code>strip</code> over all rows of an output of the specified
+     * size and returns when all strips are done. Small outputs are processed
+     * on the calling thread.
+     *
+     * @param width Width of the output in pixels.
+     * @param height Height of the output in pixels.
+     * @param strip Work to run on each strip.
+     */
+    static void run(int width, int height, Strip strip)
+    {
+	int parallelism = _POOL.getParallelism();
+	if (parallelism < 2 || (long)width * height < MIN_PARALLEL_PIXELS) {
+	    strip.run(0, height);
+	    return;
+	}
+
+	// A few strips per worker for load balancing
+	int stripHeight = Math.max(MIN_STRIP_HEIGHT,
+				   (height + 4 * parallelism - 1) /
+				   (4 * parallelism));
+	_POOL.invoke(new StripAction(strip, 0, height, stripHeight));
+    }
+
+    // --------------------
+    // Private member class
+    // --------------------
+
+    /** Recursively halves a row range down to the strip height. */
+    private static class StripAction extends RecursiveAction
+    {
+	private final Strip _strip;
+	private final int _yStart;
+	private final int _yEnd;
+	private final int _stripHeight;
+
+	StripAction(Strip strip, int yStart, int yEnd, int stripHeight)
+	{
+	    _strip = strip;
+	    _yStart = yStart;
+	    _yEnd = yEnd;
+	    _stripHeight = stripHeight;
+	}
+
+	protected void compute()
+	{
+	    if (_yEnd - _yStart <= _stripHeight) {
+		_strip.run(_yStart, _yEnd);
+		return;
+	    }
+
+	    int yMiddle = (_yStart + _yEnd) >>> 1;
+	    invokeAll(new StripAction(_strip, _yStart, yMiddle, _stripHeight),
+		      new StripAction(_strip, yMiddle, _yEnd, _stripHeight));
+	}
+    }
+}
@@ -0,0 +1,77 @@
+/*
+jViewBox 2.0 beta
+
+COPYRIGHT NOTICE
+Copyright (c) 2003  Jack C. Wei, Scott C. Neu, and Daniel J. Valentino
+
+See README.license for license notices.
+ */
+
+package org.medtoolbox.jviewbox.viewport.engine;
+
+import java.awt.Dimension;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+
+import org.medtoolbox.jviewbox.LookUpTable;
+import org.medtoolbox.jviewbox.viewport.Viewport;
+
+/**
+ * Interface for a <code>LookUpEngine</code> which can also perform the affine
+ * transform step in <code>ViewBoxViewport</code>'s image rendering pipeline,
+ * so that both steps are done in a single pass over the output without an
+ * intermediate transformed raster. An instance of
+ * <code>TransformLookUpEngine</code> may be shared by more than one
+ * <code>ViewBoxViewport</code>s.
+ * <p>
+ * When the <code>LookUpEngine</code> of a <code>ViewBoxViewport</code>
+ * implements this interface and a <code>LookUpTable</code> is available,
+ * {@link #transformAndFilter} is used in place of the
+ * <code>AffineTransformEngine</code> and <code>LookUpEngine.filter</code>.
+ *
+ * @see org.medtoolbox.jviewbox.viewport.ViewBoxViewport
+ *
+ * @since 2.0b
+ */
+public interface TransformLookUpEngine extends LookUpEngine
+{
+    /**
+     * Applies an <code>AffineTransform</code> and then a table look-up
+     * operation to a <code>WritableRaster</code>, and returns the result
+     * clipped to the specified size. The source <b>MUST NOT</b> be modified.
+     * The result is wrapped into a <code>BufferedImage</code> which may have
+     * a different <code>ColorModel</code> than the source's as determined by
+     * the engine.
+     * <p>
+     * A previous result from this method cached by a
+     * <code>ViewBoxViewport</code> is also passed as a parameter if available.
+     * The implementation is encouraged to reuse this buffer for output when
+     * possible to improve memory performance.
+     *
+     * @param source Source <code>WritableRaster</code> to render.
+     * @param sourceColorModel <code>ColorModel</code> of the source image.
+     * @param transform <code>AffineTransform</code> to apply to the source.
+     * @param outputSize Size to which the output should be clipped.
+     * @param lut <code>LookUpTable</code> to apply to the transformed source.
+     * @param previousResult Previous result from this method cached by a
+     *			     <code>ViewBoxViewport</code> for buffer reuse;
+     *			     <code>null</code> if not available.
+     * @param mode Mode of interpolation suggested for the transformation;
+     *	           <code>null</code> to use nearest-neighbor interpolation.
+     *
+     * @return Transformed and filtered copy of the source as a
+     *	       <code>BufferedImage</code>.
+     *
+     * @throws ImagingOpException if the transformation failed due to a
+     *	       non-invertible transform or any other unsupported operation.
+     */
+    public BufferedImage transformAndFilter(WritableRaster source,
+					    ColorModel sourceColorModel,
+					    AffineTransform transform,
+					    Dimension outputSize,
+					    LookUpTable lut,
+					    BufferedImage previousResult,
+					    Viewport.InterpolationMode mode);
+}
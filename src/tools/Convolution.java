@@ -0,0 +1,451 @@
+/*
+ * @(#)Convolution.java		1.10 26/10/19
+ *
+ * ChargedFluid package
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2007 Herbert H.H. Chang, Daniel J. Valentino, Gary R. Duckwiler, and Arthur W. Toga
+ * Laboratory of Neuro Imaging, Department of Neurology, UCLA.
+ */
+
+package tools;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Convolution class is dedicated to the filtering of 2D images by convolution. Each filter picks the
+ * cheapest of three methods: direct convolution for small kernels, two 1D passes for separable
+ * kernels (Gaussian and box, the box with running sums), and multiplication of spectra computed by
+ * FastFourierTransform for large kernels. All methods give the same result: pixels outside the image
+ * take the value of the nearest border pixel, and the result has the size of the image. Arrays are
+ * indexed as array[x][y].
+ * <p>
+ * The spectra of kernels are cached per kernel array and padded size, so filtering every slice of
+ * a volume with the same kernel transforms the kernel only once. The cache keeps the
+ * SPECTRUM_CACHE_SIZE spectra used most recently, and with them their kernel arrays; a caller which
+ * builds a new kernel for every call gains nothing from it and only evicts the others. One
+ * Convolution may be shared by several threads.
+ */
+public final class Convolution
+{
+  /** Kernel area per pixel, relative to log2 of the padded image area, above which FFT is used. */
+  private static final double FFT_THRESHOLD = 4.0;
+
+  /** Method chosen by the size of the kernel. */
+  public static final int AUTO = 0;
+
+  /** Direct convolution. */
+  public static final int DIRECT = 1;
+
+  /** Convolution by multiplication of spectra. */
+  public static final int FFT = 2;
+
+  /** Largest number of cached kernel spectra. */
+  public static final int SPECTRUM_CACHE_SIZE = 16;
+
+  /** Cached kernel spectra: (kernel array, padded size) -> {real, imag}, the least recently used
+   *  first. */
+  private final Map _spectra = new LinkedHashMap(SPECTRUM_CACHE_SIZE, 0.75f, true)
+  {
+    protected boolean removeEldestEntry(Map.Entry eldest)
+    {
+      return size() > SPECTRUM_CACHE_SIZE;
+    }
+  };
+
+  /** Cached Gaussian kernels by sigma. */
+  private final Map _gaussians = new HashMap();
+
+
+  /**
+   * gaussianKernel function returns a normalized 1D Gaussian kernel truncated at 3 sigma.
+   *
+   * @param sigma Input double value representing the standard deviation in pixels.
+   * @return double[] Kernel of odd length 2 * ceil(3 sigma) + 1.
+   */
+  public static double[] gaussianKernel(double sigma)
+  {
+    if (sigma <= 0)
+      throw new IllegalArgumentException("sigma must be positive: " + sigma);
+    int radius = (int)Math.ceil(3 * sigma);
+    double[] kernel = new double[2 * radius + 1];
+    double sum = 0;
+    for (int i = -radius; i <= radius; i++)
+    {
+      kernel[i + radius] = Math.exp(-0.5 * i * i / (sigma * sigma));
+      sum += kernel[i + radius];
+    }
+    for (int i = 0; i < kernel.length; i++)
+      kernel[i] /= sum;
+    return kernel;
+  }	//End of gaussianKernel
+
+
+  /**
+   * gaussian function smooths an image with a Gaussian of the given standard deviation, as two 1D
+   * passes.
+   *
+   * @param image Input double array; it is not modified.
+   * @param sigma Input double value representing the standard deviation in pixels.
+   * @return double[][] The smoothed image.
+   */
+  public double[][] gaussian(double[][] image, double sigma)
+  {
+    double[] kernel;
+    Double key = Double.valueOf(sigma);
+    synchronized (_gaussians)
+    {
+      kernel = (double[])_gaussians.get(key);
+      if (kernel == null)
+      {
+        kernel = gaussianKernel(sigma);
+        _gaussians.put(key, kernel);
+      }
+    }
+    return convolveSeparable(image, kernel, kernel);
+  }	//End of gaussian
+
+
+  /**
+   * box function averages an image over a size x size window centered at each pixel, with running
+   * sums whose cost does not depend on the window size.
+   *
+   * @param image Input double array; it is not modified.
+   * @param size Input integer representing the odd side of the window.
+   * @return double[][] The averaged image.
+   */
+  public double[][] box(double[][] image, int size)
+  {
+    if (size < 1 || size % 2 == 0)
+      throw new IllegalArgumentException("Box size must be odd and positive: " + size);
+    int width = image.length;
+    int height = image[0].length;
+    int radius = size / 2;
+    double scale = 1.0 / size;
+
+    // Along y
+    double[][] temp = new double[width][height];
+    for (int x = 0; x < width; x++)
+    {
+      double[] in = image[x];
+      double[] out = temp[x];
+      double sum = 0;
+      for (int j = -radius; j <= radius; j++)
+        sum += in[_clamp(j, height)];
+      for (int y = 0; y < height; y++)
+      {
+        out[y] = sum * scale;
+        sum += in[_clamp(y + radius + 1, height)] - in[_clamp(y - radius, height)];
+      }
+    }
+
+    // Along x
+    double[][] result = new double[width][height];
+    double[] sums = new double[height];
+    for (int i = -radius; i <= radius; i++)
+    {
+      double[] in = temp[_clamp(i, width)];
+      for (int y = 0; y < height; y++)
+        sums[y] += in[y];
+    }
+    for (int x = 0; x < width; x++)
+    {
+      double[] out = result[x];
+      double[] add = temp[_clamp(x + radius + 1, width)];
+      double[] remove = temp[_clamp(x - radius, width)];
+      for (int y = 0; y < height; y++)
+      {
+        out[y] = sums[y] * scale;
+        sums[y] += add[y] - remove[y];
+      }
+    }
+    return result;
+  }	//End of box
+
+
+  /**
+   * convolveSeparable function convolves an image with the outer product of two 1D kernels, as a
+   * pass along x and a pass along y.
+   *
+   * @param image Input double array; it is not modified.
+   * @param kernelX Input 1D kernel of odd length along x.
+   * @param kernelY Input 1D kernel of odd length along y.
+   * @return double[][] The filtered image.
+   */
+  public double[][] convolveSeparable(double[][] image, double[] kernelX, double[] kernelY)
+  {
+    int width = image.length;
+    int height = image[0].length;
+    int rx = kernelX.length / 2;
+    int ry = kernelY.length / 2;
+
+    // Along y
+    double[][] temp = new double[width][height];
+    for (int x = 0; x < width; x++)
+    {
+      double[] in = image[x];
+      double[] out = temp[x];
+      for (int y = 0; y < height; y++)
+      {
+        double sum = 0;
+        if (y >= ry && y + ry < height)
+          for (int j = 0; j < kernelY.length; j++)
+            sum += kernelY[j] * in[y + ry - j];
+        else
+          for (int j = 0; j < kernelY.length; j++)
+            sum += kernelY[j] * in[_clamp(y + ry - j, height)];
+        out[y] = sum;
+      }
+    }
+
+    // Along x, a whole column at a time
+    double[][] result = new double[width][height];
+    for (int x = 0; x < width; x++)
+    {
+      double[] out = result[x];
+      for (int i = 0; i < kernelX.length; i++)
+      {
+        double k = kernelX[i];
+        double[] in = temp[_clamp(x + rx - i, width)];
+        for (int y = 0; y < height; y++)
+          out[y] += k * in[y];
+      }
+    }
+    return result;
+  }	//End of convolveSeparable
+
+
+  /**
+   * convolve function convolves an image with an arbitrary 2D kernel by the method that is
+   * cheapest for its size.
+   *
+   * @param image Input double array; it is not modified.
+   * @param kernel Input 2D kernel with odd sides, centered at kernel[w/2][h/2]. Its spectrum is
+   *               cached, so it should not be modified after the first call.
+   * @return double[][] The filtered image.
+   */
+  public double[][] convolve(double[][] image, double[][] kernel)
+  {
+    return convolve(image, kernel, AUTO);
+  }	//End of convolve
+
+
+  /**
+   * convolve function convolves an image with an arbitrary 2D kernel by the given method.
+   *
+   * @param image Input double array; it is not modified.
+   * @param kernel Input 2D kernel with odd sides, centered at kernel[w/2][h/2].
+   * @param method AUTO, DIRECT or FFT.
+   * @return double[][] The filtered image.
+   */
+  public double[][] convolve(double[][] image, double[][] kernel, int method)
+  {
+    if (kernel.length % 2 == 0 || kernel[0].length % 2 == 0)
+      throw new IllegalArgumentException("Kernel sides must be odd.");
+    if (method == AUTO)
+      method = chooseMethod(image.length, image[0].length, kernel.length, kernel[0].length);
+    if (method == FFT)
+      return _convolveFFT(image, kernel);
+    return _convolveDirect(image, kernel);
+  }	//End of convolve
+
+
+  /**
+   * chooseMethod function returns DIRECT or FFT for an image and kernel size. Direct convolution
+   * costs the kernel area per pixel; FFT costs a few transforms of the padded image, about
+   * log2 of its area per pixel each.
+   *
+   * @return int DIRECT or FFT.
+   */
+  public static int chooseMethod(int width, int height, int kernelWidth, int kernelHeight)
+  {
+    int paddedWidth = _paddedSize(width, kernelWidth);
+    int paddedHeight = _paddedSize(height, kernelHeight);
+    double fftCost = FFT_THRESHOLD * Math.log((double)paddedWidth * paddedHeight) / Math.log(2)
+      * paddedWidth * paddedHeight / ((double)width * height);
+    return (kernelWidth * kernelHeight > fftCost) ? FFT : DIRECT;
+  }	//End of chooseMethod
+
+
+  /**
+   * clearCache function forgets the cached kernel spectra.
+   */
+  public void clearCache()
+  {
+    synchronized (_spectra)
+    {
+      _spectra.clear();
+    }
+  }	//End of clearCache
+
+
+  /**
+   * _convolveDirect function convolves in the spatial domain.
+   */
+  private double[][] _convolveDirect(double[][] image, double[][] kernel)
+  {
+    int width = image.length;
+    int height = image[0].length;
+    int rx = kernel.length / 2;
+    int ry = kernel[0].length / 2;
+    double[][] result = new double[width][height];
+    for (int x = 0; x < width; x++)
+    {
+      double[] out = result[x];
+      for (int i = 0; i < kernel.length; i++)
+      {
+        double[] in = image[_clamp(x + rx - i, width)];
+        double[] k = kernel[i];
+        for (int y = 0; y < height; y++)
+        {
+          double sum = 0;
+          for (int j = 0; j < k.length; j++)
+            sum += k[j] * in[_clamp(y + ry - j, height)];
+          out[y] += sum;
+        }
+      }
+    }
+    return result;
+  }	//End of _convolveDirect
+
+
+  /**
+   * _convolveFFT function convolves by multiplying spectra. The image is padded by the kernel
+   * radius with its border values, so that the circular convolution equals the direct one.
+   */
+  private double[][] _convolveFFT(double[][] image, double[][] kernel)
+  {
+    int width = image.length;
+    int height = image[0].length;
+    int rx = kernel.length / 2;
+    int ry = kernel[0].length / 2;
+    int paddedWidth = _paddedSize(width, kernel.length);
+    int paddedHeight = _paddedSize(height, kernel[0].length);
+
+    // Pad the image with its border values
+    double[][] padded = new double[paddedWidth][paddedHeight];
+    for (int x = 0; x < paddedWidth; x++)
+    {
+      double[] in = image[_clamp(x - rx, width)];
+      for (int y = 0; y < paddedHeight; y++)
+        padded[x][y] = in[_clamp(y - ry, height)];
+    }
+    double[][] real = new double[paddedWidth][paddedHeight];
+    double[][] imag = new double[paddedWidth][paddedHeight];
+    FastFourierTransform.forwardRealFT2D(padded, real, imag);
+
+    // Multiply by the kernel spectrum; both transforms are scaled by 1/n
+    double[][][] spectrum = _getSpectrum(kernel, paddedWidth, paddedHeight);
+    double[][] kr = spectrum[0];
+    double[][] ki = spectrum[1];
+    double scale = (double)paddedWidth * paddedHeight;
+    for (int x = 0; x < paddedWidth; x++)
+      for (int y = 0; y < paddedHeight; y++)
+      {
+        double r = real[x][y] * kr[x][y] - imag[x][y] * ki[x][y];
+        imag[x][y] = (real[x][y] * ki[x][y] + imag[x][y] * kr[x][y]) * scale;
+        real[x][y] = r * scale;
+      }
+    FastFourierTransform.fastFT2D(real, imag, false);
+
+    // The kernel is stored with its center at the origin, so the result is not shifted
+    double[][] result = new double[width][height];
+    for (int x = 0; x < width; x++)
+      System.arraycopy(real[x + rx], ry, result[x], 0, height);
+    return result;
+  }	//End of _convolveFFT
+
+
+  /**
+   * _getSpectrum function returns the cached spectrum of a kernel at a padded size, computing it
+   * at the first call. The spectrum is computed outside the lock, so that other sizes and
+   * kernels are not held up meanwhile.
+   */
+  private double[][][] _getSpectrum(double[][] kernel, int paddedWidth, int paddedHeight)
+  {
+    SpectrumKey key = new SpectrumKey(kernel, paddedWidth, paddedHeight);
+    synchronized (_spectra)
+    {
+      double[][][] spectrum = (double[][][])_spectra.get(key);
+      if (spectrum != null)
+        return spectrum;
+    }
+
+    // Wrap the kernel around so that its center is at (0, 0)
+    int rx = kernel.length / 2;
+    int ry = kernel[0].length / 2;
+    double[][] wrapped = new double[paddedWidth][paddedHeight];
+    for (int i = 0; i < kernel.length; i++)
+      for (int j = 0; j < kernel[0].length; j++)
+        wrapped[(i - rx + paddedWidth) % paddedWidth][(j - ry + paddedHeight) % paddedHeight]
+          += kernel[i][j];
+    double[][][] spectrum = new double[2][paddedWidth][paddedHeight];
+    FastFourierTransform.forwardRealFT2D(wrapped, spectrum[0], spectrum[1]);
+
+    synchronized (_spectra)
+    {
+      // Another thread may have computed the same spectrum meanwhile
+      double[][][] cached = (double[][][])_spectra.get(key);
+      if (cached != null)
+        return cached;
+      _spectra.put(key, spectrum);
+      return spectrum;
+    }
+  }	//End of _getSpectrum
+
+
+  /**
+   * SpectrumKey class identifies a cached spectrum by the identity of its kernel array and the
+   * padded size.
+   */
+  private static final class SpectrumKey
+  {
+    private final double[][] _kernel;
+    private final int _width;
+    private final int _height;
+
+    SpectrumKey(double[][] kernel, int width, int height)
+    {
+      _kernel = kernel;
+      _width = width;
+      _height = height;
+    }
+
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof SpectrumKey))
+        return false;
+      SpectrumKey other = (SpectrumKey)o;
+      return _kernel == other._kernel && _width == other._width && _height == other._height;
+    }
+
+    public int hashCode()
+    {
+      return System.identityHashCode(_kernel) * 31 + _width * 17 + _height;
+    }
+  }	//End of SpectrumKey
+
+
+  /**
+   * _paddedSize function returns the power of 2 at least as large as the image side plus the
+   * kernel side.
+   */
+  private static int _paddedSize(int size, int kernelSize)
+  {
+    int padded = 1;
+    while (padded < size + kernelSize - 1)
+      padded <<= 1;
+    return padded;
+  }	//End of _paddedSize
+
+
+  /**
+   * _clamp function returns the nearest index inside [0, size).
+   */
+  private static int _clamp(int index, int size)
+  {
+    return (index < 0) ? 0 : (index >= size ? size - 1 : index);
+  }	//End of _clamp
+}
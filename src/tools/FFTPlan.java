@@ -0,0 +1,447 @@
+/*
+ * @(#)FFTPlan.java		1.10 26/10/19
+ *
+ * ChargedFluid package
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2007 Herbert H.H. Chang, Daniel J. Valentino, Gary R. Duckwiler, and Arthur W. Toga
+ * Laboratory of Neuro Imaging, Department of Neurology, UCLA.
+ */
+
+package tools;
+
+import java.util.HashMap;
+
+/**
+ * FFTPlan class holds the tables needed to compute 1D FFTs of one length: the bit reversal
+ * permutation and the twiddle factors for lengths of integer power of 2, and the chirp and
+ * its spectrum for other lengths, which are computed by Bluestein's algorithm as a convolution
+ * of power of 2 length. Plans are created once per length by getPlan and shared; they are
+ * never modified after creation, so one plan may be used by several threads.
+ * <p>
+ * The transforms follow the convention of FastFourierTransform: the forward transform uses
+ * exp(-2 pi i jk / n) and is scaled by 1/n, the inverse transform is not scaled.
+ */
+public final class FFTPlan
+{
+  /** Plans created so far, by length. */
+  private static final HashMap _plans = new HashMap();
+
+  /** Length of the transform. */
+  private final int _numOfPoint;
+
+  /** Whether the length is an integer power of 2. */
+  private final boolean _isPowerOf2;
+
+  /** Bit reversal permutation, for power of 2 lengths. */
+  private int[] _bitReverse;
+
+  /** cos(2 pi k / n) and sin(2 pi k / n) for k < n/2, for power of 2 lengths. */
+  private double[] _cos;
+  private double[] _sin;
+
+  /** Plan of the power of 2 convolution length, for Bluestein's algorithm. */
+  private FFTPlan _convPlan;
+
+  /** Chirp exp(-pi i k^2 / n), for Bluestein's algorithm. */
+  private double[] _chirpReal;
+  private double[] _chirpImag;
+
+  /** Unscaled spectra of the chirp filters of the forward and inverse transforms. */
+  private double[] _filterReal;
+  private double[] _filterImag;
+  private double[] _filterRealInv;
+  private double[] _filterImagInv;
+
+  /** exp(-2 pi i k / n) for k <= n/2, for the real input transform of even lengths. */
+  private double[] _realCos;
+  private double[] _realSin;
+
+  /** Plan of half the length, for the real input transform of even lengths. */
+  private volatile FFTPlan _halfPlan;
+
+
+  /**
+   * getPlan function returns the plan of the given length, creating it at the first call.
+   *
+   * @param numOfPoint Input integer representing the length of the transform.
+   * @return FFTPlan The plan of the given length.
+   */
+  public static FFTPlan getPlan(int numOfPoint)
+  {
+    if (numOfPoint < 1)
+      throw new IllegalArgumentException("FFT length must be positive: " + numOfPoint);
+    Integer key = Integer.valueOf(numOfPoint);
+    synchronized (_plans)
+    {
+      FFTPlan plan = (FFTPlan)_plans.get(key);
+      if (plan == null)
+      {
+        plan = new FFTPlan(numOfPoint);
+        _plans.put(key, plan);
+      }
+      return plan;
+    }
+  }	//End of getPlan
+
+
+  /**
+   * Creates the plan of the given length.
+   */
+  private FFTPlan(int numOfPoint)
+  {
+    _numOfPoint = numOfPoint;
+    _isPowerOf2 = (numOfPoint & (numOfPoint - 1)) == 0;
+
+    if (_isPowerOf2)
+    {
+      // Bit reversal permutation
+      _bitReverse = new int[numOfPoint];
+      int numOfPower = Integer.numberOfTrailingZeros(numOfPoint);
+      for (int i = 0; i < numOfPoint; i++)
+        _bitReverse[i] = (numOfPower == 0) ? 0 : Integer.reverse(i) >>> (32 - numOfPower);
+
+      // Twiddle factors, computed directly to avoid the error of recurrences
+      _cos = new double[Math.max(1, numOfPoint / 2)];
+      _sin = new double[_cos.length];
+      for (int k = 0; k < numOfPoint / 2; k++)
+      {
+        double angle = 2.0 * Math.PI * k / numOfPoint;
+        _cos[k] = Math.cos(angle);
+        _sin[k] = Math.sin(angle);
+      }
+    }
+    else
+      _createBluestein();
+
+    if (numOfPoint % 2 == 0 && numOfPoint >= 2)
+    {
+      int half = numOfPoint / 2;
+      _realCos = new double[half + 1];
+      _realSin = new double[half + 1];
+      for (int k = 0; k <= half; k++)
+      {
+        double angle = 2.0 * Math.PI * k / numOfPoint;
+        _realCos[k] = Math.cos(angle);
+        _realSin[k] = -Math.sin(angle);
+      }
+    }
+  }	//End of FFTPlan
+
+
+  /**
+   * _createBluestein function computes the chirp and the spectra of the chirp filters.
+   */
+  private void _createBluestein()
+  {
+    int n = _numOfPoint;
+    int m = 1;
+    while (m < 2 * n - 1)
+      m <<= 1;
+    _convPlan = getPlan(m);
+
+    // k^2 is reduced modulo 2n so that the angle stays small
+    _chirpReal = new double[n];
+    _chirpImag = new double[n];
+    long twoN = 2L * n;
+    for (int k = 0; k < n; k++)
+    {
+      double angle = Math.PI * (((long)k * k) % twoN) / n;
+      _chirpReal[k] = Math.cos(angle);
+      _chirpImag[k] = -Math.sin(angle);
+    }
+
+    // Forward filter is conj(chirp), inverse filter is chirp, both wrapped around
+    _filterReal = new double[m];
+    _filterImag = new double[m];
+    _filterRealInv = new double[m];
+    _filterImagInv = new double[m];
+    for (int k = 0; k < n; k++)
+    {
+      _filterReal[k] = _chirpReal[k];
+      _filterImag[k] = -_chirpImag[k];
+      _filterRealInv[k] = _chirpReal[k];
+      _filterImagInv[k] = _chirpImag[k];
+      if (k > 0)
+      {
+        _filterReal[m - k] = _filterReal[k];
+        _filterImag[m - k] = _filterImag[k];
+        _filterRealInv[m - k] = _filterRealInv[k];
+        _filterImagInv[m - k] = _filterImagInv[k];
+      }
+    }
+    _convPlan._radix2(_filterReal, _filterImag, true);
+    _convPlan._radix2(_filterRealInv, _filterImagInv, true);
+  }	//End of _createBluestein
+
+
+  /**
+   * getLength function returns the length of the transform.
+   *
+   * @return int The length of the transform.
+   */
+  public int getLength()
+  {
+    return _numOfPoint;
+  }	//End of getLength
+
+
+  /**
+   * isPowerOf2 function returns whether the length is an integer power of 2.
+   *
+   * @return boolean True if the radix 2 transform is used.
+   */
+  public boolean isPowerOf2()
+  {
+    return _isPowerOf2;
+  }	//End of isPowerOf2
+
+
+  /**
+   * transform function computes the 1D FFT of the given vectors in place.
+   *
+   * @param real Input double vector indicating the real part of the array.
+   * @param imag Input double vector indicating the imaginary part of the array.
+   * @param direction Boolean value, true indicates forward FFT; false inverse.
+   */
+  public void transform(double[] real, double[] imag, boolean direction)
+  {
+    if (_isPowerOf2)
+      _radix2(real, imag, direction);
+    else
+      _bluestein(real, imag, direction);
+
+    /* Scaling for forward FFT */
+    if (direction && _numOfPoint > 1)
+    {
+      double scale = 1.0 / _numOfPoint;
+      for (int i = 0; i < _numOfPoint; i++)
+      {
+        real[i] *= scale;
+        imag[i] *= scale;
+      }
+    }
+  }	//End of transform
+
+
+  /**
+   * forwardReal function computes the forward FFT of a real vector. For even lengths the
+   * vector is packed into a complex vector of half the length, which halves the work.
+   * Only the first n/2+1 coefficients are returned; the others are their complex conjugates.
+   *
+   * @param input Input double vector of the plan length; it is not modified.
+   * @param real Output double vector of at least n/2+1 elements for the real parts.
+   * @param imag Output double vector of at least n/2+1 elements for the imaginary parts.
+   */
+  public void forwardReal(double[] input, double[] real, double[] imag)
+  {
+    int n = _numOfPoint;
+    int half = n / 2;
+    if (n % 2 != 0 || n < 2)
+    {
+      double[] re = (double[])input.clone();
+      double[] im = new double[n];
+      transform(re, im, true);
+      System.arraycopy(re, 0, real, 0, half + 1);
+      System.arraycopy(im, 0, imag, 0, half + 1);
+      return;
+    }
+
+    // Even samples as real parts and odd samples as imaginary parts
+    double[] zr = new double[half];
+    double[] zi = new double[half];
+    for (int k = 0; k < half; k++)
+    {
+      zr[k] = input[2 * k];
+      zi[k] = input[2 * k + 1];
+    }
+    FFTPlan halfPlan = _getHalfPlan();
+    halfPlan.transform(zr, zi, true);
+
+    // Split the spectra of the even and odd samples; halfPlan scaled by 2/n
+    for (int k = 0; k <= half; k++)
+    {
+      int k1 = (k == half) ? 0 : k;
+      int k2 = (k == 0) ? 0 : half - k;
+      double ar = zr[k1], ai = zi[k1];
+      double br = zr[k2], bi = -zi[k2];
+      double er = (ar + br) * 0.5;
+      double ei = (ai + bi) * 0.5;
+      // o = (a - b) / (2i)
+      double or = (ai - bi) * 0.5;
+      double oi = -(ar - br) * 0.5;
+      double wr = _realCos[k], wi = _realSin[k];
+      real[k] = (er + wr * or - wi * oi) * 0.5;
+      imag[k] = (ei + wr * oi + wi * or) * 0.5;
+    }
+  }	//End of forwardReal
+
+
+  /**
+   * inverseReal function computes the inverse FFT of a spectrum with conjugate symmetry,
+   * given by its first n/2+1 coefficients as forwardReal returns them.
+   *
+   * @param real Input double vector of at least n/2+1 real parts; it is not modified.
+   * @param imag Input double vector of at least n/2+1 imaginary parts; it is not modified.
+   * @param output Output double vector of the plan length.
+   */
+  public void inverseReal(double[] real, double[] imag, double[] output)
+  {
+    int n = _numOfPoint;
+    int half = n / 2;
+    if (n % 2 != 0 || n < 2)
+    {
+      double[] re = new double[n];
+      double[] im = new double[n];
+      for (int k = 0; k <= half; k++)
+      {
+        re[k] = real[k];
+        im[k] = imag[k];
+        if (k > 0)
+        {
+          re[n - k] = real[k];
+          im[n - k] = -imag[k];
+        }
+      }
+      transform(re, im, false);
+      System.arraycopy(re, 0, output, 0, n);
+      return;
+    }
+
+    double[] zr = new double[half];
+    double[] zi = new double[half];
+    for (int k = 0; k < half; k++)
+    {
+      double ar = real[k], ai = imag[k];
+      double br = real[half - k], bi = -imag[half - k];
+      double er = ar + br;
+      double ei = ai + bi;
+      // o = (a - b) * conj(w), z = e + i o
+      double dr = ar - br, di = ai - bi;
+      double wr = _realCos[k], wi = -_realSin[k];
+      double or = dr * wr - di * wi;
+      double oi = dr * wi + di * wr;
+      zr[k] = er - oi;
+      zi[k] = ei + or;
+    }
+    _getHalfPlan().transform(zr, zi, false);
+    for (int k = 0; k < half; k++)
+    {
+      output[2 * k] = zr[k];
+      output[2 * k + 1] = zi[k];
+    }
+  }	//End of inverseReal
+
+
+  /**
+   * _getHalfPlan function returns the plan of half the length, creating it at the first call.
+   * Plans are shared by the threads transforming lines in parallel.
+   */
+  private FFTPlan _getHalfPlan()
+  {
+    FFTPlan plan = _halfPlan;
+    if (plan == null)
+    {
+      synchronized (this)
+      {
+        plan = _halfPlan;
+        if (plan == null)
+        {
+          plan = getPlan(_numOfPoint / 2);
+          _halfPlan = plan;
+        }
+      }
+    }
+    return plan;
+  }	//End of _getHalfPlan
+
+
+  /**
+   * _radix2 function computes the unscaled radix 2 FFT in place with the cached tables.
+   */
+  private void _radix2(double[] real, double[] imag, boolean direction)
+  {
+    int n = _numOfPoint;
+    double tr, ti;
+
+    /* Do the bit reversal */
+    for (int i = 0; i < n; i++)
+    {
+      int j = _bitReverse[i];
+      if (i < j)
+      {
+        tr = real[i];
+        ti = imag[i];
+        real[i] = real[j];
+        imag[i] = imag[j];
+        real[j] = tr;
+        imag[j] = ti;
+      }
+    }
+
+    /* Compute 1D FFT */
+    double sign = direction ? -1.0 : 1.0;
+    for (int half = 1; half < n; half <<= 1)		//Loops through stages
+    {
+      int step = n / (half << 1);
+      for (int j = 0; j < half; j++)
+      {
+        double u1 = _cos[j * step];
+        double u2 = sign * _sin[j * step];
+        for (int i = j; i < n; i += half << 1)
+        {
+          int i1 = i + half;
+          double t1 = u1 * real[i1] - u2 * imag[i1];
+          double t2 = u1 * imag[i1] + u2 * real[i1];
+          real[i1] = real[i] - t1;
+          imag[i1] = imag[i] - t2;
+          real[i] += t1;
+          imag[i] += t2;
+        }
+      }
+    }
+  }	//End of _radix2
+
+
+  /**
+   * _bluestein function computes the unscaled FFT of any length in place as a power of 2
+   * convolution with the chirp.
+   */
+  private void _bluestein(double[] real, double[] imag, boolean direction)
+  {
+    int n = _numOfPoint;
+    int m = _convPlan._numOfPoint;
+    double[] ar = new double[m];
+    double[] ai = new double[m];
+
+    // Multiply by the chirp (forward) or its conjugate (inverse)
+    double sign = direction ? 1.0 : -1.0;
+    for (int k = 0; k < n; k++)
+    {
+      double cr = _chirpReal[k], ci = sign * _chirpImag[k];
+      ar[k] = real[k] * cr - imag[k] * ci;
+      ai[k] = real[k] * ci + imag[k] * cr;
+    }
+
+    // Convolve with the filter
+    _convPlan._radix2(ar, ai, true);
+    double[] fr = direction ? _filterReal : _filterRealInv;
+    double[] fi = direction ? _filterImag : _filterImagInv;
+    for (int k = 0; k < m; k++)
+    {
+      double tr = ar[k] * fr[k] - ai[k] * fi[k];
+      ai[k] = ar[k] * fi[k] + ai[k] * fr[k];
+      ar[k] = tr;
+    }
+    _convPlan._radix2(ar, ai, false);
+
+    // Multiply by the chirp again and undo the scaling of the convolution
+    double scale = 1.0 / m;
+    for (int k = 0; k < n; k++)
+    {
+      double cr = _chirpReal[k], ci = sign * _chirpImag[k];
+      real[k] = (ar[k] * cr - ai[k] * ci) * scale;
+      imag[k] = (ar[k] * ci + ai[k] * cr) * scale;
+    }
+  }	//End of _bluestein
+}
@@ -10,19 +10,33 @@
 
 package tools;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /** 
  * FastFourierTransform class is mainly dedicated to the calculation of 2D Fast Fourier Transform.
  * There are fastFT1D method for one dimensional FFT and fastFT2D method for two dimensional FFT.
+ * The transforms use the plans of FFTPlan, which are cached per length and accept any length.
  */
 public final class FastFourierTransform
 {
+  /** Side of the square blocks of transpose. */
+  private static final int TRANSPOSE_BLOCK = 32;
+
+  /** Number of lines below which a parallel pass is not split further. */
+  private static final int PARALLEL_GRAIN = 8;
+
+  /** Pool shared by the parallel transforms that are not given one. */
+  private static ForkJoinPool _pool;
+
 
    /** 
-    * fastFT2D function accepts two double type arrays of length of integer power of 2 and a boolean
-    * value representing forward (true) or backward (false) 2D FFT. This method returns the real part 
-    * results restoring in the original realArray and the imaginary part in the original imagArray.
-    * Note that both given arrays must have the same dimension or it will throw an exception.
-    * If they are not an integer power of 2, it will throw an exception too.
+    * fastFT2D function accepts two double type arrays and a boolean value representing forward (true)
+    * or backward (false) 2D FFT. This method returns the real part results restoring in the original
+    * realArray and the imaginary part in the original imagArray. Note that both given arrays must have
+    * the same dimension or it will throw an exception. Any size is accepted; sizes that are not an
+    * integer power of 2 are transformed by Bluestein's algorithm (see FFTPlan). The columns are
+    * transformed as rows of a blocked transpose of the arrays.
     *
     * @param realArray Input double array representing real parts of complex variables.
     * @param imagArray Input double array representing imaginary parts of complex variables.
@@ -32,65 +46,365 @@ public final class FastFourierTransform
   {
     int numOfRow, numOfCol;
     int numOfRowImag, numOfColImag;
-    int numOfPowerInRow, numOfPowerInCol;
-    double[] realCol;
-    double[] imagCol;
 
     numOfRow = realArray.length;
     numOfCol = realArray[0].length;
     numOfRowImag = imagArray.length;
     numOfColImag = imagArray[0].length;
 
-    /* Allocate and initialize memories to double variables */
-    realCol = new double[numOfRow];
-    imagCol = new double[numOfRow];
-
     try
     {
       //check if the dimensions of both arrays are the same or not!
       checkSizeOfArray(numOfRow, numOfCol, numOfRowImag, numOfColImag);
-      numOfPowerInRow = checkPowerOf2(numOfRow);	//check if numOfRow is an integer power of 2 or not!
-      numOfPowerInCol = checkPowerOf2(numOfCol);	//check if numOfCol is an integer power of 2 or not!
-      
-      /* Transform array in rows */
-      for (int row = 0; row < numOfRow; row++)
+    }
+    catch(NotSameArraySizeException e)
+    {
+      System.out.println("\n" + e);
+      System.out.println("Warning: Please assign real and imaginary arrays with the same dimension");
+      return;
+    }
+
+    /* Transform array in rows */
+    FFTPlan rowPlan = FFTPlan.getPlan(numOfCol);
+    for (int row = 0; row < numOfRow; row++)
+      rowPlan.transform(realArray[row], imagArray[row], direction);
+
+    /* Transform array in columns, as rows of the transposed array */
+    FFTPlan colPlan = FFTPlan.getPlan(numOfRow);
+    double[][] realT = new double[numOfCol][numOfRow];
+    double[][] imagT = new double[numOfCol][numOfRow];
+    transpose(realArray, realT);
+    transpose(imagArray, imagT);
+    for (int col = 0; col < numOfCol; col++)
+      colPlan.transform(realT[col], imagT[col], direction);
+    transpose(realT, realArray);
+    transpose(imagT, imagArray);
+  }	//End of fastFT2D
+
+
+  /** 
+   * forwardRealFT2D function computes the forward 2D FFT of a real array. The rows are transformed
+   * with the real input transform of FFTPlan and only the columns of the first half of the spectrum
+   * are transformed; the other half is filled in by conjugate symmetry.
+   *
+   * @param input Input double array of real values; it is not modified.
+   * @param realArray Output double array of the same size for the real parts.
+   * @param imagArray Output double array of the same size for the imaginary parts.
+   */
+  public static void forwardRealFT2D(double[][] input, double[][] realArray, double[][] imagArray)
+  {
+    int numOfRow = input.length;
+    int numOfCol = input[0].length;
+    int numOfHalf = numOfCol / 2 + 1;
+
+    /* Transform array in rows, keeping columns 0 to numOfCol/2 transposed */
+    FFTPlan rowPlan = FFTPlan.getPlan(numOfCol);
+    double[][] realT = new double[numOfHalf][numOfRow];
+    double[][] imagT = new double[numOfHalf][numOfRow];
+    double[] realRow = new double[numOfHalf];
+    double[] imagRow = new double[numOfHalf];
+    for (int row = 0; row < numOfRow; row++)
+    {
+      rowPlan.forwardReal(input[row], realRow, imagRow);
+      for (int col = 0; col < numOfHalf; col++)
       {
-        /* Compute 1D FFT via function fastFT1D() */
-        fastFT1D(realArray[row], imagArray[row], numOfPowerInCol, direction);
+        realT[col][row] = realRow[col];
+        imagT[col][row] = imagRow[col];
       }
+    }
+
+    /* Transform the first half of the columns */
+    FFTPlan colPlan = FFTPlan.getPlan(numOfRow);
+    for (int col = 0; col < numOfHalf; col++)
+      colPlan.transform(realT[col], imagT[col], true);
 
-      /* Transform array in columns */
-      for (int col = 0; col < numOfCol; col++)
+    /* Store the first half and fill in the second half by conjugate symmetry */
+    for (int row = 0; row < numOfRow; row++)
+    {
+      int mirrorRow = (numOfRow - row) % numOfRow;
+      for (int col = 0; col < numOfHalf; col++)
       {
-        // Extract one vector from array for real and imaginary parts
-        for (int row = 0; row < numOfRow; row++)
-        {
-          realCol[row] = realArray[row][col];
-          imagCol[row] = imagArray[row][col];
-        }
-        
-        /* Compute 1D FFT via function fastFT1D() */
-        fastFT1D(realCol, imagCol, numOfPowerInRow, direction);
+        realArray[row][col] = realT[col][row];
+        imagArray[row][col] = imagT[col][row];
+      }
+      for (int col = numOfHalf; col < numOfCol; col++)
+      {
+        realArray[row][col] = realT[numOfCol - col][mirrorRow];
+        imagArray[row][col] = -imagT[numOfCol - col][mirrorRow];
+      }
+    }
+  }	//End of forwardRealFT2D
+
 
-        // Store one vector into array after FFT for real and imaginary parts
-        for (int row = 0; row < numOfRow; row++)
+  /** 
+   * transpose function copies the transpose of an array into another, in square blocks so that
+   * both arrays are accessed within a few cache lines at a time.
+   *
+   * @param src Input double array of m rows and n columns.
+   * @param dst Output double array of n rows and m columns.
+   */
+  public static void transpose(double[][] src, double[][] dst)
+  {
+    int numOfRow = src.length;
+    int numOfCol = src[0].length;
+    for (int row0 = 0; row0 < numOfRow; row0 += TRANSPOSE_BLOCK)
+    {
+      int row1 = Math.min(row0 + TRANSPOSE_BLOCK, numOfRow);
+      for (int col0 = 0; col0 < numOfCol; col0 += TRANSPOSE_BLOCK)
+      {
+        int col1 = Math.min(col0 + TRANSPOSE_BLOCK, numOfCol);
+        for (int row = row0; row < row1; row++)
         {
-          realArray[row][col] = realCol[row];
-          imagArray[row][col] = imagCol[row];
+          double[] srcRow = src[row];
+          for (int col = col0; col < col1; col++)
+            dst[col][row] = srcRow[col];
         }
       }
     }
+  }	//End of transpose
+
+
+  /** 
+   * getPool function returns the pool used by the parallel transforms when none is given,
+   * creating it at the first call with one thread per processor.
+   *
+   * @return ForkJoinPool The shared pool.
+   */
+  public static synchronized ForkJoinPool getPool()
+  {
+    if (_pool == null)
+      _pool = new ForkJoinPool();
+    return _pool;
+  }	//End of getPool
+
+
+  /** 
+   * parallelFT2D function computes the same transform as fastFT2D on the shared pool.
+   *
+   * @param realArray Input double array representing real parts of complex variables.
+   * @param imagArray Input double array representing imaginary parts of complex variables.
+   * @param direction Boolean value, true indicates forward 2D FFT; false inverse.
+   */
+  public static void parallelFT2D(double[][] realArray, double[][] imagArray, boolean direction)
+  {
+    parallelFT2D(realArray, imagArray, direction, getPool());
+  }	//End of parallelFT2D
+
+
+  /** 
+   * parallelFT2D function computes the same transform as fastFT2D with the row transforms, the
+   * blocked transposes and the column transforms each distributed across the given pool.
+   *
+   * @param realArray Input double array representing real parts of complex variables.
+   * @param imagArray Input double array representing imaginary parts of complex variables.
+   * @param direction Boolean value, true indicates forward 2D FFT; false inverse.
+   * @param pool The ForkJoinPool to run on.
+   */
+  public static void parallelFT2D(final double[][] realArray, final double[][] imagArray,
+                                  final boolean direction, ForkJoinPool pool)
+  {
+    final int numOfRow = realArray.length;
+    final int numOfCol = realArray[0].length;
+    try
+    {
+      checkSizeOfArray(numOfRow, numOfCol, imagArray.length, imagArray[0].length);
+    }
     catch(NotSameArraySizeException e)
     {
       System.out.println("\n" + e);
       System.out.println("Warning: Please assign real and imaginary arrays with the same dimension");
+      return;
     }
-    catch(NotPowerOf2Exception e)
+
+    /* Transform array in rows */
+    final FFTPlan rowPlan = FFTPlan.getPlan(numOfCol);
+    pool.invoke(new LinePass(0, numOfRow) {
+        void computeLines(int lo, int hi)
+        {
+          for (int row = lo; row < hi; row++)
+            rowPlan.transform(realArray[row], imagArray[row], direction);
+        }
+      });
+
+    /* Transform array in columns, as rows of the transposed array */
+    final FFTPlan colPlan = FFTPlan.getPlan(numOfRow);
+    final double[][] realT = new double[numOfCol][numOfRow];
+    final double[][] imagT = new double[numOfCol][numOfRow];
+    pool.invoke(new LinePass(0, numOfCol) {
+        void computeLines(int lo, int hi)
+        {
+          _transposeColumns(realArray, realT, lo, hi);
+          _transposeColumns(imagArray, imagT, lo, hi);
+          for (int col = lo; col < hi; col++)
+            colPlan.transform(realT[col], imagT[col], direction);
+        }
+      });
+    pool.invoke(new LinePass(0, numOfRow) {
+        void computeLines(int lo, int hi)
+        {
+          _transposeColumns(realT, realArray, lo, hi);
+          _transposeColumns(imagT, imagArray, lo, hi);
+        }
+      });
+  }	//End of parallelFT2D
+
+
+  /** 
+   * parallelFT3D function computes the 3D FFT of a volume held in flat arrays on the shared pool.
+   *
+   * @see #parallelFT3D(double[], double[], int, int, int, boolean, ForkJoinPool)
+   */
+  public static void parallelFT3D(double[] real, double[] imag, int width, int height, int depth,
+                                  boolean direction)
+  {
+    parallelFT3D(real, imag, width, height, depth, direction, getPool());
+  }	//End of parallelFT3D
+
+
+  /** 
+   * parallelFT3D function computes the 3D FFT of a volume held in flat arrays, where voxel
+   * (x, y, z) is at (z * height + y) * width + x. The transforms along x and y are distributed
+   * by slice and the transforms along z by row of the slices. Lines along y and z are gathered
+   * a block of TRANSPOSE_BLOCK lines at a time, so that the strided reads touch whole cache lines.
+   *
+   * @param real Input double array representing real parts of complex variables.
+   * @param imag Input double array representing imaginary parts of complex variables.
+   * @param width The number of voxels along x.
+   * @param height The number of voxels along y.
+   * @param depth The number of voxels along z.
+   * @param direction Boolean value, true indicates forward 3D FFT; false inverse.
+   * @param pool The ForkJoinPool to run on.
+   */
+  public static void parallelFT3D(final double[] real, final double[] imag, final int width,
+                                  final int height, final int depth, final boolean direction,
+                                  ForkJoinPool pool)
+  {
+    if (real.length != imag.length || real.length != width * height * depth)
+      throw new IllegalArgumentException("Arrays must hold width * height * depth elements.");
+
+    /* Transform along x and y, slice by slice */
+    pool.invoke(new LinePass(0, depth) {
+        void computeLines(int lo, int hi)
+        {
+          for (int z = lo; z < hi; z++)
+          {
+            int base = z * height * width;
+            _transformLines(real, imag, base, width, 1, height, width, direction);
+            _transformLines(real, imag, base, height, width, width, 1, direction);
+          }
+        }
+      });
+
+    /* Transform along z, row by row */
+    pool.invoke(new LinePass(0, height) {
+        void computeLines(int lo, int hi)
+        {
+          for (int y = lo; y < hi; y++)
+            _transformLines(real, imag, y * width, depth, width * height, width, 1, direction);
+        }
+      });
+  }	//End of parallelFT3D
+
+
+  /** 
+   * _transformLines function transforms numOfLine lines of length n in flat arrays. Element i of
+   * line j is at base + j * lineStride + i * stride. Lines are copied out in blocks of
+   * TRANSPOSE_BLOCK lines.
+   */
+  private static void _transformLines(double[] real, double[] imag, int base, int n, int stride,
+                                      int numOfLine, int lineStride, boolean direction)
+  {
+    FFTPlan plan = FFTPlan.getPlan(n);
+    int block = Math.min(TRANSPOSE_BLOCK, numOfLine);
+    double[][] re = new double[block][n];
+    double[][] im = new double[block][n];
+    for (int j0 = 0; j0 < numOfLine; j0 += block)
     {
-      System.out.println("\n" + e);
-      System.out.println("Warning: Please assign a array length of integer power of 2");
+      int j1 = Math.min(j0 + block, numOfLine);
+      for (int i = 0; i < n; i++)
+      {
+        int index = base + i * stride + j0 * lineStride;
+        for (int j = j0; j < j1; j++, index += lineStride)
+        {
+          re[j - j0][i] = real[index];
+          im[j - j0][i] = imag[index];
+        }
+      }
+      for (int j = j0; j < j1; j++)
+        plan.transform(re[j - j0], im[j - j0], direction);
+      for (int i = 0; i < n; i++)
+      {
+        int index = base + i * stride + j0 * lineStride;
+        for (int j = j0; j < j1; j++, index += lineStride)
+        {
+          real[index] = re[j - j0][i];
+          imag[index] = im[j - j0][i];
+        }
+      }
     }
-  }	//End of fastFT2D
+  }	//End of _transformLines
+
+
+  /** 
+   * _transposeColumns function copies columns lo to hi-1 of src into rows lo to hi-1 of dst,
+   * in blocks as transpose does.
+   */
+  private static void _transposeColumns(double[][] src, double[][] dst, int lo, int hi)
+  {
+    int numOfRow = src.length;
+    for (int row0 = 0; row0 < numOfRow; row0 += TRANSPOSE_BLOCK)
+    {
+      int row1 = Math.min(row0 + TRANSPOSE_BLOCK, numOfRow);
+      for (int col0 = lo; col0 < hi; col0 += TRANSPOSE_BLOCK)
+      {
+        int col1 = Math.min(col0 + TRANSPOSE_BLOCK, hi);
+        for (int row = row0; row < row1; row++)
+        {
+          double[] srcRow = src[row];
+          for (int col = col0; col < col1; col++)
+            dst[col][row] = srcRow[col];
+        }
+      }
+    }
+  }	//End of _transposeColumns
+
+
+  /** 
+   * LinePass class splits a range of independent lines in halves until they are few enough,
+   * then processes them with computeLines.
+   */
+  private static abstract class LinePass extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final int _lo;
+    private final int _hi;
+
+    LinePass(int lo, int hi)
+    {
+      _lo = lo;
+      _hi = hi;
+    }
+
+    abstract void computeLines(int lo, int hi);
+
+    protected void compute()
+    {
+      if (_hi - _lo <= PARALLEL_GRAIN)
+      {
+        computeLines(_lo, _hi);
+        return;
+      }
+      int mid = (_lo + _hi) >>> 1;
+      final LinePass parent = this;
+      invokeAll(new LinePass(_lo, mid) {
+          void computeLines(int lo, int hi) { parent.computeLines(lo, hi); }
+        },
+        new LinePass(mid, _hi) {
+          void computeLines(int lo, int hi) { parent.computeLines(lo, hi); }
+        });
+    }
+  }	//End of LinePass
 
 
   /** 
@@ -108,26 +422,18 @@ public final class FastFourierTransform
   }     //End of checkSizeOfArray
 
 
-  /** 
-   * checkPowerOf2 function accepts a integer and check if this value is an integer power of 2 or
-   * not. If it is an integer power of 2, this function returns the number of power of 2.
-   * If it is not an integer power of 2, this function throws a NotPowerOf2Exception.
-   *
-   * @param index Input integer value for examination.
-   * @return int Output integer value representing the number of power of 2.
-   */
-  static int checkPowerOf2(int index) throws NotPowerOf2Exception
+   /** 
+    * fastFT1D function accepts two double type vectors of any length and a boolean value indicating
+    * forward FFT or not, and transforms them in place with the cached plan of their length.
+    * 
+    * @param real Input double vector indicating the real part of the array.
+    * @param imag Input double vector indicating the imaginary part of the array.
+    * @param direction Boolean value, true indicates forward FFT; false inverse.
+    */
+  public static void fastFT1D(double[] real, double[] imag, boolean direction)
   {
-    // check if index is an integer power of 2
-    if ( index < 2 )
-      throw new NotPowerOf2Exception(index);
-    if ( (index & (index-1)) != 0 )
-      throw new NotPowerOf2Exception(index);
-    // calculate the number of bits needed
-    for (int i = 0; ; i++)
-      if ( (index & (1<<i)) != 0 )
-        return i;
-  }     //End of checkPowerOf2
+    FFTPlan.getPlan(real.length).transform(real, imag, direction);
+  }	//End of fastFT1D
 
 
    /** 
@@ -141,73 +447,6 @@ public final class FastFourierTransform
     */
   static void fastFT1D(double[] real, double[] imag, int numOfPower, boolean direct)
   {
-    int numOfPoint, i1, i2, j2, k2, l1, l2;
-    double tr, ti, c1, c2, u1, u2, t1, t2, z;
-
-    numOfPoint = real.length;
-
-    /* Do the bit reversal */
-    i2 = numOfPoint >> 1;
-    j2 = 0;
-    for (int i = 0; i < numOfPoint - 1; i++)
-    {
-      if (i < j2)
-      {
-        tr = real[i];
-        ti = imag[i];
-        real[i] = real[j2];
-        imag[i] = imag[j2];
-        real[j2] = tr;
-        imag[j2] = ti;
-      }
-      k2 = i2;
-      while (k2 <= j2)
-      {
-        j2 -= k2;
-        k2 >>= 1;
-      } 
-      j2 += k2;
-    }
-  
-    /* Compute 1D FFT */
-    c1 = -1.0;
-    c2 = 0.0;
-    l2 = 1;
-    for (int l = 0; l < numOfPower; l++)		//Loops through stages
-    {
-      l1 = l2;
-      l2 <<= 1;
-      u1 = 1.0;
-      u2 = 0.0;
-  
-      for (int j = 0; j < l1; j++)
-      {
-        for (int i = j; i < numOfPoint; i += l2)
-        {
-          i1 = i + l1;
-          t1 = u1 * real[i1] - u2 * imag[i1];
-          t2 = u1 * imag[i1] + u2 * real[i1];
-          real[i1] = real[i] - t1;
-          imag[i1] = imag[i] - t2;
-          real[i] += t1;
-          imag[i] += t2;
-        }
-        z = u1 * c1 - u2 * c2;
-        u2 = u1 * c2 + u2 * c1;
-        u1 = z;
-      }
-      c2 = Math.sqrt((1.0 - c1) / 2.0);
-      if (direct)
-        c2 = -c2;
-      c1 = Math.sqrt((1.0 + c1) / 2.0);
-    }
-
-    /* Scaling for forward FFT */
-    if (direct)
-      for (int i = 0; i < numOfPoint; i++)
-      {
-        real[i] /= (double)numOfPoint;
-        imag[i] /= (double)numOfPoint;
-      }
+    FFTPlan.getPlan(1 << numOfPower).transform(real, imag, direct);
   }	//End of fastFT1D
 }
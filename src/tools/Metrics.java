@@ -0,0 +1,312 @@
+/*
+ * @(#)Metrics.java		1.10 26/10/19
+ *
+ * ChargedFluid package
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2007 Herbert H.H. Chang, Daniel J. Valentino, Gary R. Duckwiler, and Arthur W. Toga
+ * Laboratory of Neuro Imaging, Department of Neurology, UCLA.
+ */
+
+package tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+/**
+ * Metrics class is an in-process registry of named counters and histograms for the hot paths of
+ * the program: level set iterations, slice convergence, texture computation and image decoding.
+ * Counters and histograms are created at the first lookup of their name and updated with atomic
+ * operations, so they may be kept in static fields and updated from any thread without locking.
+ * The registry is registered as an MXBean named "FinalProject:type=Metrics", so a running program
+ * can be inspected with jconsole or any JMX client.
+ * <p>
+ * Durations are recorded in microseconds; names ending in ".us" hold durations by convention.
+ */
+public final class Metrics implements MetricsMXBean
+{
+  /** The JMX name of the registry. */
+  public static final String OBJECT_NAME = "FinalProject:type=Metrics";
+
+  /** The registry. */
+  private static final Metrics _instance = new Metrics();
+
+  /** Counters by name. */
+  private final Map _counters = new TreeMap();
+
+  /** Histograms by name. */
+  private final Map _histograms = new TreeMap();
+
+  static
+  {
+    try
+    {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(_instance,
+                                                               new ObjectName(OBJECT_NAME));
+    }
+    catch (Exception e)
+    {
+      System.out.println("Warning: Metrics are not available over JMX: " + e);
+    }
+  }
+
+
+  /**
+   * Creates the registry.
+   */
+  private Metrics()
+  {
+  }	//End of Metrics
+
+
+  /**
+   * counter function returns the counter of the given name, creating it at the first call.
+   *
+   * @param name Input string representing the name of the counter.
+   * @return Counter The counter.
+   */
+  public static Counter counter(String name)
+  {
+    synchronized (_instance._counters)
+    {
+      Counter counter = (Counter)_instance._counters.get(name);
+      if (counter == null)
+      {
+        counter = new Counter();
+        _instance._counters.put(name, counter);
+      }
+      return counter;
+    }
+  }	//End of counter
+
+
+  /**
+   * histogram function returns the histogram of the given name, creating it at the first call.
+   *
+   * @param name Input string representing the name of the histogram.
+   * @return Histogram The histogram.
+   */
+  public static Histogram histogram(String name)
+  {
+    synchronized (_instance._histograms)
+    {
+      Histogram histogram = (Histogram)_instance._histograms.get(name);
+      if (histogram == null)
+      {
+        histogram = new Histogram();
+        _instance._histograms.put(name, histogram);
+      }
+      return histogram;
+    }
+  }	//End of histogram
+
+
+  /**
+   * getInstance function returns the registry, for reading it without JMX.
+   *
+   * @return Metrics The registry.
+   */
+  public static Metrics getInstance()
+  {
+    return _instance;
+  }	//End of getInstance
+
+
+  public Map<String, Long> getCounters()
+  {
+    Map<String, Long> values = new TreeMap<String, Long>();
+    synchronized (_counters)
+    {
+      for (Iterator it = _counters.entrySet().iterator(); it.hasNext(); )
+      {
+        Map.Entry entry = (Map.Entry)it.next();
+        values.put((String)entry.getKey(), Long.valueOf(((Counter)entry.getValue()).get()));
+      }
+    }
+    return values;
+  }	//End of getCounters
+
+
+  public Map<String, String> getHistograms()
+  {
+    Map<String, String> values = new TreeMap<String, String>();
+    synchronized (_histograms)
+    {
+      for (Iterator it = _histograms.entrySet().iterator(); it.hasNext(); )
+      {
+        Map.Entry entry = (Map.Entry)it.next();
+        values.put((String)entry.getKey(), entry.getValue().toString());
+      }
+    }
+    return values;
+  }	//End of getHistograms
+
+
+  public void reset()
+  {
+    synchronized (_counters)
+    {
+      for (Iterator it = _counters.values().iterator(); it.hasNext(); )
+        ((Counter)it.next())._value.set(0);
+    }
+    synchronized (_histograms)
+    {
+      for (Iterator it = _histograms.values().iterator(); it.hasNext(); )
+        ((Histogram)it.next())._reset();
+    }
+  }	//End of reset
+
+
+  /**
+   * toString function returns all counters and histograms, one per line.
+   */
+  public String toString()
+  {
+    StringBuffer buffer = new StringBuffer();
+    Map counters = getCounters();
+    for (Iterator it = counters.entrySet().iterator(); it.hasNext(); )
+    {
+      Map.Entry entry = (Map.Entry)it.next();
+      buffer.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+    }
+    Map histograms = getHistograms();
+    for (Iterator it = histograms.entrySet().iterator(); it.hasNext(); )
+    {
+      Map.Entry entry = (Map.Entry)it.next();
+      buffer.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+    }
+    return buffer.toString();
+  }	//End of toString
+
+
+  /**
+   * Counter class is a counter that is only increased.
+   */
+  public static final class Counter
+  {
+    private final AtomicLong _value = new AtomicLong();
+
+    /** Adds one. */
+    public void increment()
+    {
+      _value.incrementAndGet();
+    }
+
+    /** Adds the given amount. */
+    public void add(long amount)
+    {
+      _value.addAndGet(amount);
+    }
+
+    /** Returns the value. */
+    public long get()
+    {
+      return _value.get();
+    }
+  }	//End of Counter
+
+
+  /**
+   * Histogram class records non-negative values in buckets of powers of 2, with their count,
+   * sum and maximum. Percentiles are reported as the upper bound of their bucket.
+   */
+  public static final class Histogram
+  {
+    /** Bucket i holds values v with 2^(i-1) <= v < 2^i; bucket 0 holds 0. */
+    private final AtomicLongArray _buckets = new AtomicLongArray(64);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _sum = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * record function adds a value; negative values are recorded as 0.
+     *
+     * @param value Input long value to record.
+     */
+    public void record(long value)
+    {
+      if (value < 0)
+        value = 0;
+      _buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+      _count.incrementAndGet();
+      _sum.addAndGet(value);
+      long max = _max.get();
+      while (value > max && !_max.compareAndSet(max, value))
+        max = _max.get();
+    }	//End of record
+
+    /**
+     * recordSince function records the microseconds elapsed since a System.nanoTime() value.
+     *
+     * @param startNanos Input long value returned by System.nanoTime() at the start.
+     */
+    public void recordSince(long startNanos)
+    {
+      record((System.nanoTime() - startNanos) / 1000);
+    }	//End of recordSince
+
+    /** Returns the number of values recorded. */
+    public long getCount()
+    {
+      return _count.get();
+    }
+
+    /** Returns the mean of the values recorded, or 0. */
+    public double getMean()
+    {
+      long count = _count.get();
+      return (count == 0) ? 0 : (double)_sum.get() / count;
+    }
+
+    /** Returns the largest value recorded, or 0. */
+    public long getMax()
+    {
+      return _max.get();
+    }
+
+    /**
+     * getPercentile function returns the upper bound of the bucket holding the given fraction
+     * of the values.
+     *
+     * @param fraction Input double value between 0 and 1.
+     * @return long The approximate percentile.
+     */
+    public long getPercentile(double fraction)
+    {
+      long count = _count.get();
+      if (count == 0)
+        return 0;
+      long rank = (long)Math.ceil(fraction * count);
+      long seen = 0;
+      for (int i = 0; i < 64; i++)
+      {
+        seen += _buckets.get(i);
+        if (seen >= rank)
+          return Math.min((1L << i) - 1, getMax());
+      }
+      return getMax();
+    }	//End of getPercentile
+
+    public String toString()
+    {
+      return "count=" + getCount() + " mean=" + Math.round(getMean()) + " max=" + getMax()
+        + " p50=" + getPercentile(0.5) + " p90=" + getPercentile(0.9)
+        + " p99=" + getPercentile(0.99);
+    }
+
+    private void _reset()
+    {
+      for (int i = 0; i < 64; i++)
+        _buckets.set(i, 0);
+      _count.set(0);
+      _sum.set(0);
+      _max.set(0);
+    }
+  }	//End of Histogram
+}
@@ -0,0 +1,40 @@
+/*
+ * @(#)MetricsMXBean.java		1.10 26/10/19
+ *
+ * ChargedFluid package
+ *
+ * COPYRIGHT NOTICE
+ * Copyright (c) 2007 Herbert H.H. Chang, Daniel J. Valentino, Gary R. Duckwiler, and Arthur W. Toga
+ * Laboratory of Neuro Imaging, Department of Neurology, UCLA.
+ */
+
+package tools;
+
+import java.util.Map;
+
+/**
+ * MetricsMXBean interface is the JMX view of the Metrics registry, registered as
+ * "FinalProject:type=Metrics" in the platform MBean server.
+ */
+public interface MetricsMXBean
+{
+  /**
+   * getCounters function returns the value of every counter.
+   *
+   * @return Map from counter name to value.
+   */
+  Map<String, Long> getCounters();
+
+  /**
+   * getHistograms function returns a summary of every histogram: count, mean, maximum and
+   * approximate 50th, 90th and 99th percentiles.
+   *
+   * @return Map from histogram name to summary.
+   */
+  Map<String, String> getHistograms();
+
+  /**
+   * reset function sets every counter and histogram back to zero.
+   */
+  void reset();
+}
@@ -0,0 +1,287 @@
+/*
+ChargedFluid package
+
+COPYRIGHT NOTICE
+Copyright (c) 2003 Herbert H.H. Chang
+ */
+
+package tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+
+/* Reads the arrays written by WriteArrayData: NPY files of doubles or floats in either byte order,
+ * raw little-endian doubles of a known shape, and 2-D text arrays. Binary files are read one 2-D
+ * slice at a time through one buffer reused for all slices.
+ */
+public class ReadArrayData
+{
+	/* The shape of the array in an NPY file. */
+	public static int[] getShape(File file) throws IOException
+	{
+		return readNpyHeader(file).shape;
+	}
+
+
+	/* Reads a 3-D NPY array; a 2-D array is read as one slice, a 1-D array as one row. */
+	public static double[][][] readVolume(File file) throws IOException
+	{
+		NpyHeader header = readNpyHeader(file);
+		int[] shape = header.shape;
+		int depth = 1, height = 1, width;
+		if (shape.length == 3) {
+			depth = shape[0];
+			height = shape[1];
+			width = shape[2];
+		}
+		else if (shape.length == 2) {
+			height = shape[0];
+			width = shape[1];
+		}
+		else if (shape.length == 1) {
+			width = shape[0];
+		}
+		else {
+			throw new IOException(file + " holds a " + shape.length + "-D array.");
+		}
+		return readSlices(file, header.offset, header.order, header.bytesPerElement, depth, height, width);
+	}
+
+
+	/* Reads a 2-D array from an NPY file, or from a text file as written by WriteArrayData. */
+	public static double[][] readSlice(File file) throws IOException
+	{
+		if (!isNpy(file)) {
+			return readText(file);
+		}
+		int[] shape = getShape(file);
+		if (shape.length != 2) {
+			throw new IOException(file + " does not hold a 2-D array.");
+		}
+		return readVolume(file)[0];
+	}
+
+
+	/* Reads raw little-endian doubles of the given shape, as written by the RAW format. */
+	public static double[][][] readRaw(File file, int depth, int height, int width) throws IOException
+	{
+		long expected = (long)depth * height * width * 8;
+		if (file.length() != expected) {
+			throw new IOException(file + " has " + file.length() + " bytes instead of " + expected + ".");
+		}
+		return readSlices(file, 0, ByteOrder.LITTLE_ENDIAN, 8, depth, height, width);
+	}
+
+
+	/* Reads a 2-D text array: one row per line, elements separated by spaces. */
+	public static double[][] readText(File file) throws IOException
+	{
+		ArrayList rows = new ArrayList();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null) {
+				StringTokenizer tokens = new StringTokenizer(line);
+				if (!tokens.hasMoreTokens()) {
+					continue;
+				}
+				double[] row = new double[tokens.countTokens()];
+				for (int i = 0; i < row.length; i++) {
+					row[i] = Double.parseDouble(tokens.nextToken());
+				}
+				rows.add(row);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return (double[][])rows.toArray(new double[rows.size()][]);
+	}
+
+
+	/* Whether the file starts with the NPY magic string. */
+	public static boolean isNpy(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			byte[] magic = new byte[6];
+			if (raf.length() < 6) {
+				return false;
+			}
+			raf.readFully(magic);
+			return (magic[0] & 0xff) == 0x93 && new String(magic, 1, 5, "ISO-8859-1").equals("NUMPY");
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+
+	/* Reads the elements after the offset, one 2-D slice at a time. */
+	private static double[][][] readSlices(File file, long offset, ByteOrder order, int bytesPerElement,
+			int depth, int height, int width) throws IOException
+	{
+		double[][][] array = new double[depth][height][width];
+		int sliceBytes = height * width * bytesPerElement;
+		if (file.length() < offset + (long)sliceBytes * depth) {
+			throw new IOException(file + " is shorter than its shape.");
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(sliceBytes).order(order);
+			for (int d = 0; d < depth; d++) {
+				buffer.clear();
+				long position = offset + (long)d * sliceBytes;
+				while (buffer.hasRemaining()) {
+					int read = channel.read(buffer, position);
+					if (read < 0) {
+						throw new IOException(file + " is shorter than its shape.");
+					}
+					position += read;
+				}
+				buffer.flip();
+				if (bytesPerElement == 8) {
+					DoubleBuffer doubles = buffer.asDoubleBuffer();
+					for (int h = 0; h < height; h++) {
+						doubles.get(array[d][h]);
+					}
+				}
+				else {
+					FloatBuffer floats = buffer.asFloatBuffer();
+					for (int h = 0; h < height; h++) {
+						for (int w = 0; w < width; w++) {
+							array[d][h][w] = floats.get();
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+		return array;
+	}
+
+
+	/* Parses the header of an NPY file of version 1, 2 or 3. */
+	private static NpyHeader readNpyHeader(File file) throws IOException
+	{
+		if (!isNpy(file)) {
+			throw new IOException(file + " is not an NPY file.");
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			raf.seek(6);
+			int major = raf.readUnsignedByte();
+			raf.readUnsignedByte();
+			int length;
+			int offset;
+			if (major == 1) {
+				length = raf.readUnsignedByte() | (raf.readUnsignedByte() << 8);
+				offset = 10 + length;
+			}
+			else {
+				length = raf.readUnsignedByte() | (raf.readUnsignedByte() << 8)
+					| (raf.readUnsignedByte() << 16) | (raf.readUnsignedByte() << 24);
+				offset = 12 + length;
+			}
+			byte[] bytes = new byte[length];
+			raf.readFully(bytes);
+			String dict = new String(bytes, "ISO-8859-1");
+
+			NpyHeader header = new NpyHeader();
+			header.offset = offset;
+			String descr = getValue(dict, "descr");
+			if (descr.equals("'<f8'")) {
+				header.order = ByteOrder.LITTLE_ENDIAN;
+				header.bytesPerElement = 8;
+			}
+			else if (descr.equals("'>f8'")) {
+				header.order = ByteOrder.BIG_ENDIAN;
+				header.bytesPerElement = 8;
+			}
+			else if (descr.equals("'<f4'")) {
+				header.order = ByteOrder.LITTLE_ENDIAN;
+				header.bytesPerElement = 4;
+			}
+			else if (descr.equals("'>f4'")) {
+				header.order = ByteOrder.BIG_ENDIAN;
+				header.bytesPerElement = 4;
+			}
+			else {
+				throw new IOException(file + " holds elements of type " + descr + ".");
+			}
+			if (!getValue(dict, "fortran_order").equals("False")) {
+				throw new IOException(file + " is in Fortran order.");
+			}
+
+			String shape = getValue(dict, "shape");
+			StringTokenizer tokens = new StringTokenizer(shape, "(), ");
+			header.shape = new int[tokens.countTokens()];
+			for (int i = 0; i < header.shape.length; i++) {
+				header.shape[i] = Integer.parseInt(tokens.nextToken());
+			}
+			return header;
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+
+	/* The text of a value in the header dictionary, up to the next comma outside parentheses. */
+	private static String getValue(String dict, String key) throws IOException
+	{
+		int start = dict.indexOf("'" + key + "'");
+		if (start < 0) {
+			throw new IOException("The NPY header has no " + key + ".");
+		}
+		start = dict.indexOf(':', start) + 1;
+		int end = start;
+		int depth = 0;
+		while (end < dict.length()) {
+			char c = dict.charAt(end);
+			if (c == '(') {
+				depth++;
+			}
+			else if (c == ')') {
+				depth--;
+			}
+			else if ((c == ',' || c == '}') && depth == 0) {
+				break;
+			}
+			end++;
+		}
+		return dict.substring(start, end).trim();
+	}
+
+
+	/* The fields of an NPY header. */
+	private static class NpyHeader
+	{
+		int[] shape;
+		long offset;
+		ByteOrder order;
+		int bytesPerElement;
+	}
+}
@@ -11,12 +11,25 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.BufferedWriter;
+import java.io.RandomAccessFile;
 import java.io.Writer;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
 
 
 public class WriteArrayData
 {
+	/* Output formats: text, raw little-endian doubles, NPY (raw with a header
+	 * giving the shape, readable by numpy.load and ReadArrayData), and one
+	 * NPY file holding all slices, which numpy.load can memory-map. */
+	public static final int TEXT = 0;
+	public static final int RAW = 1;
+	public static final int NPY = 2;
+	public static final int MAPPED = 3;
+	
 	private double[] _vectorDouble;
 	private double[][] _arrayDouble;
 	private double[][][] _arrayDouble3D;
@@ -30,13 +43,70 @@ public class WriteArrayData
 	 * Direction 1 represents x-axis, 2 y-axis, and 3 z-axis.
 	 */
 	public WriteArrayData(double[][][] arrayDouble3D, File file, int direction)
+	{
+		WriteSlicesAction(arrayDouble3D, file, direction);
+	}
+	
+	
+	/* 3D array in the given format
+	 * Direction 1, 2 and 3 store the slices in the x-, y- and z-axis as in the text format, one 
+	 * file each for TEXT, RAW and NPY, and all in one file for MAPPED. Direction 0 stores the 
+	 * whole volume in one file. The binary formats read the elements straight from the array.
+	 */
+	public WriteArrayData(double[][][] arrayDouble3D, File file, int direction, int format)
+	{
+		if (direction < 0 || direction > 3) {
+			throw new IllegalArgumentException("Direction must be 0, 1, 2 or 3: " + direction);
+		}
+		if (format < TEXT || format > MAPPED) {
+			throw new IllegalArgumentException("Unknown format: " + format);
+		}
+		_arrayDouble3D = arrayDouble3D;
+		_file = file;
+		try
+		{
+			if (format == TEXT && direction == 0) {
+				WriteArray3DAction();
+			}
+			else if (format == TEXT) {
+				WriteSlicesAction(arrayDouble3D, file, direction);
+			}
+			else if (format == MAPPED) {
+				WriteMappedAction(direction);
+			}
+			else if (direction == 0) {
+				WriteBinaryAction(0, 0, format == NPY);
+			}
+			else {
+				// One binary file for each slice, named as in the text format.
+				String filePath = file.getAbsolutePath();
+				int indexOfDot = getExtensionIndex(filePath);
+				String fileName = filePath.substring(0, indexOfDot);
+				String extension = filePath.substring(indexOfDot);
+				String[] axes = {"_x_", "_y_", "_z_"};
+				int numOfSlice = getShape(arrayDouble3D, direction)[0];
+				for (int slice = 1; slice <= numOfSlice; slice++) {
+					_file = new File(fileName + axes[direction-1] + getInteger2String(slice) + extension);
+					WriteBinaryAction(direction, slice-1, format == NPY);
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			System.out.println("\n" + e);
+		}
+	}
+	
+	
+	/* This function stores the 3-D data into continuous 2-D text arrays based up the direction. */
+	private void WriteSlicesAction(double[][][] arrayDouble3D, File file, int direction)
 	{
 		int numOfFrame = arrayDouble3D.length;			// z-axis
 		int numOfRow = arrayDouble3D[0].length;			// y-axis
 		int numOfCol = arrayDouble3D[0][0].length;		// x-axis
 		// Get the original filename.
 	    String filePath = file.getAbsolutePath();
-	    int indexOfDot = filePath.indexOf(".");
+	    int indexOfDot = getExtensionIndex(filePath);
 	    // Extract the filename without the extension.
 	    String fileName = filePath.substring(0, indexOfDot);
 	    // Obtain the extension.
@@ -298,6 +368,184 @@ public class WriteArrayData
 	}
 	
 	
+	/* Writes the volume (direction 0) or one slice of it to _file as little-endian doubles, 
+	 * with an NPY header if npy is true.
+	 */
+	public void WriteBinaryAction(int direction, int slice, boolean npy) throws IOException
+	{
+		int[] shape = getShape(_arrayDouble3D, direction);
+		if (direction != 0) {
+			shape = new int[] {shape[1], shape[2]};
+		}
+		byte[] header = npy ? getNpyHeader(shape) : new byte[0];
+		
+		RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+		try
+		{
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			channel.write(ByteBuffer.wrap(header));
+			if (direction == 0) {
+				// One z-slice at a time.
+				int sliceBytes = shape[1] * shape[2] * 8;
+				ByteBuffer buffer = ByteBuffer.allocate(sliceBytes).order(ByteOrder.LITTLE_ENDIAN);
+				for (int d = 0; d < shape[0]; d++) {
+					buffer.clear();
+					PutSlice(buffer, 3, d);
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				}
+			}
+			else {
+				ByteBuffer buffer = ByteBuffer.allocate(shape[0] * shape[1] * 8).order(ByteOrder.LITTLE_ENDIAN);
+				PutSlice(buffer, direction, slice);
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+	
+	
+	/* Writes all slices in the direction (0 for the volume as it is) to one NPY file, each slice 
+	 * at its position through one buffer reused for all of them.
+	 */
+	public void WriteMappedAction(int direction) throws IOException
+	{
+		if (direction == 0) {
+			direction = 3;
+		}
+		int[] shape = getShape(_arrayDouble3D, direction);
+		byte[] header = getNpyHeader(shape);
+		int sliceBytes = shape[1] * shape[2] * 8;
+		
+		RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+		try
+		{
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			channel.write(ByteBuffer.wrap(header), 0);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(sliceBytes).order(ByteOrder.LITTLE_ENDIAN);
+			for (int slice = 0; slice < shape[0]; slice++) {
+				buffer.clear();
+				PutSlice(buffer, direction, slice);
+				buffer.flip();
+				long position = header.length + (long)slice * sliceBytes;
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+	
+	
+	/* Puts one slice of _arrayDouble3D into the buffer, laid out as in the text format: 
+	 * [z][y] for the x-axis, [z][x] for the y-axis and [y][x] for the z-axis.
+	 */
+	private void PutSlice(ByteBuffer buffer, int direction, int slice)
+	{
+		double[][][] a = _arrayDouble3D;
+		if (direction == 3) {
+			// Rows are contiguous in the array, so copy them in bulk.
+			DoubleBuffer doubles = buffer.asDoubleBuffer();
+			for (int h = 0; h < a[slice].length; h++) {
+				doubles.put(a[slice][h]);
+			}
+			buffer.position(buffer.position() + doubles.position() * 8);
+		}
+		else if (direction == 2) {
+			for (int d = 0; d < a.length; d++) {
+				for (int w = 0; w < a[d][slice].length; w++) {
+					buffer.putDouble(a[d][slice][w]);
+				}
+			}
+		}
+		else {
+			for (int d = 0; d < a.length; d++) {
+				for (int h = 0; h < a[d].length; h++) {
+					buffer.putDouble(a[d][h][slice]);
+				}
+			}
+		}
+	}
+	
+	
+	/* The index of the extension in the path: its last dot after the last separator, or the 
+	 * length of the path if the file name has no dot.
+	 */
+	private static int getExtensionIndex(String filePath)
+	{
+		int indexOfDot = filePath.lastIndexOf('.');
+		if (indexOfDot <= filePath.lastIndexOf(File.separatorChar)) {
+			return filePath.length();
+		}
+		return indexOfDot;
+	}
+	
+	
+	/* The number of slices in the direction and the shape of each slice; for direction 0, the 
+	 * shape of the volume.
+	 */
+	public static int[] getShape(double[][][] arrayDouble3D, int direction)
+	{
+		int numOfFrame = arrayDouble3D.length;			// z-axis
+		int numOfRow = arrayDouble3D[0].length;			// y-axis
+		int numOfCol = arrayDouble3D[0][0].length;		// x-axis
+		if (direction == 1) {
+			return new int[] {numOfCol, numOfFrame, numOfRow};
+		}
+		else if (direction == 2) {
+			return new int[] {numOfRow, numOfFrame, numOfCol};
+		}
+		return new int[] {numOfFrame, numOfRow, numOfCol};
+	}
+	
+	
+	/* The NPY version 1.0 header of a C-ordered array of little-endian doubles, padded to a 
+	 * multiple of 64 bytes.
+	 */
+	public static byte[] getNpyHeader(int[] shape)
+	{
+		StringBuffer dict = new StringBuffer("{'descr': '<f8', 'fortran_order': False, 'shape': (");
+		for (int i = 0; i < shape.length; i++) {
+			dict.append(shape[i]).append(", ");
+		}
+		// A tuple of one element keeps its comma.
+		dict.setLength(dict.length() - (shape.length > 1 ? 2 : 1));
+		dict.append("), }");
+		int total = 10 + dict.length() + 1;
+		while (total % 64 != 0) {
+			dict.append(' ');
+			total++;
+		}
+		dict.append('\n');
+		
+		byte[] header = new byte[total];
+		header[0] = (byte)0x93;
+		System.arraycopy("NUMPY".getBytes(), 0, header, 1, 5);
+		header[6] = 1;
+		header[7] = 0;
+		int length = dict.length();
+		header[8] = (byte)(length & 0xff);
+		header[9] = (byte)(length >> 8);
+		for (int i = 0; i < length; i++) {
+			header[10 + i] = (byte)dict.charAt(i);
+		}
+		return header;
+	}
+	
+	
 	public void WriteStringAction() throws IOException
 	{
 		FileOutputStream fos;